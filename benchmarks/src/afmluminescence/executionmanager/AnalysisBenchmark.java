@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.BenchmarkSamples;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The processing of the simulation results
+ *  - sort: SimulationSorter binning of the recombination times and energies of all the electrons, in the default 100 bins
+ *  - judge: SimulationJudge scoring of a simulated spectrum against an experimental one, both sampled on the given number of points
+ * @author audreyazura
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark
+{
+    @Benchmark
+    public SimulationSorter sort(Results p_state)
+    {
+        return new SimulationSorter(p_state.times, p_state.energies, 100, 100);
+    }
+    
+    @Benchmark
+    public boolean judge(Spectra p_state)
+    {
+        SimulationJudge judge = new SimulationJudge(p_state.experimental, p_state.simulated);
+        
+        return judge.maximumMatch() && judge.shapeMatch();
+    }
+    
+    /**
+     * Recombination times following an exponential decay of 1 ns, rounded to the time step, and energies of 300 QDs spread around 1.2 eV
+     */
+    @State(Scope.Benchmark)
+    public static class Results
+    {
+        @Param({"10000", "100000", "1000000"})
+        public int electrons;
+        
+        List<BigDecimal> times;
+        List<BigDecimal> energies;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            PcgRSFast RNG = new PcgRSFast(BenchmarkSamples.SEED, 5);
+            BigDecimal[] QDEnergies = new BigDecimal[300];
+            for (int i = 0 ; i < QDEnergies.length ; i += 1)
+            {
+                QDEnergies[i] = new BigDecimal(1.2 + 0.02 * RNG.nextGaussian()).multiply(PhysicsTools.EV);
+            }
+            
+            times = new ArrayList<>(electrons);
+            energies = new ArrayList<>(electrons);
+            for (int i = 0 ; i < electrons ; i += 1)
+            {
+                long steps = 1 + (long) (-1000 * Math.log(1 - RNG.nextDouble()));
+                
+                times.add(BenchmarkSamples.TIME_STEP.multiply(new BigDecimal(steps)));
+                energies.add(QDEnergies[RNG.nextInt(QDEnergies.length)]);
+            }
+        }
+    }
+    
+    /**
+     * Two gaussian spectra, the simulated one being shifted by 5 meV and slightly narrower
+     */
+    @State(Scope.Benchmark)
+    public static class Spectra
+    {
+        @Param({"100", "1000"})
+        public int bins;
+        
+        ContinuousFunction experimental;
+        ContinuousFunction simulated;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            experimental = gaussian(1.2, 0.03);
+            simulated = gaussian(1.205, 0.025);
+        }
+        
+        private ContinuousFunction gaussian(double p_center, double p_width)
+        {
+            HashMap<BigDecimal, BigDecimal> values = new HashMap<>();
+            
+            for (int i = 0 ; i < bins ; i += 1)
+            {
+                double energy = 1.1 + 0.2 * i / (bins - 1);
+                
+                values.put(new BigDecimal(energy).multiply(PhysicsTools.EV), new BigDecimal(Math.exp(-Math.pow((energy - p_center) / p_width, 2) / 2)));
+            }
+            
+            return new ContinuousFunction(values);
+        }
+    }
+}
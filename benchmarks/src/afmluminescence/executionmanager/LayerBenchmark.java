@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.BenchmarkSamples;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation of a random QD layer with the default size distribution: placement, then QuantumDot construction split between the threads
+ * The sample grows with the number of QDs, so that the density stays the one of the default configuration (300 QDs on 1 µm x 1 µm).
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LayerBenchmark
+{
+    @Param({"300", "3000"})
+    public int QDs;
+    
+    @Param({"1", "4"})
+    public int threads;
+    
+    @Param({"RANDOM", "POISSON_DISK"})
+    public QDDistributionGenerator.Method placement;
+    
+    private BigDecimal m_sampleSize;
+    private ContinuousFunction m_captureTimes;
+    private ContinuousFunction m_escapeTimes;
+    
+    @Setup(Level.Trial)
+    public void prepare()
+    {
+        m_sampleSize = BenchmarkSamples.SAMPLE_SIZE.multiply(new BigDecimal(Math.sqrt(QDs / 300.0)));
+        m_captureTimes = BenchmarkSamples.timeTable(5e-12, 2);
+        m_escapeTimes = BenchmarkSamples.timeTable(1e-9, -3);
+    }
+    
+    @Benchmark
+    public List<QuantumDot> generate()
+    {
+        QDDistributionGenerator generator = new QDDistributionGenerator(placement, m_sampleSize, m_sampleSize, QDSizeDistribution.defaultDistribution(), BigDecimal.ZERO, new PcgRSFast(BenchmarkSamples.SEED, 1));
+        
+        return generator.generate(QDs, BenchmarkSamples.TIME_STEP, m_captureTimes, m_escapeTimes, threads);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.BenchmarkSamples;
+import afmluminescence.luminescencegenerator.Electron;
+import afmluminescence.luminescencegenerator.GeneratorManager;
+import afmluminescence.luminescencegenerator.ImageBuffer;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import afmluminescence.luminescencegenerator.SimulationEngine;
+import afmluminescence.luminescencegenerator.SimulationMetrics;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import net.opentsdb.tools.ArgP;
+
+/**
+ * End-to-end throughput of the simulation: complete headless GeneratorManager runs on random QD layers
+ * Every combination of the given electron numbers, QD numbers and sample sizes is run once, and reported as JSON:
+ *  - electron-steps per second: the number of moves of not yet recombined electrons, divided by the wall time of the run
+ *  - wall and simulated time at which 50%, 90% and 100% of the electrons have recombined
+ *  - peak heap usage and the number and total time of the garbage collections during the run
+ *  - for runs reordering the electrons along a Morton curve (sort period above 0), the throughput gain over the same run in creation order, if it has been run before
+ * The layers are generated before the measure, with the default size distribution and a fixed seed.
+ * Usage: ThroughputBenchmark [--electrons 1000,10000,...] [--QDs 300,1000] [--sample 1e-6] [--threads N] [--engine chunks,work_stealing,tiles] [--sortPeriod 0,10] [--output FILE]
+ * @author audreyazura
+ */
+public class ThroughputBenchmark
+{
+    private static final double[] RECOMBINATION_FRACTIONS = {0.5, 0.9, 1.0};
+    
+    private final int m_nThreads;
+    private final List<String> m_runs = new ArrayList<>();
+    //electron-steps per second of the runs in creation order, by engine, electrons, QDs and sample size
+    private final Map<String, Double> m_unsortedThroughputs = new HashMap<>();
+    
+    public ThroughputBenchmark (int p_nThreads)
+    {
+        m_nThreads = p_nThreads;
+    }
+    
+    public static void main(String[] args) throws DataFormatException, IOException
+    {
+        ArgP argParser = new ArgP();
+        argParser.addOption("--electrons", "N,...", "Numbers of electrons (default: 1000,10000,100000).");
+        argParser.addOption("--QDs", "N,...", "Numbers of QDs (default: 300,1000).");
+        argParser.addOption("--sample", "SIZE,...", "Sizes of the square sample, in meters (default: 1e-6).");
+        argParser.addOption("--threads", "N", "Number of simulation threads (default: number of cores).");
+        argParser.addOption("--engine", "ENGINE,...", "Simulation engines (default: chunks).");
+        argParser.addOption("--sortPeriod", "STEPS,...", "Time steps between two Morton reorderings of the electrons, 0 for none (default: 0).");
+        argParser.addOption("--output", "FILE", "File the JSON report is written in (default: standard output).");
+        argParser.parse(args);
+        
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(Integer.parseInt(argParser.get("--threads", Integer.toString(Runtime.getRuntime().availableProcessors()))));
+        for (String engine: argParser.get("--engine", "chunks").split(","))
+        {
+            for (String sample: argParser.get("--sample", "1e-6").split(","))
+            {
+                for (String QDs: argParser.get("--QDs", "300,1000").split(","))
+                {
+                    for (String electrons: argParser.get("--electrons", "1000,10000,100000").split(","))
+                    {
+                        for (String sortPeriod: argParser.get("--sortPeriod", "0").split(","))
+                        {
+                            benchmark.run(Integer.parseInt(electrons.strip()), Integer.parseInt(QDs.strip()), new BigDecimal(sample.strip()), SimulationEngine.valueOf(engine.strip().toUpperCase()), Integer.parseInt(sortPeriod.strip()));
+                        }
+                    }
+                }
+            }
+        }
+        
+        try (Writer reportWriter = argParser.has("--output") ? new BufferedWriter(new FileWriter(argParser.get("--output"))) : new OutputStreamWriter(System.out))
+        {
+            benchmark.writeReport(reportWriter);
+        }
+    }
+    
+    public void run(int p_nElectrons, int p_nQDs, BigDecimal p_sampleSize, SimulationEngine p_engine, int p_sortPeriod) throws DataFormatException, IOException
+    {
+        QDDistributionGenerator layerGenerator = new QDDistributionGenerator(QDDistributionGenerator.Method.RANDOM, p_sampleSize, p_sampleSize, QDSizeDistribution.defaultDistribution(), BigDecimal.ZERO, new PcgRSFast(BenchmarkSamples.SEED, 1));
+        List<QuantumDot> QDList = layerGenerator.generate(p_nQDs, BenchmarkSamples.TIME_STEP, BenchmarkSamples.timeTable(5e-12, 2), BenchmarkSamples.timeTable(1e-9, -3), m_nThreads);
+        ProgressBuffer progress = new ProgressBuffer(p_nElectrons);
+        GeneratorManager generator = new GeneratorManager(progress, p_nElectrons, QDList, BenchmarkSamples.TEMPERATURE, BenchmarkSamples.TIME_STEP, p_sampleSize, p_sampleSize, m_nThreads, p_engine, BenchmarkSamples.SEED);
+        generator.setSortPeriod(p_sortPeriod);
+        
+        System.gc();
+        long gcCountStart = 0;
+        long gcTimeStart = 0;
+        for (GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcCountStart += Long.max(0, collector.getCollectionCount());
+            gcTimeStart += Long.max(0, collector.getCollectionTime());
+        }
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+        {
+            pool.resetPeakUsage();
+        }
+        
+        progress.start(generator.getMetrics());
+        generator.run();
+        long wallNanos = System.nanoTime() - progress.m_startNanos;
+        
+        long gcCount = -gcCountStart;
+        long gcTime = -gcTimeStart;
+        for (GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcCount += Long.max(0, collector.getCollectionCount());
+            gcTime += Long.max(0, collector.getCollectionTime());
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        
+        double throughput = progress.m_electronSteps / (wallNanos * 1e-9);
+        String configuration = p_engine + " " + p_nElectrons + " " + p_nQDs + " " + p_sampleSize;
+        if (p_sortPeriod == 0)
+        {
+            m_unsortedThroughputs.put(configuration, throughput);
+        }
+        Double unsortedThroughput = p_sortPeriod > 0 ? m_unsortedThroughputs.get(configuration) : null;
+        
+        double sampleArea = p_sampleSize.doubleValue() * p_sampleSize.doubleValue();
+        StringBuilder run = new StringBuilder();
+        run.append("    {\"engine\": \"").append(p_engine).append("\"");
+        run.append(", \"sortPeriod\": ").append(p_sortPeriod);
+        run.append(", \"electrons\": ").append(p_nElectrons);
+        run.append(", \"QDs\": ").append(QDList.size());
+        run.append(", \"sampleSize\": ").append(p_sampleSize.doubleValue());
+        run.append(", \"QDDensityPerSquareMicrometer\": ").append(QDList.size() / (sampleArea * 1e12));
+        run.append(", \"steps\": ").append(progress.m_steps);
+        run.append(", \"electronSteps\": ").append(progress.m_electronSteps);
+        run.append(", \"wallSeconds\": ").append(wallNanos * 1e-9);
+        run.append(", \"electronStepsPerSecond\": ").append(throughput);
+        if (unsortedThroughput != null)
+        {
+            run.append(", \"sortingGain\": ").append(throughput / unsortedThroughput);
+        }
+        run.append(", \"recombination\": {");
+        for (int i = 0 ; i < RECOMBINATION_FRACTIONS.length ; i += 1)
+        {
+            run.append(i == 0 ? "" : ", ").append("\"").append(Math.round(RECOMBINATION_FRACTIONS[i] * 100)).append("%\": {\"wallSeconds\": ").append(progress.m_fractionWallNanos[i] * 1e-9);
+            run.append(", \"simulatedSeconds\": ").append(progress.m_fractionSteps[i] * BenchmarkSamples.TIME_STEP.doubleValue()).append("}");
+        }
+        run.append("}");
+        run.append(", \"peakHeapBytes\": ").append(peakHeap);
+        run.append(", \"gcCount\": ").append(gcCount);
+        run.append(", \"gcMillis\": ").append(gcTime);
+        run.append("}");
+        
+        m_runs.add(run.toString());
+        System.err.println(p_engine + ", sort period " + p_sortPeriod + ", " + p_nElectrons + " electrons, " + QDList.size() + " QDs: " + throughput + " electron-steps/s" + (unsortedThroughput != null ? String.format(" (x%.2f over creation order)", throughput / unsortedThroughput) : ""));
+    }
+    
+    public void writeReport(Writer p_writer) throws IOException
+    {
+        p_writer.write("{\n");
+        p_writer.write("  \"date\": \"" + Instant.now() + "\",\n");
+        p_writer.write("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",\n");
+        p_writer.write("  \"javaVM\": \"" + System.getProperty("java.vm.name") + "\",\n");
+        p_writer.write("  \"os\": \"" + System.getProperty("os.name") + " " + System.getProperty("os.arch") + "\",\n");
+        p_writer.write("  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+        p_writer.write("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",\n");
+        p_writer.write("  \"threads\": " + m_nThreads + ",\n");
+        p_writer.write("  \"runs\": [\n");
+        p_writer.write(String.join(",\n", m_runs));
+        p_writer.write("\n  ]\n}\n");
+        p_writer.flush();
+    }
+    
+    /**
+     * Follows the progress of the simulation through the time GeneratorManager logs after each step, the recombined electrons being counted by the engine in the simulation metrics
+     * The electron list is not scanned, so that following the progress costs nothing per electron, like the HeadlessBuffer of the production runs
+     */
+    private static class ProgressBuffer implements ImageBuffer
+    {
+        private final int m_nElectrons;
+        private final long[] m_fractionSteps = new long[RECOMBINATION_FRACTIONS.length];
+        private final long[] m_fractionWallNanos = new long[RECOMBINATION_FRACTIONS.length];
+        private long m_startNanos;
+        private SimulationMetrics m_metrics;
+        private long m_steps = 0;
+        private long m_electronSteps = 0;
+        private long m_active;
+        private long m_recombined = 0;
+        private int m_nextFraction = 0;
+        
+        ProgressBuffer (int p_nElectrons)
+        {
+            m_nElectrons = p_nElectrons;
+            m_active = p_nElectrons;
+        }
+        
+        void start(SimulationMetrics p_metrics)
+        {
+            m_metrics = p_metrics;
+            m_startNanos = System.nanoTime();
+        }
+        
+        @Override
+        public void logElectrons(List<Electron> p_listToDraw)
+        {
+        }
+        
+        @Override
+        public void logQDs(List<QuantumDot> p_listToDraw)
+        {
+        }
+        
+        @Override
+        public void logRecombinedQDs(Collection<QuantumDot> p_recombined)
+        {
+        }
+        
+        @Override
+        public void logTime(BigDecimal p_time)
+        {
+            if (p_time.signum() > 0)
+            {
+                //the electrons not recombined before this step have all been moved
+                m_steps += 1;
+                m_electronSteps += m_active;
+                m_recombined = m_metrics.getRecombinedElectrons();
+                m_active = m_nElectrons - m_recombined;
+                
+                while (m_nextFraction < RECOMBINATION_FRACTIONS.length && m_recombined >= RECOMBINATION_FRACTIONS[m_nextFraction] * m_nElectrons)
+                {
+                    m_fractionSteps[m_nextFraction] = m_steps;
+                    m_fractionWallNanos[m_nextFraction] = System.nanoTime() - m_startNanos;
+                    m_nextFraction += 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Synthetic samples shared by the benchmarks, all drawn from fixed seeds so that every run measures the same work
+ * The sizes are the ones of the default configuration: 1 µm x 1 µm sample, 1 ps time step, 300 K, QD radius around 12 nm.
+ * @author audreyazura
+ */
+public class BenchmarkSamples
+{
+    public static final BigDecimal SAMPLE_SIZE = new BigDecimal("1e-6");
+    public static final BigDecimal TIME_STEP = new BigDecimal("1e-12");
+    public static final BigDecimal TEMPERATURE = new BigDecimal("300");
+    public static final long SEED = 42;
+    
+    public static BigDecimal thermalVelocity()
+    {
+        return GeneratorManager.formatBigDecimal((PhysicsTools.KB.multiply(TEMPERATURE).divide(PhysicsTools.ME, MathContext.DECIMAL128)).sqrt(MathContext.DECIMAL128));
+    }
+    
+    /**
+     * QDs at random positions with radii between 8 and 16 nm, built from given probabilities (no confinement calculation) shared by all of them, in one store
+     * Overlaps are allowed: they do not change the cost of the simulation.
+     */
+    public static List<QuantumDot> randomQDs(int p_nQDs, double p_captureProbability, double p_escapeProbability, double p_recombinationProbability)
+    {
+        PcgRSFast RNG = new PcgRSFast(SEED, 1);
+        QDStore store = new QDStore(p_nQDs);
+        QDProperties properties = new QDProperties(new BigDecimal("1.2").multiply(PhysicsTools.EV), p_captureProbability, p_escapeProbability, p_recombinationProbability);
+        
+        for (int i = 0 ; i < p_nQDs ; i += 1)
+        {
+            BigDecimal x = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextDouble()).multiply(SAMPLE_SIZE));
+            BigDecimal y = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextDouble()).multiply(SAMPLE_SIZE));
+            BigDecimal radius = GeneratorManager.formatBigDecimal(new BigDecimal((8 + 8 * RNG.nextDouble()) * 1e-9));
+            
+            store.add(x.doubleValue(), y.doubleValue(), radius.doubleValue(), radius.doubleValue(), properties);
+        }
+        
+        return store.asList();
+    }
+    
+    /**
+     * Free electrons at random positions with thermal velocities, as generated by GeneratorManager
+     */
+    public static List<Electron> randomElectrons(int p_nElectrons)
+    {
+        PcgRSFast RNG = new PcgRSFast(SEED, 2);
+        BigDecimal vth = thermalVelocity();
+        List<Electron> electronList = new ArrayList<>(p_nElectrons);
+        
+        for (int i = 0 ; i < p_nElectrons ; i += 1)
+        {
+            BigDecimal x = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextDouble()).multiply(SAMPLE_SIZE));
+            BigDecimal y = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextDouble()).multiply(SAMPLE_SIZE));
+            BigDecimal vx = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextGaussian()).multiply(vth));
+            BigDecimal vy = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextGaussian()).multiply(vth));
+            
+            electronList.add(new Electron(i, x, y, vx, vy));
+        }
+        
+        return electronList;
+    }
+    
+    public static QDIndex index(List<QuantumDot> p_QDList)
+    {
+        return new QDIndex(p_QDList);
+    }
+    
+    /**
+     * A time table as read by SCSVLoader: times in seconds as a function of the QD radius in meters, from 1 to 30 nm
+     * @param p_timeAt10nm the time for a 10 nm radius
+     * @param p_exponent the power of the radius the time follows
+     */
+    public static ContinuousFunction timeTable(double p_timeAt10nm, double p_exponent)
+    {
+        HashMap<BigDecimal, BigDecimal> values = new HashMap<>();
+        
+        for (int radius = 1 ; radius <= 30 ; radius += 1)
+        {
+            values.put(new BigDecimal(radius).scaleByPowerOfTen(-9), new BigDecimal(p_timeAt10nm * Math.pow(radius / 10.0, p_exponent)));
+        }
+        
+        return new ContinuousFunction(values);
+    }
+}
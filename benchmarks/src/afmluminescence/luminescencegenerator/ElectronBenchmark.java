@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One time step of the electrons, as done by the ElectronMovers of GeneratorManager
+ *  - moveFree: the electrons look for QDs in range and fly. The QDs have a negligible capture probability, so every electron stays free and the whole capture evaluation is measured.
+ *  - moveFreeBatched: the same moves, the captures being evaluated for all the electrons at once by a CaptureBatch
+ *  - moveTrapped: every electron is held in a QD that never lets it escape nor recombine, measuring the escape and recombination draws.
+ *  - step: one time step of the free electrons split between one ElectronMover per thread, each in its own thread, as GeneratorManager does. It is the only one depending on the thread count and on the sort period, the number of steps between two Morton reorderings of the electrons (0: creation order).
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElectronBenchmark
+{
+    @Param({"1000", "10000"})
+    public int electrons;
+    
+    @Param({"300", "3000"})
+    public int QDs;
+    
+    private BigDecimal m_vth;
+    private QDIndex m_freeIndex;
+    private QDIndex m_trapIndex;
+    private List<Electron> m_freeElectrons;
+    private List<Electron> m_trappedElectrons;
+    private PcgRSFast m_RNG;
+    private CaptureBatch m_captures;
+    
+    @Setup(Level.Trial)
+    public void prepare()
+    {
+        m_vth = BenchmarkSamples.thermalVelocity();
+        m_RNG = new PcgRSFast(BenchmarkSamples.SEED, 3);
+        
+        m_freeIndex = BenchmarkSamples.index(BenchmarkSamples.randomQDs(QDs, Double.MIN_VALUE, 0, 0));
+        m_freeElectrons = BenchmarkSamples.randomElectrons(electrons);
+        m_captures = new CaptureBatch(m_freeIndex, BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE);
+        
+        //an almost still electron at the center of a QD of capture probability 1 is captured at its first move
+        List<QuantumDot> trapQDs = BenchmarkSamples.randomQDs(QDs, 1, 0, 0);
+        m_trapIndex = BenchmarkSamples.index(trapQDs);
+        m_trappedElectrons = new ArrayList<>(electrons);
+        for (int i = 0 ; i < electrons ; i += 1)
+        {
+            QuantumDot trap = trapQDs.get(i % QDs);
+            Electron electron = new Electron(i, trap.getX(), trap.getY(), BigDecimal.ONE, BigDecimal.ONE);
+            
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_trapIndex, m_RNG);
+            if (electron.isFree())
+            {
+                throw new IllegalStateException("Electron " + i + " has not been trapped.");
+            }
+            m_trappedElectrons.add(electron);
+        }
+    }
+    
+    @Benchmark
+    public void moveFree(Blackhole p_hole)
+    {
+        for (Electron electron: m_freeElectrons)
+        {
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_freeIndex, m_RNG);
+            p_hole.consume(electron.getX());
+        }
+    }
+    
+    @Benchmark
+    public void moveFreeBatched(Blackhole p_hole)
+    {
+        for (Electron electron: m_freeElectrons)
+        {
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_freeIndex, m_RNG, null, m_captures);
+        }
+        m_captures.resolve(m_RNG, null);
+        p_hole.consume(m_captures.getLastAttempts());
+    }
+    
+    @Benchmark
+    public void moveTrapped(Blackhole p_hole)
+    {
+        for (Electron electron: m_trappedElectrons)
+        {
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_trapIndex, m_RNG);
+            p_hole.consume(electron.isFree());
+        }
+    }
+    
+    @Benchmark
+    public void step(Movers p_movers) throws InterruptedException
+    {
+        Thread[] workerArray = new Thread[p_movers.threads];
+        
+        for (int i = 0 ; i < p_movers.threads ; i += 1)
+        {
+            workerArray[i] = new Thread(p_movers.m_movers[i]);
+            workerArray[i].start();
+        }
+        for (int i = 0 ; i < p_movers.threads ; i += 1)
+        {
+            workerArray[i].join();
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Movers
+    {
+        @Param({"1", "4"})
+        public int threads;
+        
+        @Param({"0", "10"})
+        public int sortPeriod;
+        
+        private ElectronMover[] m_movers;
+        
+        @Setup(Level.Trial)
+        public void prepare(ElectronBenchmark p_benchmark)
+        {
+            //the electrons dealt round-robin between the movers, as in GeneratorManager
+            List<Electron>[] chunks = new List[threads];
+            for (int i = 0 ; i < threads ; i += 1)
+            {
+                chunks[i] = new ArrayList<>();
+            }
+            for (int i = 0 ; i < p_benchmark.electrons ; i += 1)
+            {
+                chunks[i % threads].add(p_benchmark.m_freeElectrons.get(i));
+            }
+            m_movers = new ElectronMover[threads];
+            for (int i = 0 ; i < threads ; i += 1)
+            {
+                m_movers[i] = new ElectronMover(BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.TIME_STEP, p_benchmark.m_vth, chunks[i], p_benchmark.m_freeIndex, new PcgRSFast(BenchmarkSamples.SEED, 4 + i), i);
+                m_movers[i].setSortPeriod(sortPeriod);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Free flight of electrons far from any QD, one time step per invocation
+ *  - exact: Electron.move flying each electron in BigDecimal
+ *  - batched: Electron.move handing the electrons to a FlightBatch, flown together in double precision
+ *  - kernel*: the flight loop of FlightBatch alone, on primitive arrays, with the vector width of the JIT forced by the fork options: scalar (no vectorisation), 128, 256 and 512 bits. On a CPU without the wider instructions, the JIT falls back to the widest it has.
+ * The electrons are redrawn before each iteration, so that the BigDecimal positions do not grow longer from one iteration to the next.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FreeFlightBenchmark
+{
+    @Param({"1000", "100000"})
+    public int electrons;
+    
+    private final QDIndex m_emptyIndex = new QDIndex(new ArrayList<>());
+    private final FlightBatch m_flights = new FlightBatch();
+    private final PcgRSFast m_RNG = new PcgRSFast(BenchmarkSamples.SEED, 3);
+    private BigDecimal m_vth;
+    private List<Electron> m_electrons;
+    private double[] m_x;
+    private double[] m_y;
+    private double[] m_vx;
+    private double[] m_vy;
+    private double m_timeStep;
+    private double m_sampleSize;
+    
+    @Setup(Level.Iteration)
+    public void prepare()
+    {
+        m_vth = BenchmarkSamples.thermalVelocity();
+        m_electrons = BenchmarkSamples.randomElectrons(electrons);
+        m_timeStep = BenchmarkSamples.TIME_STEP.doubleValue();
+        m_sampleSize = BenchmarkSamples.SAMPLE_SIZE.doubleValue();
+        
+        m_x = new double[electrons];
+        m_y = new double[electrons];
+        m_vx = new double[electrons];
+        m_vy = new double[electrons];
+        for (int i = 0 ; i < electrons ; i += 1)
+        {
+            Electron electron = m_electrons.get(i);
+            m_x[i] = electron.getX().doubleValue();
+            m_y[i] = electron.getY().doubleValue();
+            m_vx[i] = electron.getSpeedX().doubleValue();
+            m_vy[i] = electron.getSpeedY().doubleValue();
+        }
+    }
+    
+    @Benchmark
+    public Object exact()
+    {
+        for (Electron electron: m_electrons)
+        {
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_emptyIndex, m_RNG);
+        }
+        
+        return m_electrons.get(0).getX();
+    }
+    
+    @Benchmark
+    public Object batched()
+    {
+        for (Electron electron: m_electrons)
+        {
+            electron.move(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE, m_vth, m_emptyIndex, m_RNG, m_flights, null);
+        }
+        m_flights.fly(BenchmarkSamples.TIME_STEP, BenchmarkSamples.SAMPLE_SIZE, BenchmarkSamples.SAMPLE_SIZE);
+        
+        return m_electrons.get(0).getX();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:-UseSuperWord")
+    public double kernelScalar()
+    {
+        return kernel();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:MaxVectorSize=16")
+    public double kernel128()
+    {
+        return kernel();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:MaxVectorSize=32")
+    public double kernel256()
+    {
+        return kernel();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:MaxVectorSize=64")
+    public double kernel512()
+    {
+        return kernel();
+    }
+    
+    private double kernel()
+    {
+        FlightBatch.fly(m_x, m_y, m_vx, m_vy, electrons, m_timeStep, m_sampleSize, m_sampleSize);
+        
+        return m_x[0];
+    }
+}
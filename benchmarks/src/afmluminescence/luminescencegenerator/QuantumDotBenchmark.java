@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The QD operations of the simulation
+ *  - capture: QuantumDot.capture in each of its four overlap cases (see its documentation), for a 10 nm QD
+ *  - construct: the confinement energy and probabilities calculation of one 10 nm QD
+ *  - constructClassified: the construction of one 10 nm QD whose geometry class (0.1 nm) is already in the property table
+ *  - constructResampled: the construction of one 10 nm QD with the time tables resampled on 1024 points
+ *  - interpolate, interpolateResampled: the capture time of a 10 nm QD, read in the loaded table and in the resampled one
+ *  - buildIndex: the construction of the QD index of a layer
+ *  - lookup: the search of the QDs in range of an electron flying 10 nm, as done at the start of Electron.move
+ *  - scanStore: a pass over the radius column of a layer of 10^6 QDs. The setup of the layer prints the heap its store and its index take per QD.
+ * @author audreyazura
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantumDotBenchmark
+{
+    @Benchmark
+    public boolean capture(SingleQD p_state)
+    {
+        return p_state.QD.capture(p_state.RNG, p_state.overlap.distance, p_state.overlap.span);
+    }
+    
+    @Benchmark
+    public QuantumDot construct(Tables p_state)
+    {
+        return new QuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, SingleQD.RADIUS, SingleQD.RADIUS, BenchmarkSamples.TIME_STEP, p_state.captureTimes, p_state.escapeTimes);
+    }
+    
+    @Benchmark
+    public QuantumDot constructClassified(Tables p_state)
+    {
+        return new QuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, SingleQD.RADIUS, SingleQD.RADIUS, p_state.classes);
+    }
+    
+    @Benchmark
+    public QuantumDot constructResampled(Tables p_state)
+    {
+        return new QuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, SingleQD.RADIUS, SingleQD.RADIUS, p_state.resampled);
+    }
+    
+    @Benchmark
+    public BigDecimal interpolate(Tables p_state)
+    {
+        return p_state.captureTimes.getValueAtPosition(SingleQD.RADIUS);
+    }
+    
+    @Benchmark
+    public BigDecimal interpolateResampled(Tables p_state)
+    {
+        return p_state.resampledCaptureTimes.getValueAtPosition(SingleQD.RADIUS);
+    }
+    
+    @Benchmark
+    public QDIndex buildIndex(Layer p_state)
+    {
+        return BenchmarkSamples.index(p_state.QDList);
+    }
+    
+    @Benchmark
+    public int lookup(Layer p_state)
+    {
+        BigDecimal scanStart = p_state.nextLookupStart().scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
+        BigDecimal scanEnd = scanStart.add(BigDecimal.TEN.add(BigDecimal.TEN));
+        int nFound = 0;
+        
+        for (BigDecimal iter = scanStart ; iter.compareTo(scanEnd) <= 0 ; iter = iter.add(BigDecimal.ONE))
+        {
+            long column = iter.longValue();
+            nFound += p_state.index.columnEnd(column) - p_state.index.columnStart(column);
+        }
+        
+        return nFound;
+    }
+    
+    @Benchmark
+    public double scanStore(Footprint p_state)
+    {
+        double radiusSum = 0;
+        
+        for (int id = 0 ; id < p_state.store.size() ; id += 1)
+        {
+            radiusSum += p_state.store.getRadius(id);
+        }
+        
+        return radiusSum;
+    }
+    
+    @State(Scope.Benchmark)
+    public static class SingleQD
+    {
+        static final BigDecimal RADIUS = new BigDecimal("10e-9");
+        
+        @Param({"INSIDE", "QD_IN_SPAN", "FAR_INTERSECTION", "NEAR_INTERSECTION"})
+        public OverlapCase overlap;
+        
+        PcgRSFast RNG;
+        QuantumDot QD;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            RNG = new PcgRSFast(BenchmarkSamples.SEED, 3);
+            QD = new QuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, RADIUS, RADIUS, new BigDecimal("1.2").multiply(PhysicsTools.EV), 0.5, 0, 0);
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Tables
+    {
+        ContinuousFunction captureTimes;
+        ContinuousFunction escapeTimes;
+        QDPropertyTable classes;
+        ResampledFunction resampledCaptureTimes;
+        QDPropertyTable resampled;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            captureTimes = BenchmarkSamples.timeTable(5e-12, 2);
+            escapeTimes = BenchmarkSamples.timeTable(1e-9, -3);
+            classes = new QDPropertyTable(BenchmarkSamples.TIME_STEP, captureTimes, escapeTimes, new BigDecimal("0.1e-9"));
+            classes.get(SingleQD.RADIUS, SingleQD.RADIUS);
+            resampledCaptureTimes = new ResampledFunction(captureTimes, 1024);
+            resampled = new QDPropertyTable(BenchmarkSamples.TIME_STEP, resampledCaptureTimes, new ResampledFunction(escapeTimes, 1024), BigDecimal.ZERO, false);
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Layer
+    {
+        @Param({"300", "3000"})
+        public int QDs;
+        
+        QDIndex index;
+        List<QuantumDot> QDList;
+        private BigDecimal[] m_lookupStarts;
+        private int m_nextLookup = 0;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            PcgRSFast RNG = new PcgRSFast(BenchmarkSamples.SEED, 3);
+            
+            QDList = BenchmarkSamples.randomQDs(QDs, 0.5, 0, 0);
+            index = BenchmarkSamples.index(QDList);
+            m_lookupStarts = new BigDecimal[1024];
+            for (int i = 0 ; i < m_lookupStarts.length ; i += 1)
+            {
+                m_lookupStarts[i] = GeneratorManager.formatBigDecimal(new BigDecimal(RNG.nextDouble()).multiply(BenchmarkSamples.SAMPLE_SIZE));
+            }
+        }
+        
+        BigDecimal nextLookupStart()
+        {
+            m_nextLookup = (m_nextLookup + 1) % m_lookupStarts.length;
+            return m_lookupStarts[m_nextLookup];
+        }
+    }
+    
+    /**
+     * A layer of 10^6 QDs, whose heap is measured as the difference of the used heap after a garbage collection, before and after it is built
+     */
+    @State(Scope.Benchmark)
+    public static class Footprint
+    {
+        @Param({"1000000"})
+        public int QDs;
+        
+        QDStore store;
+        QDIndex index;
+        
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            long beforeStore = usedHeap();
+            store = QDStore.of(BenchmarkSamples.randomQDs(QDs, 0.5, 0, 0));
+            long beforeIndex = usedHeap();
+            index = new QDIndex(store);
+            long afterIndex = usedHeap();
+            
+            System.out.println();
+            System.out.println("Heap for " + QDs + " QDs: store " + (beforeIndex - beforeStore) / QDs + " B/QD (columns " + store.columnBytes() / QDs + " B/QD), index " + (afterIndex - beforeIndex) / QDs + " B/QD");
+        }
+        
+        private static long usedHeap()
+        {
+            Runtime runtime = Runtime.getRuntime();
+            
+            for (int i = 0 ; i < 3 ; i += 1)
+            {
+                System.gc();
+            }
+            
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+    
+    /**
+     * Electron distances and spans, in meters, falling in each case of QuantumDot.capture for a QD of radius 10 nm
+     */
+    public enum OverlapCase
+    {
+        INSIDE("2e-9", "5e-9"),
+        QD_IN_SPAN("5e-9", "30e-9"),
+        FAR_INTERSECTION("5e-9", "10e-9"),
+        NEAR_INTERSECTION("5e-9", "14e-9");
+        
+        private final BigDecimal distance;
+        private final BigDecimal span;
+        
+        OverlapCase(String p_distance, String p_span)
+        {
+            distance = new BigDecimal(p_distance);
+            span = new BigDecimal(p_span);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.Electron;
+import afmluminescence.luminescencegenerator.GeneratorManager;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.sun.jdi.AbsentInformationException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Run a parameter sweep without visualisation
+ * The sweep is described by a properties file containing:
+ *  - the base configuration of the runs, with the same keys as RunConfiguration
+ *  - sweep.&lt;key&gt; = value1, value2, ... for each swept parameter. Every combination of the swept values is run.
+ *  - sweep.concurrency: the number of runs done at the same time (default 1). Unless "threads" is given, the cores are shared between them.
+ *  - sweep.results: the directory all the results are written in (default Results/Sweep)
+ * Each run is saved in a sub-directory named after the hash of its complete configuration (seed included) and of the content of its input files.
+ * A run whose directory is complete is not recomputed. The seed defaults to 1 in a sweep, so that repeated points are found in the cache.
+ * An index of the sweep (index.tsv) is written in the results directory, giving the directory and the swept values of each run.
+ * @author audreyazura
+ */
+public class BatchRunner implements Runnable
+{
+    private static final String SWEEP_PREFIX = "sweep.";
+    private static final String COMPLETION_MARKER = "complete";
+    
+    private final File m_resultsDirectory;
+    private final int m_concurrency;
+    private final List<RunConfiguration> m_points = new ArrayList<>();
+    private final List<String> m_sweptKeys = new ArrayList<>();
+    
+    //time tables shared between the runs, by path
+    private final Map<String, ContinuousFunction> m_tables = new HashMap<>();
+    
+    /**
+     * @param p_sweepFile the file describing the sweep
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the sweep, or one of the configurations it gives, is invalid
+     */
+    public BatchRunner (File p_sweepFile) throws IOException, IllegalArgumentException
+    {
+        Properties specification = new Properties();
+        try (Reader specificationReader = new FileReader(p_sweepFile))
+        {
+            specification.load(specificationReader);
+        }
+        
+        m_resultsDirectory = new File(specification.getProperty(SWEEP_PREFIX + "results", "Results/Sweep"));
+        m_concurrency = Integer.parseInt(specification.getProperty(SWEEP_PREFIX + "concurrency", "1").strip());
+        if (m_concurrency <= 0)
+        {
+            throw new IllegalArgumentException("Invalid value for sweep.concurrency: " + m_concurrency);
+        }
+        
+        //separating the base configuration from the swept values
+        Properties base = new Properties();
+        Map<String, String[]> sweptValues = new HashMap<>();
+        for (String key: new TreeSet<>(specification.stringPropertyNames()))
+        {
+            if (!key.startsWith(SWEEP_PREFIX))
+            {
+                base.setProperty(key, specification.getProperty(key));
+            }
+            else if (!key.equals(SWEEP_PREFIX + "results") && !key.equals(SWEEP_PREFIX + "concurrency"))
+            {
+                String sweptKey = key.substring(SWEEP_PREFIX.length());
+                m_sweptKeys.add(sweptKey);
+                sweptValues.put(sweptKey, specification.getProperty(key).split(","));
+            }
+        }
+        
+        if (!base.containsKey("threads") && !sweptValues.containsKey("threads"))
+        {
+            base.setProperty("threads", Integer.toString(Integer.max(1, Runtime.getRuntime().availableProcessors() / m_concurrency)));
+        }
+        if (!base.containsKey("seed"))
+        {
+            base.setProperty("seed", "1");
+        }
+        
+        //every combination of the swept values, the last swept key varying the fastest
+        List<Properties> points = new ArrayList<>();
+        points.add(base);
+        for (String sweptKey: m_sweptKeys)
+        {
+            List<Properties> expandedPoints = new ArrayList<>();
+            for (Properties point: points)
+            {
+                for (String value: sweptValues.get(sweptKey))
+                {
+                    Properties expanded = new Properties();
+                    expanded.putAll(point);
+                    expanded.setProperty(sweptKey, value.strip());
+                    expandedPoints.add(expanded);
+                }
+            }
+            points = expandedPoints;
+        }
+        
+        for (Properties point: points)
+        {
+            m_points.add(new RunConfiguration(point));
+        }
+    }
+    
+    @Override
+    public void run()
+    {
+        ExecutorService runPool = Executors.newFixedThreadPool(m_concurrency);
+        List<Future<String>> entries = new ArrayList<>();
+        
+        Logger.getLogger(BatchRunner.class.getName()).log(Level.INFO, "Sweep of {0} runs, {1} at a time.", new Object[]{m_points.size(), m_concurrency});
+        for (RunConfiguration point: m_points)
+        {
+            entries.add(runPool.submit(() -> indexEntry(point)));
+        }
+        
+        try
+        {
+            m_resultsDirectory.mkdirs();
+            
+            try (BufferedWriter indexWriter = new BufferedWriter(new FileWriter(new File(m_resultsDirectory, "index.tsv"))))
+            {
+                indexWriter.write("directory\tstatus");
+                for (String sweptKey: m_sweptKeys)
+                {
+                    indexWriter.write("\t" + sweptKey);
+                }
+                
+                for (int i = 0 ; i < m_points.size() ; i += 1)
+                {
+                    Properties values = m_points.get(i).asProperties();
+                    
+                    String entry;
+                    try
+                    {
+                        entry = entries.get(i).get();
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, "Run failed.", ex);
+                        entry = "-\tfailed";
+                    }
+                    
+                    indexWriter.newLine();
+                    indexWriter.write(entry);
+                    for (String sweptKey: m_sweptKeys)
+                    {
+                        indexWriter.write("\t" + values.getProperty(sweptKey));
+                    }
+                    indexWriter.flush();
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, null, ex);
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            runPool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Run a point of the sweep, a point whose inputs cannot be read failing without stopping the others
+     * @return the directory and status columns of the point in the index
+     */
+    private String indexEntry(RunConfiguration p_configuration)
+    {
+        String entry;
+        
+        try
+        {
+            String key = pointKey(p_configuration);
+            entry = key + "\t" + runPoint(p_configuration, key);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, "Inputs of a run impossible to read.", ex);
+            entry = "-\tfailed";
+        }
+        
+        return entry;
+    }
+    
+    /**
+     * Run a point of the sweep, unless it is already in the results directory
+     * @param p_key the key of the point, naming its directory
+     * @return the status of the point for the index
+     */
+    private String runPoint(RunConfiguration p_configuration, String p_key)
+    {
+        String status;
+        File pointDirectory = new File(m_resultsDirectory, p_key);
+        
+        if (new File(pointDirectory, COMPLETION_MARKER).isFile())
+        {
+            status = "cached";
+        }
+        else
+        {
+            try
+            {
+                ContinuousFunction captureTimes = table(p_configuration.getCaptureTimesFile());
+                ContinuousFunction escapeTimes = table(p_configuration.getEscapeTimesFile());
+                QDListBuilder QDBuilder = new QDListBuilder(p_configuration, captureTimes, escapeTimes);
+                List<QuantumDot> QDList = QDBuilder.getQDList();
+                
+                SimulationSorter sorter;
+                int batchElectrons = p_configuration.getAdaptiveBatch();
+                if (batchElectrons > 0)
+                {
+                    //the batches are seeded like the shards of a distributed run, the number of electrons of the configuration being the most that is simulated
+                    SpectrumStatistics statistics = new SpectrumStatistics(p_configuration.getEnergyBins());
+                    double tolerance = p_configuration.getAdaptiveTolerance().doubleValue();
+                    int simulated = 0;
+                    for (int batch = 0 ; simulated < p_configuration.getElectronNumber() && !statistics.isPrecise(tolerance) ; batch += 1)
+                    {
+                        int electrons = Integer.min(batchElectrons, p_configuration.getElectronNumber() - simulated);
+                        GeneratorManager generator = generator(p_configuration, QDList, electrons, p_configuration.getSeed() ^ (batch * DistributedCoordinator.SHARD_SEED_INCREMENT));
+                        generator.run();
+                        statistics.add(generator.getHistogram());
+                        simulated += electrons;
+                    }
+                    Logger.getLogger(BatchRunner.class.getName()).log(Level.INFO, "{0}: {1} electrons in {2} batches, error of the maximum {3} J, error of the shape {4}.", new Object[]{pointDirectory.getName(), simulated, statistics.getBatches(), statistics.getMaximumError(), statistics.getShapeError()});
+                    QDListBuilder.logMaterialisation(QDBuilder.getPropertyTable());
+                    
+                    sorter = new SimulationSorter(statistics.getMerged(), p_configuration.getTimeStep(), p_configuration.getTimeBins(), p_configuration.getEnergyBins());
+                }
+                else if (p_configuration.getPulses() > 0 || p_configuration.getCWRate().signum() > 0)
+                {
+                    GeneratorManager generator = generator(p_configuration, QDList, p_configuration.getElectronNumber(), p_configuration.getSeed());
+                    generator.run();
+                    QDListBuilder.logMaterialisation(QDBuilder.getPropertyTable());
+                    
+                    sorter = new SimulationSorter(generator.getHistogram(), p_configuration.getTimeStep(), p_configuration.getTimeBins(), p_configuration.getEnergyBins());
+                }
+                else
+                {
+                    GeneratorManager generator = generator(p_configuration, QDList, p_configuration.getElectronNumber(), p_configuration.getSeed());
+                    generator.run();
+                    QDListBuilder.logMaterialisation(QDBuilder.getPropertyTable());
+                    
+                    List<BigDecimal> recombinationTimes = new ArrayList<>();
+                    List<BigDecimal> recombinationEnergies = new ArrayList<>();
+                    for (Map.Entry<Electron, BigDecimal> result: generator.getFinalElectronList().entrySet())
+                    {
+                        recombinationTimes.add(result.getValue());
+                        recombinationEnergies.add(result.getKey().getRecombinationEnergy());
+                    }
+                    sorter = new SimulationSorter(recombinationTimes, recombinationEnergies, p_configuration.getTimeBins(), p_configuration.getEnergyBins());
+                }
+                
+                pointDirectory.mkdirs();
+                try (Writer configurationWriter = new FileWriter(new File(pointDirectory, "run.properties")))
+                {
+                    p_configuration.asProperties().store(configurationWriter, null);
+                }
+                
+                sorter.saveToFile(new File(pointDirectory, "TimeResolved.dat"), new File(pointDirectory, "Spectra.dat"));
+                
+                //written last: a directory without it is an interrupted run, recomputed next time
+                new File(pointDirectory, COMPLETION_MARKER).createNewFile();
+                status = "computed";
+            }
+            catch (AbsentInformationException|DataFormatException|IOException|RuntimeException ex)
+            {
+                Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, "Run " + pointDirectory.getName() + " failed.", ex);
+                status = "failed";
+            }
+        }
+        
+        Logger.getLogger(BatchRunner.class.getName()).log(Level.INFO, "{0}: {1}", new Object[]{pointDirectory.getName(), status});
+        return status;
+    }
+    
+    private static GeneratorManager generator(RunConfiguration p_configuration, List<QuantumDot> p_QDList, int p_nElectrons, long p_seed) throws DataFormatException, IOException
+    {
+        GeneratorManager generator = new GeneratorManager(new HeadlessBuffer(), p_nElectrons, p_QDList, p_configuration.getTemperature(), p_configuration.getTimeStep(), p_configuration.getSampleXSize(), p_configuration.getSampleYSize(), p_configuration.getThreads(), p_configuration.getEngine(), p_seed);
+        generator.setSortPeriod(p_configuration.getSortPeriod());
+        generator.setPrimitiveFlight(p_configuration.getPrimitiveFlight());
+        generator.setBatchedCapture(p_configuration.getBatchedCapture());
+        generator.setRayCasting(p_configuration.getRayCasting());
+        generator.setPulseTrain(p_configuration.getPulses(), p_configuration.getPulsePeriod());
+        generator.setContinuousWave(p_configuration.getCWRate().doubleValue(), p_configuration.getCWError().doubleValue(), p_configuration.getEnergyBins());
+        
+        return generator;
+    }
+    
+    /**
+     * The cache key of a run: SHA-256 of its sorted configuration and of the content of the files it reads
+     */
+    private String pointKey(RunConfiguration p_configuration) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Properties values = p_configuration.asProperties();
+            
+            for (String key: new TreeSet<>(values.stringPropertyNames()))
+            {
+                digest.update((key + "=" + values.getProperty(key) + "\n").getBytes(StandardCharsets.UTF_8));
+                
+                if (key.endsWith(".file") && !values.getProperty(key).isEmpty())
+                {
+                    QDCache.hashFile(digest, new File(values.getProperty(key)));
+                }
+            }
+            
+            StringBuilder key = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0 ; i < 16 ; i += 1)
+            {
+                key.append(String.format("%02x", hash[i]));
+            }
+            
+            return key.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            //SHA-256 is part of the algorithms every Java platform has to provide
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    synchronized private ContinuousFunction table(String p_path) throws DataFormatException, IOException
+    {
+        ContinuousFunction function = m_tables.get(p_path);
+        
+        if (function == null)
+        {
+            function = (new SCSVLoader(new File(p_path))).getFunction();
+            m_tables.put(p_path, function);
+        }
+        
+        return function;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.QDPropertyTable;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import afmluminescence.luminescencegenerator.RecombinationHistogram;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Run the simulation without visualisation, the electrons being split into shards simulated by DistributedWorkers in other JVMs (local processes or remote hosts)
+ * Each worker sends back the recombination histogram of its shard, the histograms are merged and QDFitter is run on the result, as ExecutionManager does for a single simulation.
+ * Shard i uses the seed of the run XOR i times the golden ratio constant, so that the shards are independent and a run is reproducible for a given number of workers.
+ * The electrons of different shards do not see each other: a QD can recombine one electron per time step and per shard, instead of one per time step.
+ * @author audreyazura
+ */
+public class DistributedCoordinator implements Runnable
+{
+    static final long SHARD_SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+    
+    private final ContinuousFunction m_luminescence;
+    private final List<WorkerConnection> m_workers;
+    private final RunConfiguration m_configuration;
+    private final QDPropertyTable m_QDProperties;
+    private List<QuantumDot> m_QDList;
+    
+    private DistributedCoordinator (RunConfiguration p_configuration, List<WorkerConnection> p_workers) throws DataFormatException, IOException
+    {
+        m_configuration = p_configuration;
+        m_workers = p_workers;
+        
+        m_luminescence = (new LuminescenceLoader(new File(p_configuration.getLuminescenceFile()))).getFunction();
+        ContinuousFunction captureTimes = (new SCSVLoader(new File(p_configuration.getCaptureTimesFile()))).getFunction();
+        ContinuousFunction escapeTimes = (new SCSVLoader(new File(p_configuration.getEscapeTimesFile()))).getFunction();
+        m_QDProperties = QDListBuilder.propertyTable(p_configuration, captureTimes, escapeTimes);
+        m_QDList = (new QDListBuilder(p_configuration, m_QDProperties)).getQDList();
+    }
+    
+    /**
+     * Start the given number of worker processes on this machine, communicating through their standard input and output
+     * @param p_configuration the configuration of the run
+     * @param p_nWorkers the number of worker processes
+     * @param p_workerCommand the command starting a worker reading its standard input
+     * @return the coordinator of the workers
+     * @throws DataFormatException if one of the input files is malformed
+     * @throws IOException if one of the input files cannot be read or a worker cannot be started
+     */
+    public static DistributedCoordinator spawnLocal(RunConfiguration p_configuration, int p_nWorkers, List<String> p_workerCommand) throws DataFormatException, IOException
+    {
+        List<WorkerConnection> workers = new ArrayList<>();
+        
+        for (int i = 0 ; i < p_nWorkers ; i += 1)
+        {
+            Process workerProcess = (new ProcessBuilder(p_workerCommand)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            workers.add(new WorkerConnection(workerProcess.getInputStream(), workerProcess.getOutputStream(), () -> workerProcess.destroy()));
+        }
+        
+        return new DistributedCoordinator(p_configuration, workers);
+    }
+    
+    /**
+     * Connect to workers listening on other machines (or on this one)
+     * @param p_configuration the configuration of the run
+     * @param p_addresses the addresses of the workers
+     * @return the coordinator of the workers
+     * @throws DataFormatException if one of the input files is malformed
+     * @throws IOException if one of the input files cannot be read or a worker cannot be reached
+     */
+    public static DistributedCoordinator connect(RunConfiguration p_configuration, List<InetSocketAddress> p_addresses) throws DataFormatException, IOException
+    {
+        List<WorkerConnection> workers = new ArrayList<>();
+        
+        for (InetSocketAddress address: p_addresses)
+        {
+            Socket workerSocket = new Socket(address.getHostString(), address.getPort());
+            workerSocket.setTcpNoDelay(true);
+            workers.add(new WorkerConnection(workerSocket.getInputStream(), workerSocket.getOutputStream(), workerSocket));
+        }
+        
+        return new DistributedCoordinator(p_configuration, workers);
+    }
+    
+    @Override
+    public void run()
+    {
+        ExecutorService exchangePool = Executors.newFixedThreadPool(m_workers.size());
+        
+        try
+        {
+            boolean finished = false;
+            
+            for (int loop = 1 ; !finished ; loop += 1)
+            {
+                RecombinationHistogram histogram = m_configuration.getAdaptiveBatch() > 0 ? simulateAdaptive(exchangePool) : simulate(exchangePool);
+                SimulationSorter sorter = new SimulationSorter(histogram, m_configuration.getTimeStep(), m_configuration.getTimeBins(), m_configuration.getEnergyBins());
+                QDFitter fit = new QDFitter(m_QDList, m_QDProperties, m_luminescence, sorter);
+                
+                Logger.getLogger(DistributedCoordinator.class.getName()).log(Level.INFO, "Simulation {0}: {1} electrons recombined.", new Object[]{loop, histogram.getTotal()});
+                
+                finished = fit.isGoodFit() || loop >= m_configuration.getMaxLoop();
+                if (finished)
+                {
+                    sorter.saveToFile(new File("Results/TimeResolved.dat"), new File("Results/Spectra.dat"));
+                    
+                    System.out.println("x (m)\ty (m)\tradius (m)\theight (m)\tenergy (J)");
+                    for (QuantumDot qd: m_QDList)
+                    {
+                        System.out.println(qd);
+                    }
+                }
+                else
+                {
+                    m_QDList = fit.getFittedQDs();
+                }
+            }
+        }
+        catch (ExecutionException|IOException ex)
+        {
+            Logger.getLogger(DistributedCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Logger.getLogger(DistributedCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchangePool.shutdownNow();
+            for (WorkerConnection worker: m_workers)
+            {
+                worker.close();
+            }
+        }
+    }
+    
+    /**
+     * Simulate the electrons of the configuration at once, and merge the histograms of the workers
+     */
+    private RecombinationHistogram simulate(ExecutorService p_exchangePool) throws ExecutionException, InterruptedException, IOException
+    {
+        RecombinationHistogram histogram = new RecombinationHistogram();
+        
+        for (RecombinationHistogram shardHistogram: simulateShards(p_exchangePool, m_configuration.getElectronNumber(), 0))
+        {
+            histogram.merge(shardHistogram);
+        }
+        
+        return histogram;
+    }
+    
+    /**
+     * Simulate rounds of one batch per worker, each shard being a batch, until the spectrum is precise enough for the fit (see SpectrumStatistics) or the electrons of the configuration have all been simulated
+     */
+    private RecombinationHistogram simulateAdaptive(ExecutorService p_exchangePool) throws ExecutionException, InterruptedException, IOException
+    {
+        SpectrumStatistics statistics = new SpectrumStatistics(m_configuration.getEnergyBins());
+        double tolerance = m_configuration.getAdaptiveTolerance().doubleValue();
+        long nElectrons = m_configuration.getElectronNumber();
+        long simulated = 0;
+        int shards = 0;
+        
+        while (simulated < nElectrons && !statistics.isPrecise(tolerance))
+        {
+            long roundElectrons = Long.min((long) m_configuration.getAdaptiveBatch() * m_workers.size(), nElectrons - simulated);
+            for (RecombinationHistogram shardHistogram: simulateShards(p_exchangePool, roundElectrons, shards))
+            {
+                statistics.add(shardHistogram);
+            }
+            simulated += roundElectrons;
+            shards += m_workers.size();
+        }
+        Logger.getLogger(DistributedCoordinator.class.getName()).log(Level.INFO, "{0} electrons in {1} batches, error of the maximum {2} J, error of the shape {3}.", new Object[]{simulated, statistics.getBatches(), statistics.getMaximumError(), statistics.getShapeError()});
+        
+        return statistics.getMerged();
+    }
+    
+    /**
+     * Send one shard of electrons to each worker, along with the current QDs, and collect the histograms they send back
+     * @param p_nElectrons the electrons to share between the workers
+     * @param p_firstShard the number of shards already simulated with the current QDs, so that every shard has its own seed
+     */
+    private List<RecombinationHistogram> simulateShards(ExecutorService p_exchangePool, long p_nElectrons, int p_firstShard) throws ExecutionException, InterruptedException, IOException
+    {
+        //the QDs are serialised once for all the workers
+        ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+        try (DataOutputStream recordWriter = new DataOutputStream(recordStream))
+        {
+            for (QuantumDot QD: m_QDList)
+            {
+                QDCache.writeQDRecord(recordWriter, QD);
+            }
+        }
+        byte[] QDRecords = recordStream.toByteArray();
+        Properties values = m_configuration.asProperties();
+        
+        List<Future<RecombinationHistogram>> shardHistograms = new ArrayList<>();
+        int nShards = m_workers.size();
+        for (int i = 0 ; i < nShards ; i += 1)
+        {
+            WorkerConnection worker = m_workers.get(i);
+            int shardElectrons = (int) (p_nElectrons * (i + 1) / nShards - p_nElectrons * i / nShards);
+            long shardSeed = m_configuration.getSeed() ^ ((p_firstShard + i) * SHARD_SEED_INCREMENT);
+            
+            shardHistograms.add(p_exchangePool.submit(() -> worker.exchange(values, shardElectrons, shardSeed, m_QDList.size(), QDRecords)));
+        }
+        
+        List<RecombinationHistogram> histograms = new ArrayList<>();
+        for (Future<RecombinationHistogram> shardHistogram: shardHistograms)
+        {
+            histograms.add(shardHistogram.get());
+        }
+        
+        return histograms;
+    }
+    
+    /**
+     * The streams to a worker, and what has to be closed once the run is over
+     */
+    private static class WorkerConnection
+    {
+        private final Closeable m_resource;
+        private final DataInputStream m_input;
+        private final DataOutputStream m_output;
+        
+        WorkerConnection (InputStream p_input, OutputStream p_output, Closeable p_resource)
+        {
+            m_input = new DataInputStream(new BufferedInputStream(p_input));
+            m_output = new DataOutputStream(new BufferedOutputStream(p_output));
+            m_resource = p_resource;
+        }
+        
+        RecombinationHistogram exchange(Properties p_values, int p_nElectrons, long p_seed, int p_nQDs, byte[] p_QDRecords) throws IOException
+        {
+            m_output.writeInt(DistributedWorker.RUN);
+            DistributedWorker.writeProperties(m_output, p_values);
+            m_output.writeInt(p_nElectrons);
+            m_output.writeLong(p_seed);
+            m_output.writeInt(p_nQDs);
+            m_output.writeInt(p_QDRecords.length);
+            m_output.write(p_QDRecords);
+            m_output.flush();
+            
+            if (m_input.readInt() != DistributedWorker.STATUS_OK)
+            {
+                throw new IOException("Worker failure: " + m_input.readUTF());
+            }
+            
+            return RecombinationHistogram.read(m_input);
+        }
+        
+        /**
+         * Tell the worker to stop, the stream and the connection being closed even if it cannot be told
+         */
+        void close()
+        {
+            try (Closeable resource = m_resource ; DataOutputStream output = m_output)
+            {
+                output.writeInt(DistributedWorker.STOP);
+            }
+            catch (IOException ex)
+            {
+                Logger.getLogger(DistributedCoordinator.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.GeneratorManager;
+import afmluminescence.luminescencegenerator.QDProperties;
+import afmluminescence.luminescencegenerator.QDStore;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import afmluminescence.luminescencegenerator.RecombinationHistogram;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Worker of a distributed run: simulates the shards of electrons sent by a DistributedCoordinator and sends back their recombination histogram
+ * Protocol (big endian, DataInput/DataOutput encoding), repeated until STOP or the end of the input:
+ *  - coordinator: command (RUN or STOP), configuration (number of entries, then key and value of each), number of electrons of the shard, seed of the shard, number of QDs, size in bytes of the QD records, QD records (see QDCache)
+ *  - worker: STATUS_OK followed by the histogram, or STATUS_ERROR followed by the error message
+ * The QDs are sent with their calculated properties, so the workers do not need the capture and escape time tables.
+ * @author audreyazura
+ */
+public class DistributedWorker implements Runnable
+{
+    static final int STOP = 0;
+    static final int RUN = 1;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    
+    private final DataInputStream m_input;
+    private final DataOutputStream m_output;
+    private final int m_threads;
+    
+    /**
+     * @param p_input the stream the coordinator writes to
+     * @param p_output the stream the coordinator reads from
+     * @param p_threads the number of threads used by this worker, or 0 to use the one of the received configuration
+     */
+    public DistributedWorker (InputStream p_input, OutputStream p_output, int p_threads)
+    {
+        m_input = new DataInputStream(new BufferedInputStream(p_input));
+        m_output = new DataOutputStream(new BufferedOutputStream(p_output));
+        m_threads = p_threads;
+    }
+    
+    /**
+     * Serve coordinators connecting to the given port, one after the other
+     * @param p_port the port to listen to
+     * @param p_threads the number of threads used by the worker, or 0 to use the one of the received configuration
+     * @throws IOException if the port cannot be listened to
+     */
+    public static void listen(int p_port, int p_threads) throws IOException
+    {
+        try (ServerSocket server = new ServerSocket(p_port))
+        {
+            Logger.getLogger(DistributedWorker.class.getName()).log(Level.INFO, "Worker listening on port {0}.", server.getLocalPort());
+            
+            while (!Thread.currentThread().isInterrupted())
+            {
+                try (Socket coordinatorSocket = server.accept())
+                {
+                    coordinatorSocket.setTcpNoDelay(true);
+                    (new DistributedWorker(coordinatorSocket.getInputStream(), coordinatorSocket.getOutputStream(), p_threads)).run();
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            int command = readCommand();
+            
+            while (command == RUN)
+            {
+                Properties values = readProperties(m_input);
+                int nElectrons = m_input.readInt();
+                long seed = m_input.readLong();
+                List<QuantumDot> QDList = readQDs(m_input);
+                
+                RecombinationHistogram histogram = null;
+                String error = null;
+                
+                //the failures of the simulation itself are reported to the coordinator, only the ones of the connection end the worker
+                try
+                {
+                    histogram = simulate(new RunConfiguration(values), nElectrons, seed, QDList);
+                }
+                catch (DataFormatException|IOException|RuntimeException ex)
+                {
+                    Logger.getLogger(DistributedWorker.class.getName()).log(Level.SEVERE, null, ex);
+                    error = String.valueOf(ex.getMessage());
+                }
+                
+                if (histogram != null)
+                {
+                    m_output.writeInt(STATUS_OK);
+                    histogram.write(m_output);
+                }
+                else
+                {
+                    m_output.writeInt(STATUS_ERROR);
+                    m_output.writeUTF(error);
+                }
+                m_output.flush();
+                
+                command = readCommand();
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DistributedWorker.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * @return the next command, the end of the input being a STOP
+     */
+    private int readCommand() throws IOException
+    {
+        int command;
+        
+        try
+        {
+            command = m_input.readInt();
+        }
+        catch (EOFException ex)
+        {
+            command = STOP;
+        }
+        
+        return command;
+    }
+    
+    private RecombinationHistogram simulate(RunConfiguration p_configuration, int p_nElectrons, long p_seed, List<QuantumDot> p_QDList) throws DataFormatException, IOException
+    {
+        int threads = m_threads > 0 ? m_threads : p_configuration.getThreads();
+        
+        GeneratorManager generator = new GeneratorManager(new HeadlessBuffer(), p_nElectrons, p_QDList, p_configuration.getTemperature(), p_configuration.getTimeStep(), p_configuration.getSampleXSize(), p_configuration.getSampleYSize(), threads, p_configuration.getEngine(), p_seed);
+        generator.setSortPeriod(p_configuration.getSortPeriod());
+        generator.setPrimitiveFlight(p_configuration.getPrimitiveFlight());
+        generator.setBatchedCapture(p_configuration.getBatchedCapture());
+        generator.setRayCasting(p_configuration.getRayCasting());
+        generator.setPulseTrain(p_configuration.getPulses(), p_configuration.getPulsePeriod());
+        generator.setContinuousWave(p_configuration.getCWRate().doubleValue(), p_configuration.getCWError().doubleValue(), p_configuration.getEnergyBins());
+        generator.run();
+        
+        return generator.getHistogram();
+    }
+    
+    static Properties readProperties(DataInputStream p_input) throws IOException
+    {
+        Properties values = new Properties();
+        
+        int nValues = p_input.readInt();
+        for (int i = 0 ; i < nValues ; i += 1)
+        {
+            values.setProperty(p_input.readUTF(), p_input.readUTF());
+        }
+        
+        return values;
+    }
+    
+    static void writeProperties(DataOutputStream p_output, Properties p_values) throws IOException
+    {
+        p_output.writeInt(p_values.size());
+        for (String key: p_values.stringPropertyNames())
+        {
+            p_output.writeUTF(key);
+            p_output.writeUTF(p_values.getProperty(key));
+        }
+    }
+    
+    static List<QuantumDot> readQDs(DataInputStream p_input) throws IOException
+    {
+        int nQDs = p_input.readInt();
+        byte[] records = new byte[p_input.readInt()];
+        p_input.readFully(records);
+        
+        ByteBuffer recordBuffer = ByteBuffer.wrap(records);
+        QDStore store = new QDStore();
+        Map<List<Object>, QDProperties> sharedProperties = new HashMap<>();
+        for (int i = 0 ; i < nQDs ; i += 1)
+        {
+            QDCache.readQDRecord(recordBuffer, store, sharedProperties);
+        }
+        
+        return store.asList();
+    }
+}
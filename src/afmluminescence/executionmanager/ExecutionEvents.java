@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the phases around the simulation: QD construction, sorting of the results and fit of the QDs
+ * @author audreyazura
+ */
+public class ExecutionEvents
+{
+    private ExecutionEvents()
+    {
+    }
+    
+    @Name("afmluminescence.QDConstruction")
+    @Label("QD Construction")
+    @Category({"AFMLuminescence", "QDs"})
+    @Description("Calculation of a chunk of QDs (generated layers), or reading of a QD file or cache")
+    static class QDConstruction extends Event
+    {
+        @Label("Source")
+        @Description("generated, file or cache")
+        String source;
+        
+        @Label("Chunk Index")
+        int chunkIndex;
+        
+        @Label("QDs")
+        int QDs;
+    }
+    
+    @Name("afmluminescence.Sorting")
+    @Label("Result Sorting")
+    @Category({"AFMLuminescence", "Analysis"})
+    @Description("Binning of the recombination times and energies by SimulationSorter")
+    static class Sorting extends Event
+    {
+        @Label("Distinct Times")
+        int times;
+        
+        @Label("Distinct Energies")
+        int energies;
+        
+        @Label("Time Bins")
+        int timeBins;
+        
+        @Label("Energy Bins")
+        int energyBins;
+    }
+    
+    @Name("afmluminescence.Judging")
+    @Label("Judging")
+    @Category({"AFMLuminescence", "Analysis"})
+    @Description("Comparison of the simulated spectrum with the experimental one by SimulationJudge")
+    static class Judging extends Event
+    {
+        @Label("Maximum Match")
+        boolean maximumMatch;
+        
+        @Label("Shape Match")
+        boolean shapeMatch;
+    }
+    
+    @Name("afmluminescence.FittingIteration")
+    @Label("Fitting Iteration")
+    @Category({"AFMLuminescence", "Analysis"})
+    @Description("One iteration of QDFitter, judging included")
+    static class FittingIteration extends Event
+    {
+        @Label("QDs")
+        int QDs;
+        
+        @Label("Good Fit")
+        boolean goodFit;
+    }
+}
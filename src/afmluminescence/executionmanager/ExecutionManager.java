@@ -19,28 +19,23 @@ package afmluminescence.executionmanager;
 import afmluminescence.guimanager.DrawingBuffer;
 import afmluminescence.guimanager.GUIManager;
 import afmluminescence.luminescencegenerator.GeneratorManager;
-import static afmluminescence.luminescencegenerator.GeneratorManager.formatBigDecimal;
+import afmluminescence.luminescencegenerator.QDPropertyTable;
 import afmluminescence.luminescencegenerator.QuantumDot;
 import com.github.audreyazura.commonutils.ContinuousFunction;
 import com.github.audreyazura.commonutils.PhysicsTools;
-import com.github.kilianB.pcg.fast.PcgRSFast;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import java.util.zip.DataFormatException;
 import javafx.application.Platform;
 import javafx.scene.image.Image;
@@ -55,159 +50,72 @@ public class ExecutionManager implements Runnable
     private final BigDecimal m_sampleYSize;
     private final BigDecimal m_scaleX;
     private final BigDecimal m_scaleY;
-    private final BigDecimal m_timeStep = new BigDecimal("1e-12");
+    private final BigDecimal m_temperature;
+    private final BigDecimal m_timeStep;
     private final ContinuousFunction m_luminescence;
-    private final ContinuousFunction m_captureTimes;
-    private final ContinuousFunction m_escapeTimes;
+    private final QDPropertyTable m_QDProperties;
     private final DrawingBuffer m_buffer;
     private final GUIManager m_gui;
     private final int m_maxLoop;
-    private final int m_nElectron = 100000;
-    private final PcgRSFast m_RNGenerator = new PcgRSFast();
+    private final int m_nElectron;
     private final ResultHandler m_resultHandler;
+    private final RunConfiguration m_configuration;
     private final Thread m_handlerThread;
     private int m_loopCounter = 0;
     private List<QuantumDot> m_QDList = new ArrayList<>();
     
-    public ExecutionManager (GUIManager p_gui, DrawingBuffer p_buffer, List<String> p_filesPaths, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, BigDecimal p_scaleX, BigDecimal p_scaleY)
+    public ExecutionManager (GUIManager p_gui, DrawingBuffer p_buffer, RunConfiguration p_configuration, BigDecimal p_scaleX, BigDecimal p_scaleY)
     {
-        m_sampleXSize = p_sampleXSize;
-        m_sampleYSize = p_sampleYSize;
+        m_configuration = p_configuration;
+        m_sampleXSize = p_configuration.getSampleXSize();
+        m_sampleYSize = p_configuration.getSampleYSize();
         m_scaleX = p_scaleX;
         m_scaleY = p_scaleY;
         
         m_gui = p_gui;
         m_buffer = p_buffer;
         
-        m_maxLoop = 2;
-        
-        HashMap<BigDecimal, BigDecimal> lumValues = new HashMap<>();
-        BigDecimal maxCounts = BigDecimal.ZERO;
-        try
-        {
-            BufferedReader lumReader = new BufferedReader(new FileReader(new File(p_filesPaths.get(0))));
-            Pattern numberRegex = Pattern.compile("^\\-?\\d+(\\.\\d+(e(\\+|\\-)\\d+)?)?");
-            String line;
-            while (((line = lumReader.readLine()) != null))
-            {	    
-                String[] lineSplit = line.strip().split(";");
-
-                if(numberRegex.matcher(lineSplit[0]).matches())
-                {
-                    BigDecimal energy = PhysicsTools.h.multiply(PhysicsTools.c).divide((new BigDecimal(lineSplit[0])).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()), MathContext.DECIMAL128);
-                    BigDecimal counts = new BigDecimal(lineSplit[1]);
-                    
-                    lumValues.put(energy, counts);
-                    
-                    if (counts.compareTo(maxCounts) > 0)
-                    {
-                        maxCounts = counts;
-                    }
-                }
-            }
-        }
-        catch (IOException ex)
+        m_maxLoop = p_configuration.getMaxLoop();
+        m_nElectron = p_configuration.getElectronNumber();
+        if (p_configuration.getPulses() > 0 || p_configuration.getCWRate().signum() > 0 || p_configuration.getAdaptiveBatch() > 0)
         {
-            Logger.getLogger(ExecutionManager.class.getName()).log(Level.SEVERE, null, ex);
+            //the fit needs the recombination of each electron of a single simulation, which pulse trains, continuous excitations and batches do not give
+            Logger.getLogger(ExecutionManager.class.getName()).log(Level.WARNING, "Pulse trains, continuous excitations and adaptive runs are only simulated by batch and distributed runs, the sample is excited once by all the electrons.");
         }
+        m_temperature = p_configuration.getTemperature();
+        m_timeStep = p_configuration.getTimeStep();
         
-        if (lumValues.isEmpty())
+        ContinuousFunction tempLuminescence = new ContinuousFunction();
+        try
         {
-            Logger.getLogger(ExecutionManager.class.getName()).log(Level.SEVERE, null, new IOException("Luminescence file missing or badly formatted."));
+            tempLuminescence = (new LuminescenceLoader(new File(p_configuration.getLuminescenceFile()))).getFunction();
         }
-        
-        //normalisation of the luminescence
-        for (BigDecimal abscissa: lumValues.keySet())
+        catch (DataFormatException|IOException ex)
         {
-            lumValues.put(abscissa, lumValues.get(abscissa).divide(maxCounts, MathContext.DECIMAL128));
+            Logger.getLogger(ExecutionManager.class.getName()).log(Level.SEVERE, null, ex);
         }
-        
-        m_luminescence = new ContinuousFunction(lumValues);
+        m_luminescence = tempLuminescence;
         
         //generating the QDs to be send and starting the simulation
-        String qdsPath = p_filesPaths.get(1);
-        ContinuousFunction tempCaptureTimes = new ContinuousFunction();
-        ContinuousFunction tempEscapeTimes = new ContinuousFunction();
+        QDPropertyTable tempProperties = new QDPropertyTable(m_timeStep, new ContinuousFunction(), new ContinuousFunction(), p_configuration.getQDClassResolution(), p_configuration.getLazyQDs());
         try
         {
             //getting the functions giving the capture time, escape time and recombination time as a function of the size of the QD.
             //capture time reference: https://aip.scitation.org/doi/10.1063/1.1512694
             //escape time reference: https://aip.scitation.org/doi/10.1063/1.4824469
-            tempCaptureTimes = (new SCSVLoader(new File("/home/audreyazura/Documents/Work/Simulation/AFMLuminescence/CaptureProba/ElectronCaptureTime.scsv"))).getFunction();
-            tempEscapeTimes = (new SCSVLoader(new File("/home/audreyazura/Documents/Work/Simulation/AFMLuminescence/EscapeProba/EscapeTime-10^-17cm^-3.scsv"))).getFunction();
+            ContinuousFunction captureTimes = (new SCSVLoader(new File(p_configuration.getCaptureTimesFile()))).getFunction();
+            ContinuousFunction escapeTimes = (new SCSVLoader(new File(p_configuration.getEscapeTimesFile()))).getFunction();
+            tempProperties = QDListBuilder.propertyTable(p_configuration, captureTimes, escapeTimes);
             
             //making the QD distribution
-            /***********************************************************************************************************
-             *                                                                                                         *
-             * TO DO: STREAMLINE THE QD DISTRIBUTION BY USING THE LIMITS, SUCH AS WHEN CALCULATING THE RADOM VALUE LATER *
-             *                                                                                                         *
-             ***********************************************************************************************************/
-            if (qdsPath.equals(""))
-            {
-                //QDs are randomly generated with size following a normal distribution
-                int nQDs = 300;
-                for (int i = 0 ; i < nQDs ; i += 1)
-                {
-                    BigDecimal x;
-                    BigDecimal y;
-                    BigDecimal radius;
-                    QuantumDot createdQD;
-
-                    do
-                    {
-                        x = formatBigDecimal((new BigDecimal(m_RNGenerator.nextDouble())).multiply(p_sampleXSize));
-                        y = formatBigDecimal((new BigDecimal(m_RNGenerator.nextDouble())).multiply(p_sampleYSize));
-
-                        do
-                        {
-                            radius = formatBigDecimal((new BigDecimal(m_RNGenerator.nextGaussian() * 2.1 + 12)).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
-
-                        }while (radius.compareTo(BigDecimal.ZERO) <= 0);
-
-                        createdQD = new QuantumDot(x, y, radius, radius, m_timeStep, tempCaptureTimes, tempEscapeTimes);
-
-                    }while(!validPosition(createdQD, m_QDList));
-                    
-                    m_QDList.add(createdQD);
-                }
-            }
-            else
-            {
-               //QDs are extracted from file
-                String[] nameSplit = qdsPath.split("\\.");
-
-                if (!nameSplit[nameSplit.length-1].equals("csv"))
-                {
-                    throw new DataFormatException();
-                }
-
-                BufferedReader fileReader = new BufferedReader(new FileReader(new File(qdsPath)));
-                Pattern numberRegex = Pattern.compile("^\\-?\\d+(\\.\\d+(e(\\+|\\-)\\d+)?)?");
-
-                String line;
-                while (((line = fileReader.readLine()) != null))
-                {	    
-                    String[] lineSplit = line.strip().split(";");
-
-                    if(numberRegex.matcher(lineSplit[0]).matches())
-                    {
-                        BigDecimal x = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[0].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
-                        BigDecimal y = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[1].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
-                        BigDecimal radius = GeneratorManager.formatBigDecimal(((new BigDecimal(lineSplit[2].strip())).divide(new BigDecimal("2"), MathContext.DECIMAL128)).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
-                        BigDecimal height = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[3].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
-
-                        QuantumDot currentQD = new QuantumDot(x, y, radius, height, m_timeStep, tempCaptureTimes, tempEscapeTimes);
-                        m_QDList.add(currentQD);
-                    }
-                }
-            }
+            m_QDList = (new QDListBuilder(p_configuration, tempProperties)).getQDList();
         }
         catch (DataFormatException|IOException ex)
         {
             Logger.getLogger(ExecutionManager.class.getName()).log(Level.SEVERE, null, ex);
         }
-        m_captureTimes = tempCaptureTimes;
-        m_escapeTimes = tempEscapeTimes;
+        //the fit calculates the resized QDs with the same tables and geometry classes
+        m_QDProperties = tempProperties;
         
         //creating the handler that will check on the simulation
         m_resultHandler = new ResultHandler(this);
@@ -222,7 +130,11 @@ public class ExecutionManager implements Runnable
         GeneratorManager luminescenceGenerator = new GeneratorManager();
         try
         {
-            luminescenceGenerator = new GeneratorManager(GUICommunicator, m_nElectron, new ArrayList(m_QDList), new BigDecimal("300"), m_timeStep, m_sampleXSize, m_sampleYSize);
+            luminescenceGenerator = new GeneratorManager(GUICommunicator, m_nElectron, new ArrayList(m_QDList), m_temperature, m_timeStep, m_sampleXSize, m_sampleYSize, m_configuration.getThreads(), m_configuration.getEngine(), m_configuration.getSeed());
+            luminescenceGenerator.setSortPeriod(m_configuration.getSortPeriod());
+            luminescenceGenerator.setPrimitiveFlight(m_configuration.getPrimitiveFlight());
+            luminescenceGenerator.setBatchedCapture(m_configuration.getBatchedCapture());
+            luminescenceGenerator.setRayCasting(m_configuration.getRayCasting());
             Thread generatorThread = new Thread(luminescenceGenerator);
             
             generatorThread.start();
@@ -234,18 +146,6 @@ public class ExecutionManager implements Runnable
         }
     }
     
-    private boolean validPosition(QuantumDot p_testedQD, List<QuantumDot> p_existingQDs)
-    {
-        boolean valid = true;
-        
-        for (QuantumDot QD: p_existingQDs)
-        {
-            valid &= p_testedQD.getRadius().add(QD.getRadius()).compareTo(p_testedQD.getDistance(QD.getX(), QD.getY())) < 0;
-        }
-        
-        return valid;
-    }
-    
     private void showResults (Runtime p_commandPrompt)
     {
         try
@@ -317,8 +217,10 @@ public class ExecutionManager implements Runnable
     
     void computeResults(List<BigDecimal> p_recombinationEnergies, List<BigDecimal> p_recombinationTimes)
     {
-        SimulationSorter sorter = new SimulationSorter(new ArrayList(p_recombinationTimes), new ArrayList(p_recombinationEnergies));
-        QDFitter fit = new QDFitter(m_QDList, m_timeStep, m_captureTimes, m_escapeTimes, m_luminescence, sorter);
+        SimulationSorter sorter = new SimulationSorter(new ArrayList(p_recombinationTimes), new ArrayList(p_recombinationEnergies), m_configuration.getTimeBins(), m_configuration.getEnergyBins());
+        //before the fit, which needs the energy of every QD
+        QDListBuilder.logMaterialisation(m_QDProperties);
+        QDFitter fit = new QDFitter(m_QDList, m_QDProperties, m_luminescence, sorter);
         
         m_loopCounter += 1;
         
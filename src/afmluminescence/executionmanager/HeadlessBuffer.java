@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.Electron;
+import afmluminescence.luminescencegenerator.ImageBuffer;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Image buffer discarding everything, for the runs made without visualisation
+ * @author audreyazura
+ */
+public class HeadlessBuffer implements ImageBuffer
+{
+    @Override
+    public void logElectrons(List<Electron> p_listToDraw)
+    {
+    }
+    
+    @Override
+    public void logQDs(List<QuantumDot> p_listToDraw)
+    {
+    }
+    
+    @Override
+    public void logRecombinedQDs(Collection<QuantumDot> p_recombined)
+    {
+    }
+    
+    @Override
+    public void logTime(BigDecimal p_time)
+    {
+    }
+}
@@ -23,7 +23,10 @@ import afmluminescence.luminescencegenerator.ImageBuffer;
 import afmluminescence.luminescencegenerator.QuantumDot;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javafx.scene.paint.Color;
 
 /**
@@ -36,6 +39,11 @@ public class ImageInterpretator implements ImageBuffer
     private final BigDecimal m_scaleY;
     private final DrawingBuffer m_buffer;
     
+    //the position of each QD in the list given to the buffer, and the QDs drawn as recombined, so that each step only redraws the QDs that changed
+    //the QDs are views of the simulation store, equal when they are views of the same QD
+    private Map<QuantumDot, Integer> m_QDIndices = new HashMap<>();
+    private List<QuantumDot> m_drawnRecombined = new ArrayList<>();
+    
     public ImageInterpretator (BigDecimal p_scaleX, BigDecimal p_scaleY, DrawingBuffer p_buffer)
     {
         m_scaleX = p_scaleX;
@@ -65,27 +73,62 @@ public class ImageInterpretator implements ImageBuffer
     public void logQDs(List<QuantumDot> p_listToDraw)
     {
         ArrayList<ObjectToDraw> objectList = new ArrayList();
+        m_QDIndices = new HashMap<>();
+        m_drawnRecombined = new ArrayList<>();
             
         for (QuantumDot currentQD: p_listToDraw)
         {
-            BigDecimal radius = currentQD.getRadius().multiply(m_scaleX);
-
             Color toPaint;
             if (currentQD.hasRecombined())
             {
                 toPaint = Color.RED;
+                m_drawnRecombined.add(currentQD);
             }
             else
             {
                 toPaint = Color.GREEN;
             }
-
-            objectList.add(new ObjectToDraw(currentQD.getX().multiply(m_scaleX).subtract(radius), currentQD.getY().multiply(m_scaleY).subtract(radius), toPaint, radius.doubleValue()));
+            
+            m_QDIndices.put(currentQD, objectList.size());
+            objectList.add(toDraw(currentQD, toPaint));
         }
         
         m_buffer.logFixed(objectList);
     }
     
+    @Override
+    public void logRecombinedQDs(Collection<QuantumDot> p_recombined)
+    {
+        Map<Integer, ObjectToDraw> changes = new HashMap<>();
+        
+        for (QuantumDot previousQD: m_drawnRecombined)
+        {
+            changes.put(m_QDIndices.get(previousQD), toDraw(previousQD, Color.GREEN));
+        }
+        m_drawnRecombined = new ArrayList<>();
+        for (QuantumDot currentQD: p_recombined)
+        {
+            Integer index = m_QDIndices.get(currentQD);
+            if (index != null)
+            {
+                changes.put(index, toDraw(currentQD, Color.RED));
+                m_drawnRecombined.add(currentQD);
+            }
+        }
+        
+        if (!changes.isEmpty())
+        {
+            m_buffer.updateFixed(changes);
+        }
+    }
+    
+    private ObjectToDraw toDraw(QuantumDot p_QD, Color p_color)
+    {
+        BigDecimal radius = p_QD.getRadius().multiply(m_scaleX);
+        
+        return new ObjectToDraw(p_QD.getX().multiply(m_scaleX).subtract(radius), p_QD.getY().multiply(m_scaleY).subtract(radius), p_color, radius.doubleValue());
+    }
+    
     @Override
     public void logTime(BigDecimal p_time)
     {
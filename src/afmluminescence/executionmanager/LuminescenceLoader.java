@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+/**
+ * Read an experimental luminescence (wavelength in nm;counts) as a function of the energy, normalised to its maximum
+ * @author audreyazura
+ */
+public class LuminescenceLoader
+{
+    private final ContinuousFunction m_function;
+    
+    public LuminescenceLoader (File p_input) throws DataFormatException, IOException
+    {
+        HashMap<BigDecimal, BigDecimal> lumValues = new HashMap<>();
+        BigDecimal maxCounts = BigDecimal.ZERO;
+        
+        try (BufferedReader lumReader = new BufferedReader(new FileReader(p_input)))
+        {
+            Pattern numberRegex = Pattern.compile("^\\-?\\d+(\\.\\d+(e(\\+|\\-)\\d+)?)?");
+            String line;
+            while (((line = lumReader.readLine()) != null))
+            {
+                String[] lineSplit = line.strip().split(";");
+                
+                if(numberRegex.matcher(lineSplit[0]).matches())
+                {
+                    BigDecimal energy = PhysicsTools.h.multiply(PhysicsTools.c).divide((new BigDecimal(lineSplit[0])).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()), MathContext.DECIMAL128);
+                    BigDecimal counts = new BigDecimal(lineSplit[1]);
+                    
+                    lumValues.put(energy, counts);
+                    
+                    if (counts.compareTo(maxCounts) > 0)
+                    {
+                        maxCounts = counts;
+                    }
+                }
+            }
+        }
+        
+        if (lumValues.isEmpty())
+        {
+            throw new DataFormatException("Luminescence file missing or badly formatted.");
+        }
+        
+        //normalisation of the luminescence
+        for (BigDecimal abscissa: lumValues.keySet())
+        {
+            lumValues.put(abscissa, lumValues.get(abscissa).divide(maxCounts, MathContext.DECIMAL128));
+        }
+        
+        m_function = new ContinuousFunction(lumValues);
+    }
+    
+    public ContinuousFunction getFunction()
+    {
+        return m_function;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.QDProperties;
+import afmluminescence.luminescencegenerator.QDStore;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * Binary cache of a QD list, written next to the QD file it has been calculated from
+ * It is keyed by the hash of the input files (the QD file and the capture and escape time tables), by the resolution of the QD geometry classes, by the resampling of the time tables and by the time step, which are the only things the QDs depend on
+ * Layout (big endian):
+ *  - header: magic number, format version, SHA-256 of the inputs (32 bytes), time step, number of QDs
+ *  - one record per QD: x, y, radius, height, energy (as BigDecimals), capture, escape and recombination probabilities (as doubles)
+ * BigDecimals are written as their scale followed by the length and bytes of their unscaled value, so that they are read back exactly
+ * @author audreyazura
+ */
+public class QDCache
+{
+    private static final int MAGIC_NUMBER = 0x41464D51; //"AFMQ"
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".qdcache";
+    
+    private final BigDecimal m_timeStep;
+    private final byte[] m_inputHash;
+    private final File m_cacheFile;
+    
+    /**
+     * @param p_QDFile the QD file the cache corresponds to, the cache is placed next to it
+     * @param p_timeStep the time step used to calculate the QD probabilities
+     * @param p_classResolution the resolution of the geometry classes the QD properties are calculated for, 0 if they are calculated for each QD
+     * @param p_tablePoints the number of points the time tables are resampled on, 0 if they are not
+     * @param p_tables the other files the QD properties are calculated from (capture and escape time tables)
+     * @throws IOException if one of the input files cannot be read
+     */
+    public QDCache (File p_QDFile, BigDecimal p_timeStep, BigDecimal p_classResolution, int p_tablePoints, File... p_tables) throws IOException
+    {
+        m_cacheFile = new File(p_QDFile.getPath() + EXTENSION);
+        m_timeStep = p_timeStep;
+        
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            
+            hashFile(digest, p_QDFile);
+            for (File table: p_tables)
+            {
+                hashFile(digest, table);
+            }
+            //the caches of the QDs calculated one by one from the loaded tables keep the key they had before the classes existed
+            if (p_classResolution.signum() != 0)
+            {
+                digest.update(p_classResolution.stripTrailingZeros().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (p_tablePoints != 0)
+            {
+                digest.update(("points:" + p_tablePoints).getBytes(StandardCharsets.UTF_8));
+            }
+            
+            m_inputHash = digest.digest();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            //SHA-256 is part of the algorithms every Java platform has to provide
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    static void hashFile (MessageDigest p_digest, File p_file) throws IOException
+    {
+        byte[] buffer = new byte[65536];
+        
+        try (InputStream fileStream = new FileInputStream(p_file))
+        {
+            int read;
+            while ((read = fileStream.read(buffer)) != -1)
+            {
+                p_digest.update(buffer, 0, read);
+            }
+        }
+    }
+    
+    public File getFile()
+    {
+        return m_cacheFile;
+    }
+    
+    /**
+     * Check the cache header against the current inputs, without reading the QDs
+     * @return true if the cache exists, has the current format and has been made from the same inputs and with the same time step
+     */
+    public boolean isValid()
+    {
+        boolean valid = false;
+        
+        if (m_cacheFile.isFile())
+        {
+            try (FileChannel cacheChannel = FileChannel.open(m_cacheFile.toPath(), StandardOpenOption.READ))
+            {
+                valid = readHeader(cacheChannel.map(FileChannel.MapMode.READ_ONLY, 0, cacheChannel.size())) >= 0;
+            }
+            catch (IOException|BufferUnderflowException ex)
+            {
+                valid = false;
+            }
+        }
+        
+        return valid;
+    }
+    
+    /**
+     * Read the QDs from the cache, through a memory mapping of the file
+     * @return the cached QDs, in the same order as they have been saved
+     * @throws DataFormatException if the cache does not correspond to the current inputs or is corrupted
+     * @throws IOException
+     */
+    public List<QuantumDot> load() throws DataFormatException, IOException
+    {
+        QDStore store = new QDStore();
+        //QDs saved with the same properties (the ones of a geometry class) share them again once read
+        Map<List<Object>, QDProperties> sharedProperties = new HashMap<>();
+        
+        try (FileChannel cacheChannel = FileChannel.open(m_cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer cacheBuffer = cacheChannel.map(FileChannel.MapMode.READ_ONLY, 0, cacheChannel.size());
+            
+            int nQDs = readHeader(cacheBuffer);
+            if (nQDs < 0)
+            {
+                throw new DataFormatException("QD cache outdated: " + m_cacheFile.getPath());
+            }
+            
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                readQDRecord(cacheBuffer, store, sharedProperties);
+            }
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw new DataFormatException("QD cache truncated: " + m_cacheFile.getPath());
+        }
+        
+        return store.asList();
+    }
+    
+    /**
+     * Write the QDs in the cache, replacing the previous one if it exists
+     * The cache is first written in a temporary file, so that an interrupted save, or two runs saving the same cache, never leave a broken cache behind
+     * @param p_QDList the QDs calculated from the inputs
+     * @throws IOException
+     */
+    public void save(List<QuantumDot> p_QDList) throws IOException
+    {
+        File temporaryFile = File.createTempFile(m_cacheFile.getName(), ".tmp", m_cacheFile.getAbsoluteFile().getParentFile());
+        boolean saved = false;
+        
+        try
+        {
+            try (DataOutputStream cacheWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile))))
+            {
+                cacheWriter.writeInt(MAGIC_NUMBER);
+                cacheWriter.writeInt(FORMAT_VERSION);
+                cacheWriter.write(m_inputHash);
+                writeBigDecimal(cacheWriter, m_timeStep);
+                cacheWriter.writeInt(p_QDList.size());
+                
+                for (QuantumDot QD: p_QDList)
+                {
+                    writeQDRecord(cacheWriter, QD);
+                }
+            }
+            
+            if (!temporaryFile.renameTo(m_cacheFile))
+            {
+                m_cacheFile.delete();
+                if (!temporaryFile.renameTo(m_cacheFile))
+                {
+                    throw new IOException("Impossible to write the QD cache " + m_cacheFile.getPath());
+                }
+            }
+            saved = true;
+        }
+        finally
+        {
+            //a failed save leaves no temporary file behind
+            if (!saved)
+            {
+                temporaryFile.delete();
+            }
+        }
+    }
+    
+    /**
+     * Read the header and check it against the current inputs
+     * @param p_buffer the buffer to read, positioned at the start of the cache
+     * @return the number of QDs in the cache, or -1 if the cache does not correspond to the current inputs
+     */
+    private int readHeader(ByteBuffer p_buffer)
+    {
+        int nQDs = -1;
+        
+        if (p_buffer.getInt() == MAGIC_NUMBER && p_buffer.getInt() == FORMAT_VERSION)
+        {
+            byte[] cachedHash = new byte[m_inputHash.length];
+            p_buffer.get(cachedHash);
+            
+            if (Arrays.equals(cachedHash, m_inputHash) && readBigDecimal(p_buffer).compareTo(m_timeStep) == 0)
+            {
+                nQDs = p_buffer.getInt();
+            }
+        }
+        
+        return nQDs;
+    }
+    
+    /**
+     * Read a QD written by writeQDRecord. The QD record format is also used to send QDs to distributed workers.
+     * @param p_buffer the buffer, positioned at the start of the record
+     * @param p_store the store the QD is added to, with the energy and probabilities it was saved with
+     * @param p_sharedProperties the properties already read, by value, to which the ones of the QD are added if they are new
+     */
+    static void readQDRecord(ByteBuffer p_buffer, QDStore p_store, Map<List<Object>, QDProperties> p_sharedProperties)
+    {
+        BigDecimal x = readBigDecimal(p_buffer);
+        BigDecimal y = readBigDecimal(p_buffer);
+        BigDecimal radius = readBigDecimal(p_buffer);
+        BigDecimal height = readBigDecimal(p_buffer);
+        BigDecimal energy = readBigDecimal(p_buffer);
+        double captureProbability = p_buffer.getDouble();
+        double escapeProbability = p_buffer.getDouble();
+        double recombinationProbability = p_buffer.getDouble();
+        
+        QDProperties properties = p_sharedProperties.computeIfAbsent(Arrays.asList(energy, captureProbability, escapeProbability, recombinationProbability), key -> new QDProperties(energy, captureProbability, escapeProbability, recombinationProbability));
+        
+        p_store.add(x.doubleValue(), y.doubleValue(), radius.doubleValue(), height.doubleValue(), properties);
+    }
+    
+    static void writeQDRecord(DataOutputStream p_writer, QuantumDot p_QD) throws IOException
+    {
+        writeBigDecimal(p_writer, p_QD.getX());
+        writeBigDecimal(p_writer, p_QD.getY());
+        writeBigDecimal(p_writer, p_QD.getRadius());
+        writeBigDecimal(p_writer, p_QD.getHeight());
+        writeBigDecimal(p_writer, p_QD.getEnergy());
+        p_writer.writeDouble(p_QD.getCaptureProbability());
+        p_writer.writeDouble(p_QD.getEscapeProbability());
+        p_writer.writeDouble(p_QD.getRecombinationProbability());
+    }
+    
+    /**
+     * @throws BufferUnderflowException if the length of the unscaled value is not one a written BigDecimal can have in the remaining bytes, as in a corrupted or truncated record
+     */
+    private static BigDecimal readBigDecimal(ByteBuffer p_buffer)
+    {
+        int scale = p_buffer.getInt();
+        short length = p_buffer.getShort();
+        
+        //an unscaled value is written with at least one byte
+        if (length <= 0 || length > p_buffer.remaining())
+        {
+            throw new BufferUnderflowException();
+        }
+        
+        byte[] unscaledValue = new byte[length];
+        p_buffer.get(unscaledValue);
+        
+        return new BigDecimal(new BigInteger(unscaledValue), scale);
+    }
+    
+    private static void writeBigDecimal(DataOutputStream p_writer, BigDecimal p_value) throws IOException
+    {
+        byte[] unscaledValue = p_value.unscaledValue().toByteArray();
+        
+        p_writer.writeInt(p_value.scale());
+        p_writer.writeShort(unscaledValue.length);
+        p_writer.write(unscaledValue);
+    }
+}
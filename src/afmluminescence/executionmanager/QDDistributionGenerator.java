@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.QDProperties;
+import afmluminescence.luminescencegenerator.QDPropertyTable;
+import afmluminescence.luminescencegenerator.QDStore;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generate random QD distributions without overlapping QDs
+ * The positions and radii are first drawn as doubles and checked against a uniform grid of the already placed QDs, so that only the neighbouring cells are looked at.
+ * The confinement calculation of the QDs is only done once every position is accepted, in parallel, and the QDs are then stored together in a QDStore.
+ * Two placement methods are available:
+ *  - RANDOM: uniform random positions, rejected if they overlap an existing QD (what was done historically)
+ *  - POISSON_DISK: Bridson's Poisson-disk sampling, new QDs being searched in a ring around the already placed ones. It gives a more regular layer and can reach higher densities.
+ * @author audreyazura
+ */
+public class QDDistributionGenerator
+{
+    //number of failed positions before giving up on a QD (random) or on an active QD (Poisson-disk)
+    private static final int RANDOM_MAX_ATTEMPTS = 1000;
+    private static final int POISSON_CANDIDATES = 30;
+    
+    private final double m_sampleXSize;
+    private final double m_sampleYSize;
+    private final double m_minimumGap;
+    private final Method m_method;
+    private final PcgRSFast m_RNGenerator;
+    private final QDSizeDistribution m_sizes;
+    
+    //the grid: each cell contains a chained list of the QDs whose center is inside it, m_cellHead giving the first QD and m_nextInCell the following ones
+    private double m_cellSize;
+    private int m_nCellX;
+    private int m_nCellY;
+    private int[] m_cellHead;
+    private int[] m_nextInCell;
+    
+    //the placed QDs
+    private double[] m_x;
+    private double[] m_y;
+    private double[] m_radius;
+    private double m_largestRadius;
+    private int m_nPlaced;
+    
+    /**
+     * @param p_method the placement method
+     * @param p_sampleXSize the size of the sample in x, in meters
+     * @param p_sampleYSize the size of the sample in y, in meters
+     * @param p_sizes the distribution the QD radii are drawn from
+     * @param p_minimumGap the minimum distance between the edges of two QDs, in meters
+     * @param p_RNG the random generator to use
+     */
+    public QDDistributionGenerator (Method p_method, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, QDSizeDistribution p_sizes, BigDecimal p_minimumGap, PcgRSFast p_RNG)
+    {
+        m_method = p_method;
+        m_sampleXSize = p_sampleXSize.doubleValue();
+        m_sampleYSize = p_sampleYSize.doubleValue();
+        m_sizes = p_sizes;
+        m_minimumGap = p_minimumGap.doubleValue();
+        m_RNGenerator = p_RNG;
+    }
+    
+    /**
+     * Place the QDs and calculate them
+     * @param p_nQDs the number of QDs wanted. Less can be returned if the sample is full.
+     * @param p_timeStep the simulation time step
+     * @param p_captureTimes the capture times as a function of the QD radius
+     * @param p_escapeTimes the escape times as a function of the QD radius
+     * @param p_nThreads the number of threads used to calculate the QDs
+     * @return the list of generated QDs. Their height is equal to their radius.
+     */
+    public List<QuantumDot> generate(int p_nQDs, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes, int p_nThreads)
+    {
+        return generate(p_nQDs, new QDPropertyTable(p_timeStep, p_captureTimes, p_escapeTimes, BigDecimal.ZERO), p_nThreads);
+    }
+    
+    /**
+     * Place the QDs and calculate them
+     * @param p_nQDs the number of QDs wanted. Less can be returned if the sample is full.
+     * @param p_properties the table giving the QD properties from their geometry
+     * @param p_nThreads the number of threads used to calculate the QDs
+     * @return the list of generated QDs. Their height is equal to their radius.
+     */
+    public List<QuantumDot> generate(int p_nQDs, QDPropertyTable p_properties, int p_nThreads)
+    {
+        initializeGrid(p_nQDs);
+        
+        if (m_method == Method.POISSON_DISK && p_nQDs > 0)
+        {
+            placePoissonDisk(p_nQDs);
+        }
+        else
+        {
+            placeRandom(p_nQDs);
+        }
+        
+        if (m_nPlaced < p_nQDs)
+        {
+            Logger.getLogger(QDDistributionGenerator.class.getName()).log(Level.WARNING, "Sample full: only {0} QDs placed out of {1}.", new Object[]{m_nPlaced, p_nQDs});
+        }
+        
+        return buildQDs(p_properties, p_nThreads);
+    }
+    
+    /**
+     * The cells are at least the size of a typical QD, and at most there are as much cells as QDs asked, so that the grid stays small for sparse layers on large samples
+     */
+    private void initializeGrid(int p_nQDs)
+    {
+        m_cellSize = Math.max(2 * (m_sizes.typicalRadius() + m_minimumGap), Math.sqrt(m_sampleXSize * m_sampleYSize / Math.max(p_nQDs, 1)));
+        m_nCellX = Math.max(1, (int) Math.ceil(m_sampleXSize / m_cellSize));
+        m_nCellY = Math.max(1, (int) Math.ceil(m_sampleYSize / m_cellSize));
+        m_cellHead = new int[m_nCellX * m_nCellY];
+        Arrays.fill(m_cellHead, -1);
+        
+        m_nextInCell = new int[p_nQDs];
+        m_x = new double[p_nQDs];
+        m_y = new double[p_nQDs];
+        m_radius = new double[p_nQDs];
+        m_largestRadius = 0;
+        m_nPlaced = 0;
+    }
+    
+    private void placeRandom(int p_nQDs)
+    {
+        int attempts = 0;
+        
+        while (m_nPlaced < p_nQDs && attempts < RANDOM_MAX_ATTEMPTS)
+        {
+            double radius = m_sizes.nextRadius(m_RNGenerator);
+            double x = m_RNGenerator.nextDouble() * m_sampleXSize;
+            double y = m_RNGenerator.nextDouble() * m_sampleYSize;
+            
+            if (isFree(x, y, radius))
+            {
+                place(x, y, radius);
+                attempts = 0;
+            }
+            else
+            {
+                attempts += 1;
+            }
+        }
+    }
+    
+    /**
+     * See R. Bridson, "Fast Poisson Disk Sampling in Arbitrary Dimensions", SIGGRAPH 2007
+     * Adapted to QDs of different sizes: the candidates are drawn at a distance between d and 2d from the active QD, d being the sum of the two radii and of the minimum gap
+     */
+    private void placePoissonDisk(int p_nQDs)
+    {
+        int[] activeList = new int[p_nQDs];
+        int nActive = 0;
+        
+        double firstRadius = m_sizes.nextRadius(m_RNGenerator);
+        place(m_RNGenerator.nextDouble() * m_sampleXSize, m_RNGenerator.nextDouble() * m_sampleYSize, firstRadius);
+        activeList[nActive] = 0;
+        nActive += 1;
+        
+        while (m_nPlaced < p_nQDs && nActive > 0)
+        {
+            int activeIndex = m_RNGenerator.nextInt(nActive);
+            int activeQD = activeList[activeIndex];
+            boolean found = false;
+            
+            for (int i = 0 ; i < POISSON_CANDIDATES && !found ; i += 1)
+            {
+                double radius = m_sizes.nextRadius(m_RNGenerator);
+                double minDistance = m_radius[activeQD] + radius + m_minimumGap;
+                double distance = minDistance * (1 + m_RNGenerator.nextDouble());
+                double angle = 2 * Math.PI * m_RNGenerator.nextDouble();
+                double x = m_x[activeQD] + distance * Math.cos(angle);
+                double y = m_y[activeQD] + distance * Math.sin(angle);
+                
+                if (x >= 0 && x < m_sampleXSize && y >= 0 && y < m_sampleYSize && isFree(x, y, radius))
+                {
+                    activeList[nActive] = m_nPlaced;
+                    nActive += 1;
+                    place(x, y, radius);
+                    found = true;
+                }
+            }
+            
+            if (!found)
+            {
+                //no room left around this QD, it is removed from the active list
+                nActive -= 1;
+                activeList[activeIndex] = activeList[nActive];
+            }
+        }
+    }
+    
+    /**
+     * Check the candidate against the QDs in the neighbouring cells. The neighbourhood is large enough to contain any placed QD that could overlap the candidate.
+     */
+    private boolean isFree(double p_x, double p_y, double p_radius)
+    {
+        double reach = p_radius + m_largestRadius + m_minimumGap;
+        int cellXStart = Math.max(0, (int) ((p_x - reach) / m_cellSize));
+        int cellXEnd = Math.min(m_nCellX - 1, (int) ((p_x + reach) / m_cellSize));
+        int cellYStart = Math.max(0, (int) ((p_y - reach) / m_cellSize));
+        int cellYEnd = Math.min(m_nCellY - 1, (int) ((p_y + reach) / m_cellSize));
+        
+        for (int cellY = cellYStart ; cellY <= cellYEnd ; cellY += 1)
+        {
+            for (int cellX = cellXStart ; cellX <= cellXEnd ; cellX += 1)
+            {
+                for (int QD = m_cellHead[cellY * m_nCellX + cellX] ; QD != -1 ; QD = m_nextInCell[QD])
+                {
+                    double minDistance = p_radius + m_radius[QD] + m_minimumGap;
+                    double dx = p_x - m_x[QD];
+                    double dy = p_y - m_y[QD];
+                    
+                    if (dx * dx + dy * dy <= minDistance * minDistance)
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    private void place(double p_x, double p_y, double p_radius)
+    {
+        int cell = Math.min(m_nCellY - 1, (int) (p_y / m_cellSize)) * m_nCellX + Math.min(m_nCellX - 1, (int) (p_x / m_cellSize));
+        
+        m_x[m_nPlaced] = p_x;
+        m_y[m_nPlaced] = p_y;
+        m_radius[m_nPlaced] = p_radius;
+        m_nextInCell[m_nPlaced] = m_cellHead[cell];
+        m_cellHead[cell] = m_nPlaced;
+        m_largestRadius = Math.max(m_largestRadius, p_radius);
+        m_nPlaced += 1;
+    }
+    
+    /**
+     * Calculate the properties of the placed QDs, then store them. The calculations are independent, so the QDs are cut in contiguous chunks calculated by different threads.
+     * The QDs of a lazy table are only calculated when needed, and are stored right away.
+     */
+    private List<QuantumDot> buildQDs(QDPropertyTable p_properties, int p_nThreads)
+    {
+        QDProperties[] builtProperties = new QDProperties[m_nPlaced];
+        int numberOfChunks = Integer.max(1, Integer.min(p_nThreads, m_nPlaced));
+        Thread[] workerArray = new Thread[numberOfChunks];
+        
+        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        {
+            int chunkStart = (int) ((long) m_nPlaced * i / numberOfChunks);
+            int chunkEnd = (int) ((long) m_nPlaced * (i + 1) / numberOfChunks);
+            
+            int chunkIndex = i;
+            
+            workerArray[i] = new Thread(() ->
+            {
+                ExecutionEvents.QDConstruction constructionEvent = new ExecutionEvents.QDConstruction();
+                constructionEvent.begin();
+                
+                for (int QD = chunkStart ; QD < chunkEnd && !p_properties.isLazy() ; QD += 1)
+                {
+                    BigDecimal radius = QDStore.toBigDecimal(m_radius[QD]);
+                    builtProperties[QD] = p_properties.get(radius, radius);
+                }
+                
+                constructionEvent.source = "generated";
+                constructionEvent.chunkIndex = chunkIndex;
+                constructionEvent.QDs = chunkEnd - chunkStart;
+                constructionEvent.commit();
+            });
+            workerArray[i].start();
+        }
+        
+        //the workers cannot be stopped: an interruption only delays it until they are all done, so that the QDs are never read while they are written
+        boolean interrupted = false;
+        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        {
+            boolean joined = false;
+            while (!joined)
+            {
+                try
+                {
+                    workerArray[i].join();
+                    joined = true;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Logger.getLogger(QDDistributionGenerator.class.getName()).log(Level.WARNING, "Interrupted while calculating the QDs, interruption delayed until they are calculated.");
+            Thread.currentThread().interrupt();
+        }
+        
+        QDStore store = new QDStore(m_nPlaced);
+        for (int QD = 0 ; QD < m_nPlaced ; QD += 1)
+        {
+            if (p_properties.isLazy())
+            {
+                store.add(m_x[QD], m_y[QD], m_radius[QD], m_radius[QD], p_properties);
+            }
+            else
+            {
+                store.add(m_x[QD], m_y[QD], m_radius[QD], m_radius[QD], builtProperties[QD]);
+            }
+        }
+        
+        return store.asList();
+    }
+    
+    public enum Method
+    {
+        RANDOM, POISSON_DISK;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package afmluminescence.executionmanager;
 
+import afmluminescence.luminescencegenerator.QDPropertyTable;
 import afmluminescence.luminescencegenerator.QuantumDot;
 import com.github.audreyazura.commonutils.ContinuousFunction;
 import com.github.kilianB.pcg.fast.PcgRSFast;
@@ -35,6 +36,17 @@ public class QDFitter
     
     public QDFitter (List<QuantumDot> p_QDList, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes, ContinuousFunction p_luminescence, SimulationSorter p_sorter)
     {
+        this(p_QDList, new QDPropertyTable(p_timeStep, p_captureTimes, p_escapeTimes, BigDecimal.ZERO), p_luminescence, p_sorter);
+    }
+    
+    /**
+     * @param p_properties the table giving the properties of the resized QDs: with geometry classes, a resized QD only points to the class of its new size
+     */
+    public QDFitter (List<QuantumDot> p_QDList, QDPropertyTable p_properties, ContinuousFunction p_luminescence, SimulationSorter p_sorter)
+    {
+        ExecutionEvents.FittingIteration fittingEvent = new ExecutionEvents.FittingIteration();
+        fittingEvent.begin();
+        
         SimulationJudge judge = new SimulationJudge(p_luminescence, p_sorter.getLuminescence());
         m_goodFit = judge.maximumMatch() && judge.shapeMatch();
         
@@ -47,7 +59,7 @@ public class QDFitter
                 BigDecimal multiplier = BigDecimal.ONE.divide(judge.maximumRatio(), MathContext.DECIMAL128);
                 for (QuantumDot oldQD: oldQDList)
                 {
-                    m_QDList.add(oldQD.copyWithSizeChange(multiplier, p_timeStep, p_captureTimes, p_escapeTimes));
+                    m_QDList.add(oldQD.copyWithSizeChange(multiplier, p_properties));
                 }
             }
             
@@ -92,7 +104,7 @@ public class QDFitter
                     else
                     {
                         BigDecimal highEnergyExperimentalInterval = p_luminescence.end().subtract(p_luminescence.maximum().get("abscissa"));
-                        highEnergyQDs = swapQD(highEnergyQDs, highEnergyExperimentalInterval, pivotEnergy, p_timeStep, p_captureTimes, p_escapeTimes, swapProba);
+                        highEnergyQDs = swapQD(highEnergyQDs, highEnergyExperimentalInterval, pivotEnergy, p_properties, swapProba);
                     }
                 }
                 else //negative difference
@@ -108,7 +120,7 @@ public class QDFitter
                     else
                     {
                         BigDecimal lowEnergyExperimentalInterval = p_luminescence.start().subtract(p_luminescence.maximum().get("abscissa"));
-                        lowEnergyQDs = swapQD(lowEnergyQDs, lowEnergyExperimentalInterval, pivotEnergy, p_timeStep, p_captureTimes, p_escapeTimes, swapProba);
+                        lowEnergyQDs = swapQD(lowEnergyQDs, lowEnergyExperimentalInterval, pivotEnergy, p_properties, swapProba);
                     }
                 }
                 
@@ -118,9 +130,13 @@ public class QDFitter
                 m_QDList.addAll(highEnergyQDs);
             }
         }
+        
+        fittingEvent.QDs = p_QDList.size();
+        fittingEvent.goodFit = m_goodFit;
+        fittingEvent.commit();
     }
     
-    private ArrayList<QuantumDot> swapQD (ArrayList<QuantumDot> p_qdToSwap, BigDecimal p_intervalSize, BigDecimal p_pivotEnergy, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes, double p_swapProba)
+    private ArrayList<QuantumDot> swapQD (ArrayList<QuantumDot> p_qdToSwap, BigDecimal p_intervalSize, BigDecimal p_pivotEnergy, QDPropertyTable p_properties, double p_swapProba)
     {
         ArrayList<QuantumDot> swappedList = new ArrayList<>();
         PcgRSFast RNGenerator = new PcgRSFast();
@@ -137,7 +153,7 @@ public class QDFitter
                 }while(newQDEnergy.signum() < 0);
                 
                 BigDecimal sizeMultiplier = qd.getEnergy().divide(newQDEnergy, MathContext.DECIMAL128); //energy multiplier = newEnergy / oldEnergy, size multiplier = 1 / (energy multiplier)
-                qd = qd.copyWithSizeChange(sizeMultiplier, p_timeStep, p_captureTimes, p_escapeTimes);
+                qd = qd.copyWithSizeChange(sizeMultiplier, p_properties);
             }
             
             swappedList.add(qd);
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.GeneratorManager;
+import afmluminescence.luminescencegenerator.QDPropertyTable;
+import afmluminescence.luminescencegenerator.QDStore;
+import afmluminescence.luminescencegenerator.QuantumDot;
+import afmluminescence.luminescencegenerator.ResampledFunction;
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+/**
+ * Make the QD list of a run: read from the configured QD file (through its cache when possible), or randomly generated if there is none
+ * @author audreyazura
+ */
+public class QDListBuilder
+{
+    //stream of the seeded random generator used to place the QDs, different from the ones used by the simulation
+    private static final long RANDOM_STREAM = 1;
+    
+    private final List<QuantumDot> m_QDList;
+    private final QDPropertyTable m_properties;
+    
+    public QDListBuilder (RunConfiguration p_configuration, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes) throws DataFormatException, IOException
+    {
+        this(p_configuration, propertyTable(p_configuration, p_captureTimes, p_escapeTimes));
+    }
+    
+    /**
+     * Make the table giving the QD properties with the time step, geometry class resolution and laziness of the configuration
+     * The capture and escape times are resampled if the configuration asks for it, logging how far the resampled tables deviate from the loaded ones
+     */
+    static QDPropertyTable propertyTable(RunConfiguration p_configuration, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes)
+    {
+        QDPropertyTable properties;
+        int tablePoints = p_configuration.getTimeTablePoints();
+        
+        if (tablePoints == 0)
+        {
+            properties = new QDPropertyTable(p_configuration.getTimeStep(), p_captureTimes, p_escapeTimes, p_configuration.getQDClassResolution(), p_configuration.getLazyQDs());
+        }
+        else
+        {
+            ResampledFunction captureTable = new ResampledFunction(p_captureTimes, tablePoints);
+            ResampledFunction escapeTable = new ResampledFunction(p_escapeTimes, tablePoints);
+            Logger.getLogger(QDListBuilder.class.getName()).log(Level.INFO, "Time tables resampled on {0} points, largest relative deviation: capture {1}, escape {2}.", new Object[]{tablePoints, captureTable.getMaxDeviation(), escapeTable.getMaxDeviation()});
+            
+            properties = new QDPropertyTable(p_configuration.getTimeStep(), captureTable, escapeTable, p_configuration.getQDClassResolution(), p_configuration.getLazyQDs());
+        }
+        
+        return properties;
+    }
+    
+    /**
+     * @param p_properties the table giving the QD properties, made by propertyTable
+     */
+    public QDListBuilder (RunConfiguration p_configuration, QDPropertyTable p_properties) throws DataFormatException, IOException
+    {
+        String qdsPath = p_configuration.getQDFile();
+        m_properties = p_properties;
+        
+        if (qdsPath.equals(""))
+        {
+            //QDs are randomly generated with size following the configured distribution
+            QDDistributionGenerator QDGenerator = new QDDistributionGenerator(p_configuration.getQDPlacement(), p_configuration.getSampleXSize(), p_configuration.getSampleYSize(), p_configuration.getQDSizes(), BigDecimal.ZERO, new PcgRSFast(p_configuration.getSeed(), RANDOM_STREAM));
+            m_QDList = QDGenerator.generate(p_configuration.getQDNumber(), m_properties, p_configuration.getThreads());
+        }
+        else
+        {
+            m_QDList = readQDFile(new File(qdsPath), p_configuration);
+        }
+    }
+    
+    private List<QuantumDot> readQDFile(File p_QDFile, RunConfiguration p_configuration) throws DataFormatException, IOException
+    {
+        String[] nameSplit = p_QDFile.getName().split("\\.");
+        if (!nameSplit[nameSplit.length-1].equals("csv"))
+        {
+            throw new DataFormatException();
+        }
+        
+        List<QuantumDot> QDList = new ArrayList<>();
+        BigDecimal timeStep = p_configuration.getTimeStep();
+        
+        //the QDs of a file already used with the same time step, tables, table resampling and geometry classes are read back from the cache, skipping the parsing and the QD calculations
+        QDCache cache = new QDCache(p_QDFile, timeStep, m_properties.getResolution(), m_properties.getTablePoints(), new File(p_configuration.getCaptureTimesFile()), new File(p_configuration.getEscapeTimesFile()));
+        if (cache.isValid())
+        {
+            try
+            {
+                ExecutionEvents.QDConstruction cacheEvent = new ExecutionEvents.QDConstruction();
+                cacheEvent.begin();
+                QDList = cache.load();
+                cacheEvent.source = "cache";
+                cacheEvent.QDs = QDList.size();
+                cacheEvent.commit();
+            }
+            catch (DataFormatException|IOException ex)
+            {
+                Logger.getLogger(QDListBuilder.class.getName()).log(Level.WARNING, "Impossible to read the QD cache, reading the QD file instead.", ex);
+                QDList = new ArrayList<>();
+            }
+        }
+        
+        if (QDList.isEmpty())
+        {
+            ExecutionEvents.QDConstruction fileEvent = new ExecutionEvents.QDConstruction();
+            fileEvent.begin();
+            
+            QDStore store = new QDStore();
+            try (BufferedReader fileReader = new BufferedReader(new FileReader(p_QDFile)))
+            {
+                Pattern numberRegex = Pattern.compile("^\\-?\\d+(\\.\\d+(e(\\+|\\-)\\d+)?)?");
+                
+                String line;
+                while (((line = fileReader.readLine()) != null))
+                {
+                    String[] lineSplit = line.strip().split(";");
+                    
+                    if(numberRegex.matcher(lineSplit[0]).matches())
+                    {
+                        BigDecimal x = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[0].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
+                        BigDecimal y = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[1].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
+                        BigDecimal radius = GeneratorManager.formatBigDecimal(((new BigDecimal(lineSplit[2].strip())).divide(new BigDecimal("2"), MathContext.DECIMAL128)).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
+                        BigDecimal height = GeneratorManager.formatBigDecimal((new BigDecimal(lineSplit[3].strip())).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()));
+                        
+                        store.add(x.doubleValue(), y.doubleValue(), radius.doubleValue(), height.doubleValue(), m_properties);
+                    }
+                }
+            }
+            QDList = store.asList();
+            
+            fileEvent.source = "file";
+            fileEvent.QDs = QDList.size();
+            fileEvent.commit();
+            
+            //saving lazy QDs would calculate all of them
+            if (!m_properties.isLazy())
+            {
+                try
+                {
+                    cache.save(QDList);
+                }
+                catch (IOException ex)
+                {
+                    Logger.getLogger(QDListBuilder.class.getName()).log(Level.WARNING, "Impossible to write the QD cache.", ex);
+                }
+            }
+        }
+        
+        return QDList;
+    }
+    
+    public List<QuantumDot> getQDList()
+    {
+        return m_QDList;
+    }
+    
+    /**
+     * @return the table the QD properties have been taken from, to calculate the QDs resized by the fit the same way
+     */
+    public QDPropertyTable getPropertyTable()
+    {
+        return m_properties;
+    }
+    
+    /**
+     * Log how many of the lazy QDs built from p_properties have been calculated, nothing if it is not lazy
+     */
+    static void logMaterialisation(QDPropertyTable p_properties)
+    {
+        if (p_properties.isLazy())
+        {
+            Logger.getLogger(QDListBuilder.class.getName()).log(Level.INFO, "QDs calculated: {0} out of {1} built lazily.", new Object[]{p_properties.getMaterialisedCount(), p_properties.getLazyCount()});
+        }
+    }
+}
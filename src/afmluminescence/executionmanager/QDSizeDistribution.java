@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+
+/**
+ * Distribution of the radius of randomly generated QDs, in meters
+ * @author audreyazura
+ */
+public class QDSizeDistribution
+{
+    private final double m_center;
+    private final double m_width;
+    private final Shape m_shape;
+    
+    /**
+     * @param p_shape the shape of the distribution
+     * @param p_center the mean radius (normal), the radius (fixed), the middle of the interval (uniform) or the median radius (log-normal)
+     * @param p_width the standard deviation (normal), the half-width of the interval (uniform) or the standard deviation of the logarithm of the radius (log-normal). Ignored for fixed.
+     */
+    public QDSizeDistribution (Shape p_shape, double p_center, double p_width)
+    {
+        if (p_center <= 0 || p_width < 0 || (p_shape == Shape.UNIFORM && p_width >= p_center))
+        {
+            throw new IllegalArgumentException("The QD size distribution has to give strictly positive radii.");
+        }
+        
+        m_shape = p_shape;
+        m_center = p_center;
+        m_width = p_width;
+    }
+    
+    /**
+     * The size distribution used historically: normal, with a mean radius of 12 nm and a standard deviation of 2.1 nm
+     * @return the default distribution
+     */
+    public static QDSizeDistribution defaultDistribution()
+    {
+        return new QDSizeDistribution(Shape.NORMAL, 12e-9, 2.1e-9);
+    }
+    
+    public double typicalRadius()
+    {
+        return m_center;
+    }
+    
+    /**
+     * Draw a radius from the distribution. Negative or null radii of the normal distribution are redrawn.
+     * @param p_RNG the random generator to use
+     * @return a strictly positive radius, in meters
+     */
+    public double nextRadius(PcgRSFast p_RNG)
+    {
+        double radius;
+        
+        switch (m_shape)
+        {
+            case UNIFORM:
+                radius = m_center + (2 * p_RNG.nextDouble() - 1) * m_width;
+                break;
+            case NORMAL:
+                do
+                {
+                    radius = m_center + p_RNG.nextGaussian() * m_width;
+                }while (radius <= 0);
+                break;
+            case LOGNORMAL:
+                radius = m_center * Math.exp(p_RNG.nextGaussian() * m_width);
+                break;
+            default:
+                radius = m_center;
+        }
+        
+        return radius;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return m_shape.toString().toLowerCase() + ":" + m_center + ":" + m_width;
+    }
+    
+    public enum Shape
+    {
+        FIXED, UNIFORM, NORMAL, LOGNORMAL;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.SimulationEngine;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.security.SecureRandom;
+import java.util.Properties;
+import net.opentsdb.tools.ArgP;
+
+/**
+ * The parameters of a run
+ * They are read from a properties file (key=value, one per line), each of them being overridable by its command line option.
+ * The values not given anywhere take the default value, which are the values that were used before this file existed.
+ * Lengths are in meters, times in seconds and temperatures in kelvin.
+ * @author audreyazura
+ */
+public class RunConfiguration
+{
+    //the file read when no --config option is given, if it exists in the working directory
+    public static final String DEFAULT_CONFIGURATION_FILE = "AFMLuminescence.properties";
+    
+    //each parameter: its key in the configuration file, its command line option, its default value and its description
+    private static final String[][] PARAMETERS =
+    {
+        {"luminescence.file", "--lum", "", "File containing the luminescence data."},
+        {"qd.file", "--QDs", "", "File containing the quantum dots size and position. Random QDs are generated if empty."},
+        {"capture.file", "--capture", "", "File containing the electron capture time as a function of the QD radius."},
+        {"escape.file", "--escape", "", "File containing the electron escape time as a function of the QD radius."},
+        {"qd.number", "--nQDs", "300", "Number of random QDs generated when no QD file is given."},
+        {"qd.size", "--QDSize", QDSizeDistribution.defaultDistribution().toString(), "Radius distribution of the random QDs, as shape:center:width in meters (shape: fixed, uniform, normal or lognormal)."},
+        {"qd.classResolution", "--QDClassResolution", "0", "Size of the QD geometry classes, in meters: the QDs whose radius and height round to the same multiples of it share their energy and probabilities, calculated once. 0 calculates them for each QD."},
+        {"qd.timeTablePoints", "--timeTablePoints", "0", "Number of points of the uniform grid the capture and escape time tables are resampled on when loaded (at least 2), making their interpolation a lookup. The largest deviation from the tables is logged. 0 interpolates in the tables themselves."},
+        {"qd.lazy", "--lazyQDs", "false", "Calculate the energy and probabilities of each QD at its first use instead of when it is built, so that the QDs no electron approaches are never calculated (true or false). The number of QDs calculated is logged after each run."},
+        {"qd.placement", "--placement", QDDistributionGenerator.Method.RANDOM.toString(), "Placement method of the random QDs (random or poisson_disk)."},
+        {"sample.x", "--sampleX", "1e-6", "Size of the sample in x, in meters."},
+        {"sample.y", "--sampleY", "1e-6", "Size of the sample in y, in meters."},
+        {"electrons", "--electrons", "100000", "Number of simulated electrons."},
+        {"pulse.count", "--pulses", "0", "Number of excitation pulses, each bringing the number of simulated electrons, the recombinations being accumulated in histograms by time since their pulse (batch and distributed runs). 0 excites the sample once."},
+        {"pulse.period", "--pulsePeriod", "1000", "Number of time steps between two excitation pulses."},
+        {"cw.rate", "--cwRate", "0", "Number of electrons generated by time step by a continuous excitation, simulated until the steady state and then until the statistical error of the spectrum peak reaches cw.error (batch and distributed runs). The run fails if its population exceeds the number of electrons. 0 excites the sample once."},
+        {"cw.error", "--cwError", "0.01", "Relative statistical error of the spectrum peak at which a continuous excitation stops."},
+        {"adaptive.batch", "--adaptiveBatch", "0", "Number of electrons of each batch of an adaptive run, whose batches are simulated until the errors of the spectrum maximum and shape, estimated from their variance between the batches, fall below adaptive.tolerance times the tolerances of the fit, or until the number of electrons is reached (batch and distributed runs). 0 simulates all the electrons at once."},
+        {"adaptive.tolerance", "--adaptiveTolerance", "0.2", "Fraction of the tolerances of the fit (1 meV on the spectrum maximum, 5% on its shape) the errors of an adaptive run have to fall below."},
+        {"timestep", "--timestep", "1e-12", "Simulation time step, in seconds."},
+        {"temperature", "--temperature", "300", "Temperature of the sample, in kelvin."},
+        {"fit.maxloop", "--loops", "2", "Maximum number of simulations done while fitting the QD distribution."},
+        {"threads", "--threads", Integer.toString(Runtime.getRuntime().availableProcessors()), "Number of threads used by the simulation."},
+        {"engine", "--engine", SimulationEngine.CHUNKS.toString(), "Simulation engine: chunks (one fixed chunk of electrons per thread), work_stealing (active electrons rebalanced between the threads at each step) or tiles (one strip of the sample, with its QDs and electrons, per thread)."},
+        {"sort.period", "--sortPeriod", "0", "Number of time steps between two reorderings of the active electrons along a Morton curve of their positions, for the locality of the QD lookups. 0 keeps the creation order."},
+        {"flight.primitive", "--primitiveFlight", "false", "Fly the free electrons by blocks in double precision, in a loop vectorised by the JIT, instead of one by one in BigDecimal (true or false)."},
+        {"flight.raycast", "--rayCast", "false", "Let the free electrons fly through the regions without QD in reach in one go, found by casting their path through a grid of the sample (true or false)."},
+        {"capture.batched", "--batchedCapture", "false", "Evaluate the captures of the free electrons by blocks in double precision, instead of one by one in BigDecimal (true or false)."},
+        {"bins.time", "--timeBins", "100", "Number of intervals of the time resolved luminescence."},
+        {"bins.energy", "--energyBins", "100", "Number of intervals of the luminescence spectra."},
+        {"seed", "--seed", "", "Seed of the random generators, for reproducible runs. A random seed is drawn if empty."},
+    };
+    
+    private final boolean m_batchedCapture;
+    private final boolean m_lazyQDs;
+    private final int m_timeTablePoints;
+    private final boolean m_primitiveFlight;
+    private final boolean m_rayCasting;
+    private final int m_pulses;
+    private final int m_pulsePeriod;
+    private final BigDecimal m_CWRate;
+    private final BigDecimal m_CWError;
+    private final int m_adaptiveBatch;
+    private final BigDecimal m_adaptiveTolerance;
+    private final BigDecimal m_QDClassResolution;
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final BigDecimal m_temperature;
+    private final BigDecimal m_timeStep;
+    private final int m_electronNumber;
+    private final int m_energyBins;
+    private final int m_maxLoop;
+    private final int m_QDNumber;
+    private final int m_sortPeriod;
+    private final int m_threads;
+    private final int m_timeBins;
+    private final long m_seed;
+    private final Properties m_values;
+    private final QDDistributionGenerator.Method m_QDPlacement;
+    private final QDSizeDistribution m_QDSizes;
+    private final SimulationEngine m_engine;
+    private final String m_captureTimesFile;
+    private final String m_escapeTimesFile;
+    private final String m_luminescenceFile;
+    private final String m_QDFile;
+    
+    /**
+     * @param p_values the parameters, by key. Missing ones take their default value.
+     * @throws IllegalArgumentException if one of the values cannot be interpreted
+     */
+    public RunConfiguration (Properties p_values) throws IllegalArgumentException
+    {
+        m_values = new Properties();
+        for (String[] parameter: PARAMETERS)
+        {
+            m_values.setProperty(parameter[0], p_values.getProperty(parameter[0], parameter[2]).strip());
+        }
+        
+        m_luminescenceFile = m_values.getProperty("luminescence.file");
+        m_QDFile = m_values.getProperty("qd.file");
+        m_captureTimesFile = m_values.getProperty("capture.file");
+        m_escapeTimesFile = m_values.getProperty("escape.file");
+        m_QDNumber = positiveInteger("qd.number", true);
+        m_QDSizes = sizeDistribution("qd.size");
+        m_QDPlacement = QDDistributionGenerator.Method.valueOf(m_values.getProperty("qd.placement").toUpperCase());
+        m_QDClassResolution = positiveDecimal("qd.classResolution", true);
+        m_lazyQDs = bool("qd.lazy");
+        m_timeTablePoints = positiveInteger("qd.timeTablePoints", true);
+        m_sampleXSize = positiveDecimal("sample.x", false);
+        m_sampleYSize = positiveDecimal("sample.y", false);
+        m_electronNumber = positiveInteger("electrons", false);
+        m_timeStep = positiveDecimal("timestep", false);
+        m_temperature = positiveDecimal("temperature", false);
+        m_maxLoop = positiveInteger("fit.maxloop", false);
+        m_threads = positiveInteger("threads", false);
+        m_engine = SimulationEngine.valueOf(m_values.getProperty("engine").toUpperCase());
+        m_sortPeriod = positiveInteger("sort.period", true);
+        m_primitiveFlight = bool("flight.primitive");
+        m_batchedCapture = bool("capture.batched");
+        m_rayCasting = bool("flight.raycast");
+        m_pulses = positiveInteger("pulse.count", true);
+        m_pulsePeriod = positiveInteger("pulse.period", false);
+        m_CWRate = positiveDecimal("cw.rate", true);
+        m_CWError = positiveDecimal("cw.error", false);
+        m_adaptiveBatch = positiveInteger("adaptive.batch", true);
+        m_adaptiveTolerance = positiveDecimal("adaptive.tolerance", false);
+        m_timeBins = positiveInteger("bins.time", false);
+        m_energyBins = positiveInteger("bins.energy", false);
+        
+        //the drawn seed is kept with the other values, so that the run can be reproduced from asProperties()
+        if (m_values.getProperty("seed").isEmpty())
+        {
+            m_values.setProperty("seed", Long.toString((new SecureRandom()).nextLong()));
+        }
+        m_seed = Long.parseLong(m_values.getProperty("seed"));
+    }
+    
+    /**
+     * Add the options of every parameter to the command line parser, along with --config
+     * @param p_parser the parser to complete
+     */
+    public static void declareOptions(ArgP p_parser)
+    {
+        p_parser.addOption("--config", "FILE", "Configuration file (default: " + DEFAULT_CONFIGURATION_FILE + " if it exists).");
+        
+        for (String[] parameter: PARAMETERS)
+        {
+            p_parser.addOption(parameter[1], parameter[0].toUpperCase(), parameter[3] + " Default: " + parameter[2]);
+        }
+    }
+    
+    /**
+     * Build the configuration from the configuration file and the command line options
+     * @param p_parsedArguments the parser, already having parsed the command line
+     * @return the configuration, the command line options overriding the file
+     * @throws IOException if the configuration file cannot be read
+     * @throws IllegalArgumentException if one of the values cannot be interpreted
+     */
+    public static RunConfiguration load(ArgP p_parsedArguments) throws IOException, IllegalArgumentException
+    {
+        Properties values = new Properties();
+        
+        File configurationFile = new File(p_parsedArguments.get("--config", DEFAULT_CONFIGURATION_FILE));
+        if (p_parsedArguments.has("--config") || configurationFile.isFile())
+        {
+            try (Reader configurationReader = new FileReader(configurationFile))
+            {
+                values.load(configurationReader);
+            }
+        }
+        
+        for (String[] parameter: PARAMETERS)
+        {
+            if (p_parsedArguments.has(parameter[1]))
+            {
+                values.setProperty(parameter[0], p_parsedArguments.get(parameter[1]));
+            }
+        }
+        
+        return new RunConfiguration(values);
+    }
+    
+    /**
+     * @return every parameter of the run by key, default values included
+     */
+    public Properties asProperties()
+    {
+        Properties copy = new Properties();
+        copy.putAll(m_values);
+        
+        return copy;
+    }
+    
+    private int positiveInteger(String p_key, boolean p_zeroAllowed) throws IllegalArgumentException
+    {
+        int value = Integer.parseInt(m_values.getProperty(p_key));
+        
+        if (value < 0 || (value == 0 && !p_zeroAllowed))
+        {
+            throw new IllegalArgumentException("Invalid value for " + p_key + ": " + value);
+        }
+        
+        return value;
+    }
+    
+    private BigDecimal positiveDecimal(String p_key, boolean p_zeroAllowed) throws IllegalArgumentException
+    {
+        BigDecimal value = new BigDecimal(m_values.getProperty(p_key));
+        
+        if (value.signum() < 0 || (value.signum() == 0 && !p_zeroAllowed))
+        {
+            throw new IllegalArgumentException("Invalid value for " + p_key + ": " + value);
+        }
+        
+        return value;
+    }
+    
+    private boolean bool(String p_key) throws IllegalArgumentException
+    {
+        String value = m_values.getProperty(p_key);
+        
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+        {
+            throw new IllegalArgumentException("Invalid value for " + p_key + ", expected true or false: " + value);
+        }
+        
+        return Boolean.parseBoolean(value);
+    }
+    
+    private QDSizeDistribution sizeDistribution(String p_key) throws IllegalArgumentException
+    {
+        String[] fields = m_values.getProperty(p_key).split(":");
+        
+        if (fields.length != 3)
+        {
+            throw new IllegalArgumentException("Invalid value for " + p_key + ", expected shape:center:width: " + m_values.getProperty(p_key));
+        }
+        
+        return new QDSizeDistribution(QDSizeDistribution.Shape.valueOf(fields[0].strip().toUpperCase()), Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+    }
+    
+    public int getAdaptiveBatch()
+    {
+        return m_adaptiveBatch;
+    }
+    
+    public BigDecimal getAdaptiveTolerance()
+    {
+        return m_adaptiveTolerance;
+    }
+    
+    public boolean getBatchedCapture()
+    {
+        return m_batchedCapture;
+    }
+    
+    public BigDecimal getCWError()
+    {
+        return m_CWError;
+    }
+    
+    public BigDecimal getCWRate()
+    {
+        return m_CWRate;
+    }
+    
+    public String getCaptureTimesFile()
+    {
+        return m_captureTimesFile;
+    }
+    
+    public SimulationEngine getEngine()
+    {
+        return m_engine;
+    }
+    
+    public int getElectronNumber()
+    {
+        return m_electronNumber;
+    }
+    
+    public int getEnergyBins()
+    {
+        return m_energyBins;
+    }
+    
+    public String getEscapeTimesFile()
+    {
+        return m_escapeTimesFile;
+    }
+    
+    public String getLuminescenceFile()
+    {
+        return m_luminescenceFile;
+    }
+    
+    public int getMaxLoop()
+    {
+        return m_maxLoop;
+    }
+    
+    public String getQDFile()
+    {
+        return m_QDFile;
+    }
+    
+    public int getQDNumber()
+    {
+        return m_QDNumber;
+    }
+    
+    public boolean getLazyQDs()
+    {
+        return m_lazyQDs;
+    }
+    
+    public BigDecimal getQDClassResolution()
+    {
+        return m_QDClassResolution;
+    }
+    
+    public QDDistributionGenerator.Method getQDPlacement()
+    {
+        return m_QDPlacement;
+    }
+    
+    public QDSizeDistribution getQDSizes()
+    {
+        return m_QDSizes;
+    }
+    
+    public BigDecimal getSampleXSize()
+    {
+        return m_sampleXSize;
+    }
+    
+    public BigDecimal getSampleYSize()
+    {
+        return m_sampleYSize;
+    }
+    
+    public BigDecimal getTemperature()
+    {
+        return m_temperature;
+    }
+    
+    public boolean getPrimitiveFlight()
+    {
+        return m_primitiveFlight;
+    }
+    
+    public int getPulses()
+    {
+        return m_pulses;
+    }
+    
+    public int getPulsePeriod()
+    {
+        return m_pulsePeriod;
+    }
+    
+    public boolean getRayCasting()
+    {
+        return m_rayCasting;
+    }
+    
+    public int getSortPeriod()
+    {
+        return m_sortPeriod;
+    }
+    
+    public long getSeed()
+    {
+        return m_seed;
+    }
+    
+    public int getThreads()
+    {
+        return m_threads;
+    }
+    
+    public int getTimeBins()
+    {
+        return m_timeBins;
+    }
+    
+    public int getTimeTablePoints()
+    {
+        return m_timeTablePoints;
+    }
+    
+    public BigDecimal getTimeStep()
+    {
+        return m_timeStep;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder description = new StringBuilder();
+        
+        for (String[] parameter: PARAMETERS)
+        {
+            description.append(parameter[0]).append(" = ").append(m_values.getProperty(parameter[0])).append("\n");
+        }
+        
+        return description.toString();
+    }
+}
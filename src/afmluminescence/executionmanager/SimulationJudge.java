@@ -27,19 +27,25 @@ import java.math.MathContext;
  */
 public class SimulationJudge
 {
+    //acceptable error on the position of the maximum (1 meV) and on the part of the spectrum above it (5%)
+    static final BigDecimal MAXIMUM_TOLERANCE = (new BigDecimal("0.001")).multiply(PhysicsTools.EV);
+    static final BigDecimal SHAPE_TOLERANCE = new BigDecimal("0.05");
+    
     private final MatchObject m_maxMatching;
     private final MatchObject m_shapeMatchingHighEnergy;
     
     public SimulationJudge (ContinuousFunction p_experimentalLuminescence, ContinuousFunction p_simulatedLuminescence)
     {
+        ExecutionEvents.Judging judgingEvent = new ExecutionEvents.Judging();
+        judgingEvent.begin();
+        
         BigDecimal experimentalMaxPosition = p_experimentalLuminescence.maximum().get("abscissa");
         BigDecimal simulatedMaxPosition = p_simulatedLuminescence.maximum().get("abscissa");
         
         //comparing the position of maximum
         //supposing an acceptable error on the abscissa of +/-1 meV
-        BigDecimal maxError = (new BigDecimal("0.001")).multiply(PhysicsTools.EV);
         BigDecimal differenceMaxEnergy = experimentalMaxPosition.subtract(simulatedMaxPosition);
-        if(differenceMaxEnergy.abs().compareTo(maxError) <= 0)
+        if(differenceMaxEnergy.abs().compareTo(MAXIMUM_TOLERANCE) <= 0)
         {
             m_maxMatching = new MatchObject(true, "");
         }
@@ -77,7 +83,6 @@ public class SimulationJudge
 //        System.out.println("High -> simu: " + simuHighEnergyRatio + "\t experiment: " + experimentHighEnergyRatio);
         
         //putting an acceptable error on the shape of 5%
-        BigDecimal maxErrorShape = new BigDecimal("0.05");
         BigDecimal differenceShapeHighEnergy = simuHighEnergyRatio.subtract(experimentHighEnergyRatio);
         BigDecimal differenceShapeLowEnergy = simuLowEnergyRatio.subtract(experimentLowEnergyRatio);
         
@@ -85,13 +90,17 @@ public class SimulationJudge
         if((differenceShapeHighEnergy.add(differenceShapeLowEnergy)).compareTo(new BigDecimal("1e-20")) <= 0)
         {
             //the absolute error is basically the same on each side, therefore we can only care on one side
-            m_shapeMatchingHighEnergy = new MatchObject(((differenceShapeHighEnergy.abs()).compareTo(maxErrorShape) <= 0), differenceShapeHighEnergy.toString());
+            m_shapeMatchingHighEnergy = new MatchObject(((differenceShapeHighEnergy.abs()).compareTo(SHAPE_TOLERANCE) <= 0), differenceShapeHighEnergy.toString());
         }
         else
         {
             System.out.println(simuHighEnergyRatio.add(simuLowEnergyRatio));
             throw new ArithmeticException("Sum of ratioed integral different than 1.");
         }
+        
+        judgingEvent.maximumMatch = m_maxMatching.isMatching();
+        judgingEvent.shapeMatch = m_shapeMatchingHighEnergy.isMatching();
+        judgingEvent.commit();
     }
     
     public boolean maximumMatch()
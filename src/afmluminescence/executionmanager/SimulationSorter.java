@@ -16,6 +16,7 @@
  */
 package afmluminescence.executionmanager;
 
+import afmluminescence.luminescencegenerator.RecombinationHistogram;
 import com.github.audreyazura.commonutils.ContinuousFunction;
 import com.github.audreyazura.commonutils.PhysicsTools;
 import java.io.BufferedWriter;
@@ -25,8 +26,12 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
@@ -39,71 +44,93 @@ public class SimulationSorter
     private final HashMap<BigDecimal, BigDecimal> m_times = new HashMap<>();
     private final HashMap<BigDecimal, BigDecimal> m_energies = new HashMap<>();
     
-    public SimulationSorter (List<BigDecimal> p_timesList, List<BigDecimal> p_energiesList)
+    public SimulationSorter (List<BigDecimal> p_timesList, List<BigDecimal> p_energiesList, int p_timeBins, int p_energyBins)
     {
-        p_timesList.sort(null);
-        p_energiesList.sort(null);
+        this(countValues(p_timesList), countValues(p_energiesList), p_timeBins, p_energyBins);
+    }
+    
+    /**
+     * Sort the merged results of several simulations
+     * @param p_histogram the recombinations of all the simulations
+     * @param p_timeStep the time step of the simulations
+     * @param p_timeBins the number of intervals of the time resolved luminescence
+     * @param p_energyBins the number of intervals of the spectra
+     */
+    public SimulationSorter (RecombinationHistogram p_histogram, BigDecimal p_timeStep, int p_timeBins, int p_energyBins)
+    {
+        this(p_histogram.getTimeCounts(p_timeStep), p_histogram.getEnergyCounts(), p_timeBins, p_energyBins);
+    }
+    
+    private SimulationSorter (SortedMap<BigDecimal, Long> p_timeCounts, SortedMap<BigDecimal, Long> p_energyCounts, int p_timeBins, int p_energyBins)
+    {
+        ExecutionEvents.Sorting sortingEvent = new ExecutionEvents.Sorting();
+        sortingEvent.begin();
         
-        //cutting the timespan of the experiment into a given number of intervals (here 100) and puting the number of recombined electrons during each intervals
-        BigDecimal maxTime = p_timesList.get(p_timesList.size() - 1);
-        BigDecimal timeInterval = maxTime.divide(new BigDecimal("100"), MathContext.DECIMAL128);
-        for (BigDecimal currentTime = BigDecimal.ZERO ; currentTime.compareTo(maxTime) == -1 ; currentTime = currentTime.add(timeInterval))
-        {
-            BigDecimal currentMax = currentTime.add(timeInterval);
-            int nRecomb = 0;
-            
-            while (p_timesList.size() > 0 && p_timesList.get(0).compareTo(currentMax) <= 0)
-            {
-                nRecomb += 1;
-                p_timesList.remove(0);
-            }
-            
-            m_times.put(currentTime, new BigDecimal(nRecomb));
-        }
+        //cutting the timespan of the experiment into a given number of intervals (p_timeBins) and puting the number of recombined electrons during each intervals
+        bin(p_timeCounts, BigDecimal.ZERO, p_timeCounts.lastKey(), p_timeBins, m_times);
+        
+        //doing the same for the energies, in p_energyBins intervals
+        bin(p_energyCounts, p_energyCounts.firstKey(), p_energyCounts.lastKey(), p_energyBins, m_energies);
         
-        //doing the same for the energies, in 50 intervals
-        BigDecimal minEnergy = p_energiesList.get(0);
-        BigDecimal maxEnergy = p_energiesList.get(p_energiesList.size() - 1);
-        BigDecimal energyInterval = (maxEnergy.subtract(minEnergy)).divide(new BigDecimal("100"), MathContext.DECIMAL128);
+        //normalisation
         BigDecimal maxCounts = BigDecimal.ZERO;
-        int nInf = 0;
-        int nSup = 0;
-        for (BigDecimal currentEnergy = minEnergy ; currentEnergy.compareTo(maxEnergy) == -1 ; currentEnergy = currentEnergy.add(energyInterval))
+        for (BigDecimal counts: m_energies.values())
         {
-            BigDecimal currentMax = currentEnergy.add(energyInterval);
-            int nEnergy = 0;
-            
-            while (p_energiesList.size() > 0 && p_energiesList.get(0).compareTo(currentMax) <= 0)
+            if (counts.compareTo(maxCounts) > 0)
             {
-                if (p_energiesList.get(0).compareTo((new BigDecimal("1.0")).multiply(PhysicsTools.EV)) <= 0)
-                {
-                    nInf += 1;
-                }
-                else
-                {
-                    nSup += 1;
-                }
-                
-                nEnergy += 1;
-                p_energiesList.remove(0);
-            }
-            
-            BigDecimal nEnergyBig = new BigDecimal(nEnergy);
-            m_energies.put(currentEnergy, new BigDecimal(nEnergy));
-            
-            if (nEnergyBig.compareTo(maxCounts) > 0)
-            {
-                maxCounts = nEnergyBig;
+                maxCounts = counts;
             }
         }
-        
-        //normalisation
         for (BigDecimal energy: m_energies.keySet())
         {
             m_energies.put(energy, m_energies.get(energy).divide(maxCounts, MathContext.DECIMAL128));
         }
         
         m_energyFunction = new ContinuousFunction(m_energies);
+        
+        sortingEvent.times = p_timeCounts.size();
+        sortingEvent.energies = p_energyCounts.size();
+        sortingEvent.timeBins = p_timeBins;
+        sortingEvent.energyBins = p_energyBins;
+        sortingEvent.commit();
+    }
+    
+    private static SortedMap<BigDecimal, Long> countValues(List<BigDecimal> p_values)
+    {
+        TreeMap<BigDecimal, Long> counts = new TreeMap<>();
+        
+        for (BigDecimal value: p_values)
+        {
+            counts.merge(value, 1L, Long::sum);
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * Cut [p_start, p_end] in p_nBins intervals and put in each of them the number of values in ]start, end] (the first interval also getting the values equal to p_start)
+     * @param p_counts the number of occurrences of each value
+     * @param p_bins the map receiving the number of values by interval start
+     */
+    private static void bin(SortedMap<BigDecimal, Long> p_counts, BigDecimal p_start, BigDecimal p_end, int p_nBins, HashMap<BigDecimal, BigDecimal> p_bins)
+    {
+        BigDecimal interval = (p_end.subtract(p_start)).divide(new BigDecimal(p_nBins), MathContext.DECIMAL128);
+        Iterator<Map.Entry<BigDecimal, Long>> countIterator = p_counts.entrySet().iterator();
+        Map.Entry<BigDecimal, Long> currentCount = countIterator.hasNext() ? countIterator.next() : null;
+        
+        for (BigDecimal currentStart = p_start ; currentStart.compareTo(p_end) == -1 ; currentStart = currentStart.add(interval))
+        {
+            BigDecimal currentMax = currentStart.add(interval);
+            long nValues = 0;
+            
+            while (currentCount != null && currentCount.getKey().compareTo(currentMax) <= 0)
+            {
+                nValues += currentCount.getValue();
+                currentCount = countIterator.hasNext() ? countIterator.next() : null;
+            }
+            
+            p_bins.put(currentStart, new BigDecimal(nValues));
+        }
     }
     
     public void saveToFile(File timeFile, File energyFile) throws IOException
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.executionmanager;
+
+import afmluminescence.luminescencegenerator.RecombinationHistogram;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Statistics of the spectra of independent batches of electrons simulated on the same QDs, telling when their merged spectrum is precise enough for SimulationJudge
+ * Each batch spectrum is cut in intervals of equal widths between the lowest and the highest recombination energy of the first batch, and normalised to its number of recombinations. The intervals are then kept for all the batches, the recombinations of the later ones outside of them being counted in the first or last interval. The mean and variance of each interval over the batches give the merged spectrum and its noise, which is propagated to the two metrics of the judge:
+ *  - the position of the maximum, interpolated by a parabola through the highest interval and its two neighbours
+ *  - the part of the spectrum above the maximum, whose error ignores the covariance of the intervals: as they are normalised, it is negative, and the error is overestimated
+ * @author audreyazura
+ */
+public class SpectrumStatistics
+{
+    //below that, the variance of the intervals is too rough an estimate to stop on
+    static final int MIN_BATCHES = 4;
+    
+    //set by the first batch
+    private double m_start = 0;
+    private double m_width = 0;
+    private final double[] m_means;
+    //sum of the squared deviations from the mean of each interval (Welford's algorithm)
+    private final double[] m_squaredDeviations;
+    private final RecombinationHistogram m_merged = new RecombinationHistogram();
+    private int m_batches = 0;
+    
+    /**
+     * The energy range is taken from the recombinations of the first batch rather than from the QDs, so that the lazy QDs no electron approaches are still never calculated
+     * @param p_bins the number of intervals the spectra are cut in
+     */
+    public SpectrumStatistics (int p_bins)
+    {
+        m_means = new double[p_bins];
+        m_squaredDeviations = new double[p_bins];
+    }
+    
+    /**
+     * @param p_batch the recombinations of one batch, which are also merged with the ones of the previous batches. An empty batch, which has no spectrum, is ignored.
+     */
+    public void add(RecombinationHistogram p_batch)
+    {
+        if (!p_batch.isEmpty())
+        {
+            if (m_batches == 0)
+            {
+                m_start = p_batch.getEnergyCounts().firstKey().doubleValue();
+                m_width = (p_batch.getEnergyCounts().lastKey().doubleValue() - m_start) / m_means.length;
+            }
+            
+            double[] fractions = new double[m_means.length];
+            for (Map.Entry<BigDecimal, Long> energyCount: p_batch.getEnergyCounts().entrySet())
+            {
+                int bin = m_width == 0 ? 0 : Integer.max(0, Integer.min(m_means.length - 1, (int) ((energyCount.getKey().doubleValue() - m_start) / m_width)));
+                fractions[bin] += (double) energyCount.getValue() / p_batch.getTotal();
+            }
+            
+            m_batches += 1;
+            for (int i = 0 ; i < m_means.length ; i += 1)
+            {
+                double deviation = fractions[i] - m_means[i];
+                m_means[i] += deviation / m_batches;
+                m_squaredDeviations[i] += deviation * (fractions[i] - m_means[i]);
+            }
+            
+            m_merged.merge(p_batch);
+        }
+    }
+    
+    public int getBatches()
+    {
+        return m_batches;
+    }
+    
+    /**
+     * @return the recombinations of all the batches
+     */
+    public RecombinationHistogram getMerged()
+    {
+        return m_merged;
+    }
+    
+    /**
+     * @return the variance of the mean of an interval over the batches
+     */
+    private double meanVariance(int p_bin)
+    {
+        return m_squaredDeviations[p_bin] / (m_batches - 1) / m_batches;
+    }
+    
+    private int peakBin()
+    {
+        int peak = 0;
+        
+        for (int i = 1 ; i < m_means.length ; i += 1)
+        {
+            if (m_means[i] > m_means[peak])
+            {
+                peak = i;
+            }
+        }
+        
+        return peak;
+    }
+    
+    /**
+     * @return the standard error of the position of the maximum of the merged spectrum, in joules, infinite with less than two batches or a maximum in the first or last interval, which cannot be interpolated
+     */
+    public double getMaximumError()
+    {
+        double error = Double.POSITIVE_INFINITY;
+        int peak = peakBin();
+        
+        if (m_batches >= 2 && peak > 0 && peak < m_means.length - 1)
+        {
+            //offset of the vertex of the parabola from the peak interval, in intervals: (a - c) / 2(a - 2b + c)
+            double a = m_means[peak - 1];
+            double b = m_means[peak];
+            double c = m_means[peak + 1];
+            double curvature = a - 2 * b + c;
+            
+            if (curvature != 0)
+            {
+                double offsetVariance = ((c - b) * (c - b) * meanVariance(peak - 1) + (a - c) * (a - c) * meanVariance(peak) + (b - a) * (b - a) * meanVariance(peak + 1)) / Math.pow(curvature, 4);
+                error = m_width * Math.sqrt(offsetVariance);
+            }
+        }
+        
+        return error;
+    }
+    
+    /**
+     * @return the standard error of the part of the merged spectrum above its maximum, infinite with less than two batches
+     */
+    public double getShapeError()
+    {
+        double error = Double.POSITIVE_INFINITY;
+        
+        if (m_batches >= 2)
+        {
+            double variance = 0;
+            for (int i = peakBin() + 1 ; i < m_means.length ; i += 1)
+            {
+                variance += meanVariance(i);
+            }
+            error = Math.sqrt(variance);
+        }
+        
+        return error;
+    }
+    
+    /**
+     * @param p_fraction the fraction of the tolerances of SimulationJudge the errors have to be below
+     * @return true once there are enough batches and both errors are below that fraction of the judge tolerances
+     */
+    public boolean isPrecise(double p_fraction)
+    {
+        return m_batches >= MIN_BATCHES && getMaximumError() <= p_fraction * SimulationJudge.MAXIMUM_TOLERANCE.doubleValue() && getShapeError() <= p_fraction * SimulationJudge.SHAPE_TOLERANCE.doubleValue();
+    }
+}
@@ -20,6 +20,7 @@ import com.github.audreyazura.commonutils.PhysicsTools;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -112,6 +113,21 @@ public class DrawingBuffer
         }
     }
     
+    /**
+     * Replace some of the fixed objects, leaving the others as they are
+     * @param p_changes the new objects, by index in the list given to logFixed
+     */
+    public void updateFixed (Map<Integer, ObjectToDraw> p_changes)
+    {
+        synchronized(m_fixedObjectsLock)
+        {
+            for (Map.Entry<Integer, ObjectToDraw> change: p_changes.entrySet())
+            {
+                m_listFixed.set(change.getKey(), change.getValue());
+            }
+        }
+    }
+    
     public void logTime(BigDecimal p_time)
     {
         synchronized(m_timeLock)
@@ -17,7 +17,7 @@
 package afmluminescence.guimanager;
 
 import afmluminescence.executionmanager.ExecutionManager;
-import com.github.audreyazura.commonutils.PhysicsTools;
+import afmluminescence.executionmanager.RunConfiguration;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import javafx.application.Application;
@@ -42,6 +42,9 @@ import javafx.util.Duration;
  */
 public class GUIManager extends Application
 {
+    //the JavaFX application is instantiated by launch(), the configuration is therefore passed through this field
+    private static RunConfiguration m_configuration;
+    
     private BigDecimal m_canvasXWidth;
     private BigDecimal m_canvasYWidth;
     private BigDecimal m_sampleXSize;
@@ -113,8 +116,9 @@ public class GUIManager extends Application
         pictureStage.setX(pictureStage.getX() + shift);
     }
     
-    public void startVisualizer(String[] args)
+    public void startVisualizer(RunConfiguration p_configuration, String[] args)
     {
+        m_configuration = p_configuration;
         launch(args);
     }
     
@@ -126,14 +130,14 @@ public class GUIManager extends Application
         m_canvasXWidth = new BigDecimal("1000");
         m_canvasYWidth = new BigDecimal("1000");
         
-        m_sampleXSize = (new BigDecimal(1)).multiply(PhysicsTools.UnitsPrefix.MICRO.getMultiplier());
-        m_sampleYSize = (new BigDecimal(1)).multiply(PhysicsTools.UnitsPrefix.MICRO.getMultiplier());
+        m_sampleXSize = m_configuration.getSampleXSize();
+        m_sampleYSize = m_configuration.getSampleYSize();
         BigDecimal scaleX = m_canvasXWidth.divide(m_sampleXSize, MathContext.DECIMAL128);
         BigDecimal scaleY = m_canvasYWidth.divide(m_sampleYSize, MathContext.DECIMAL128);
         DrawingBuffer buffer = new DrawingBuffer(scaleX, scaleY);
         m_buffer = buffer;
         
-        (new Thread(new ExecutionManager(this, buffer, getParameters().getRaw(), m_sampleXSize, m_sampleYSize, scaleX, scaleY))).start();
+        (new Thread(new ExecutionManager(this, buffer, m_configuration, scaleX, scaleY))).start();
         
         Canvas animationCanvas = new Canvas(m_canvasXWidth.doubleValue(), m_canvasYWidth.doubleValue());
         m_canvasPainter = animationCanvas.getGraphicsContext2D();
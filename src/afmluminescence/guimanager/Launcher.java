@@ -16,6 +16,21 @@
  */
 package afmluminescence.guimanager;
 
+import afmluminescence.executionmanager.BatchRunner;
+import afmluminescence.executionmanager.DistributedCoordinator;
+import afmluminescence.executionmanager.DistributedWorker;
+import afmluminescence.executionmanager.RunConfiguration;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
 import net.opentsdb.tools.ArgP;
 
 /**
@@ -31,8 +46,12 @@ public class Launcher
     public static void main(String[] args)
     {
         final ArgP argParser = new ArgP();
-        argParser.addOption("--lum", "File containing the luminescence data.");
-        argParser.addOption("--QDs", "File containing the quantum dots size and position.");
+        RunConfiguration.declareOptions(argParser);
+        argParser.addOption("--sweep", "FILE", "Run the parameter sweep described in FILE, without visualisation.");
+        argParser.addOption("--distributed", "N", "Run without visualisation, the electrons being split between N worker processes started on this machine.");
+        argParser.addOption("--workers", "HOST:PORT,...", "Run without visualisation, the electrons being split between the workers listening at the given addresses.");
+        argParser.addOption("--worker", "Act as a worker of a distributed run, reading its orders on the standard input (or on a socket with --listen).");
+        argParser.addOption("--listen", "PORT", "Port a worker listens to.");
         argParser.addOption("--help", "The command you just used.");
         
         //parsing the args to get the options passed to the program
@@ -52,19 +71,101 @@ public class Launcher
             //just print help message, not continuing execution
             System.out.println(argParser.usage());
         }
-        else
+        else if (argParser.has("--sweep"))
+        {
+            try
+            {
+                (new BatchRunner(new File(argParser.get("--sweep")))).run();
+            }
+            catch (IOException|IllegalArgumentException e)
+            {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        else if (argParser.has("--worker"))
         {
-            String[] arguments = new String[2];
+            //the number of threads of the worker is the one given here if any, otherwise the one of the run
+            int threads = argParser.has("--threads") ? Integer.parseInt(argParser.get("--threads")) : 0;
             
-            arguments[0] = argParser.get("--lum", "");
-            arguments[1] = argParser.get("--QDs", "");
+            try
+            {
+                if (argParser.has("--listen"))
+                {
+                    DistributedWorker.listen(Integer.parseInt(argParser.get("--listen")), threads);
+                }
+                else
+                {
+                    //the standard output is reserved for the results sent to the coordinator
+                    FileOutputStream coordinatorOutput = new FileOutputStream(FileDescriptor.out);
+                    System.setOut(System.err);
+                    (new DistributedWorker(new FileInputStream(FileDescriptor.in), coordinatorOutput, threads)).run();
+                }
+            }
+            catch (IOException|IllegalArgumentException e)
+            {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        else if (argParser.has("--distributed") || argParser.has("--workers"))
+        {
+            try
+            {
+                RunConfiguration configuration = RunConfiguration.load(argParser);
+                DistributedCoordinator coordinator;
+                
+                if (argParser.has("--workers"))
+                {
+                    List<InetSocketAddress> addresses = new ArrayList<>();
+                    for (String address: argParser.get("--workers").split(","))
+                    {
+                        int portSeparator = address.lastIndexOf(':');
+                        addresses.add(InetSocketAddress.createUnresolved(address.substring(0, portSeparator).strip(), Integer.parseInt(address.substring(portSeparator + 1).strip())));
+                    }
+                    
+                    coordinator = DistributedCoordinator.connect(configuration, addresses);
+                }
+                else
+                {
+                    //the workers are this program, started with the same JVM and class path, sharing the threads of the run
+                    int nWorkers = Integer.parseInt(argParser.get("--distributed"));
+                    if (nWorkers <= 0)
+                    {
+                        throw new IllegalArgumentException("Invalid number of workers: " + nWorkers);
+                    }
+                    
+                    List<String> workerCommand = Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), Launcher.class.getName(), "--worker", "--threads", Integer.toString(Integer.max(1, configuration.getThreads() / nWorkers)));
+                    
+                    coordinator = DistributedCoordinator.spawnLocal(configuration, nWorkers, workerCommand);
+                }
+                
+                coordinator.run();
+            }
+            catch (DataFormatException|IOException|IllegalArgumentException e)
+            {
+                System.err.println(e.getMessage());
+                System.err.print(argParser.usage());
+                System.exit(1);
+            }
+        }
+        else
+        {
+            RunConfiguration configuration = null;
             
-            arguments[0] = "/home/audreyazura/Documents/Work/Simulation/AFMLuminescence/PL/Luminescence.scsv";
-            arguments[1] = "/home/audreyazura/Documents/Work/Simulation/AFMLuminescence/QDList.csv";
-//            arguments[1] = "/home/alafuente/ドキュメント/OkadaCollab/iii201028a_clean.csv";
+            try
+            {
+                configuration = RunConfiguration.load(argParser);
+            }
+            catch (IOException|IllegalArgumentException e)
+            {
+                System.err.println(e.getMessage());
+                System.err.print(argParser.usage());
+                System.exit(1);
+            }
             
             GUIManager absorberRepresentation = new GUIManager();
-            absorberRepresentation.startVisualizer(arguments);
+            absorberRepresentation.startVisualizer(configuration, args);
         }
     }
     
@@ -30,7 +30,7 @@ public class AbsorberObject
     
     public BigDecimal getDistance (BigDecimal p_positionX, BigDecimal p_positionY)
     {
-        BigDecimal squaredDistance = ((m_positionX.subtract(p_positionX)).pow(2)).add(((m_positionY.subtract(p_positionY)).pow(2)));
+        BigDecimal squaredDistance = ((getX().subtract(p_positionX)).pow(2)).add(((getY().subtract(p_positionY)).pow(2)));
         BigDecimal distance;
         
         if (squaredDistance.compareTo(BigDecimal.ZERO) == 0)
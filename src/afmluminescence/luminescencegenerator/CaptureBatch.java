@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.PhysicsTools;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Capture of a block of free electrons, evaluated for all of them at once in double precision instead of one electron at a time in BigDecimal
+ * The free electrons are added by Electron.move, then resolve() does, for the whole block:
+ *  - the gathering of the (electron, QD) pairs: the QDs in range and able to capture found in the index columns the electron can reach, in the order of the columns. The distance is checked first, so that the lazy QDs out of reach are never calculated
+ *  - the reaching probabilities of every pair, in a loop over primitive arrays (same geometry as QuantumDot.capture)
+ *  - the captures: for each electron, one draw per QD in range, in order, until one captures it
+ *  - the flight of the electrons left free, one by one or through a FlightBatch
+ * @author Alban Lafuente
+ */
+class CaptureBatch
+{
+    private final QDIndex m_QDIndex;
+    private final QDStore m_QDStore;
+    private final BigDecimal m_timeStep;
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final double m_columnsPerMeter = Math.pow(10, PhysicsTools.UnitsPrefix.NANO.getScale());
+    
+    //the electrons, and the index of their first pair (their pairs going up to the first pair of the next electron)
+    private Electron[] m_electrons = new Electron[256];
+    private double[] m_x = new double[256];
+    private double[] m_y = new double[256];
+    private double[] m_span = new double[256];
+    private int[] m_firstPair = new int[257];
+    private int m_size = 0;
+    
+    //the (electron, QD) pairs
+    private int[] m_pairIds = new int[256];
+    private double[] m_pairRadius = new double[256];
+    private double[] m_pairDistance = new double[256];
+    private double[] m_pairProbability = new double[256];
+    private int m_nPairs = 0;
+    
+    private int m_lastAttempts = 0;
+    private int m_lastCaptures = 0;
+    
+    CaptureBatch (QDIndex p_index, BigDecimal p_timeStep, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize)
+    {
+        m_QDIndex = p_index;
+        m_QDStore = p_index.getStore();
+        m_timeStep = p_timeStep;
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+    }
+    
+    void add(Electron p_electron)
+    {
+        if (m_size == m_electrons.length)
+        {
+            int capacity = 2 * m_size;
+            
+            m_electrons = Arrays.copyOf(m_electrons, capacity);
+            m_x = Arrays.copyOf(m_x, capacity);
+            m_y = Arrays.copyOf(m_y, capacity);
+            m_span = Arrays.copyOf(m_span, capacity);
+            m_firstPair = Arrays.copyOf(m_firstPair, capacity + 1);
+        }
+        
+        double timeStep = m_timeStep.doubleValue();
+        m_electrons[m_size] = p_electron;
+        m_x[m_size] = p_electron.getX().doubleValue();
+        m_y[m_size] = p_electron.getY().doubleValue();
+        m_span[m_size] = Math.hypot(p_electron.getSpeedX().doubleValue() * timeStep, p_electron.getSpeedY().doubleValue() * timeStep);
+        m_size += 1;
+    }
+    
+    /**
+     * @return the number of capture attempts of the last resolve()
+     */
+    int getLastAttempts()
+    {
+        return m_lastAttempts;
+    }
+    
+    /**
+     * @return the number of electrons captured by the last resolve()
+     */
+    int getLastCaptures()
+    {
+        return m_lastCaptures;
+    }
+    
+    /**
+     * Capture or fly every electron added since the last call, and empty the batch
+     * @param p_RNG the random generator of the block
+     * @param p_flights the batch the electrons left free are added to, or null to fly them one by one
+     */
+    void resolve(PcgRSFast p_RNG, FlightBatch p_flights)
+    {
+        gatherPairs();
+        
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            for (int pair = m_firstPair[i] ; pair < m_firstPair[i + 1] ; pair += 1)
+            {
+                m_pairProbability[pair] = reachingProbability(m_pairDistance[pair], m_span[i], m_pairRadius[pair]) * m_QDStore.getCaptureProbability(m_pairIds[pair]);
+            }
+        }
+        
+        m_lastAttempts = 0;
+        m_lastCaptures = 0;
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            Electron electron = m_electrons[i];
+            
+            for (int pair = m_firstPair[i] ; pair < m_firstPair[i + 1] && electron.isFree() ; pair += 1)
+            {
+                m_lastAttempts += 1;
+                if (p_RNG.nextDouble() < m_pairProbability[pair])
+                {
+                    electron.trap(m_QDIndex.get(m_pairIds[pair]));
+                    m_lastCaptures += 1;
+                }
+            }
+            
+            if (electron.isFree())
+            {
+                if (p_flights != null)
+                {
+                    p_flights.add(electron);
+                }
+                else
+                {
+                    electron.fly(m_timeStep, m_sampleXSize, m_sampleYSize);
+                }
+            }
+            
+            m_electrons[i] = null;
+        }
+        
+        m_nPairs = 0;
+        m_size = 0;
+    }
+    
+    /**
+     * For each electron, the QDs in range and able to capture it in the index columns between x - span and x + span, each QD once, as scanned by Electron.move
+     */
+    private void gatherPairs()
+    {
+        m_nPairs = 0;
+        
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            m_firstPair[i] = m_nPairs;
+            double scanStart = (m_x[i] - m_span[i]) * m_columnsPerMeter;
+            double scanEnd = (m_x[i] + m_span[i]) * m_columnsPerMeter;
+            long firstScannedColumn = (long) scanStart;
+            long previousColumn = firstScannedColumn - 1;
+            
+            for (double column = scanStart ; column <= scanEnd ; column += 1)
+            {
+                long columnIndex = (long) column;
+                if (columnIndex != previousColumn)
+                {
+                    for (int entry = m_QDIndex.columnStart(columnIndex) ; entry < m_QDIndex.columnEnd(columnIndex) ; entry += 1)
+                    {
+                        int id = m_QDIndex.entry(entry);
+                        //a QD spans several consecutive columns: it is only paired in the first of them that is scanned
+                        if (columnIndex == firstScannedColumn || columnIndex == m_QDIndex.firstColumn(id))
+                        {
+                            double dx = m_x[i] - m_QDStore.getX(id);
+                            double dy = m_y[i] - m_QDStore.getY(id);
+                            double distance = Math.sqrt(dx * dx + dy * dy) - m_QDStore.getRadius(id);
+                            
+                            if (distance <= m_span[i] && m_QDStore.getCaptureProbability(id) != 0)
+                            {
+                                addPair(id, distance);
+                            }
+                        }
+                    }
+                    previousColumn = columnIndex;
+                }
+            }
+        }
+        m_firstPair[m_size] = m_nPairs;
+    }
+    
+    private void addPair(int p_id, double p_distance)
+    {
+        if (m_nPairs == m_pairIds.length)
+        {
+            int capacity = 2 * m_nPairs;
+            
+            m_pairIds = Arrays.copyOf(m_pairIds, capacity);
+            m_pairRadius = Arrays.copyOf(m_pairRadius, capacity);
+            m_pairDistance = Arrays.copyOf(m_pairDistance, capacity);
+            m_pairProbability = Arrays.copyOf(m_pairProbability, capacity);
+        }
+        
+        m_pairIds[m_nPairs] = p_id;
+        m_pairRadius[m_nPairs] = m_QDStore.getRadius(p_id);
+        m_pairDistance[m_nPairs] = p_distance;
+        m_nPairs += 1;
+    }
+    
+    /**
+     * The probability for the electron to reach the QD, as the overlap of the QD and of the circle of the positions the electron can reach: see QuantumDot.capture for the four cases
+     * @param p_distance the distance between the electron and the QD edge, as passed to QuantumDot.capture
+     * @param p_span the radius of the circle the electron can reach
+     * @param p_radius the QD radius
+     * @return the probability, 0 for the degenerate cases (still electron) where the overlap is not defined
+     */
+    static double reachingProbability(double p_distance, double p_span, double p_radius)
+    {
+        double probability;
+        
+        if (p_distance + p_span <= p_radius)
+        {
+            probability = 1;
+        }
+        else if (p_distance + p_radius <= p_span)
+        {
+            probability = (p_radius * p_radius) / (p_span * p_span);
+        }
+        else
+        {
+            double span2 = p_span * p_span;
+            double radius2 = p_radius * p_radius;
+            double distance2 = p_distance * p_distance;
+            double overlapArea;
+            
+            if (p_distance >= Math.sqrt(Math.abs(radius2 - span2)))
+            {
+                double triangleBase = (span2 + distance2 - radius2) / (2 * p_distance);
+                overlapArea = span2 * Math.acos(triangleBase / p_span) + radius2 * Math.acos((p_distance - triangleBase) / p_radius) - p_distance * Math.sqrt(span2 - triangleBase * triangleBase);
+            }
+            else
+            {
+                double triangleBase = (span2 - distance2 - radius2) / (2 * p_distance);
+                overlapArea = span2 * Math.acos((triangleBase + p_distance) / p_span) + radius2 * (Math.PI - Math.acos(triangleBase / p_radius)) - p_distance * Math.sqrt(radius2 - triangleBase * triangleBase);
+            }
+            
+            probability = overlapArea / (Math.PI * span2);
+        }
+        
+        //NaN (division by a null span or distance) compares false and gives 0
+        return probability >= 0 ? Math.min(1, probability) : 0;
+    }
+}
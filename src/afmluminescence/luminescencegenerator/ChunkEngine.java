@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The electrons are dealt once, round-robin, into one ElectronMover per thread. At each step, every mover is run in its own thread and the step ends when the slowest is done.
+ * @author Alban Lafuente
+ */
+class ChunkEngine implements StepEngine
+{
+    private final ElectronMover[] m_movers;
+    //the mover receiving the next injected electron
+    private int m_nextMover = 0;
+    
+    ChunkEngine (List<Electron> p_electronList, int p_nThreads, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, BigDecimal p_timeStep, BigDecimal p_vth, QDIndex p_index, long p_seed, int p_sortPeriod, boolean p_primitiveFlight, boolean p_batchedCapture, FlightGrid p_grid)
+    {
+        //cutting calculation into chunks to distribute it between cores, an engine started without electron getting all of them by injection
+        int numberOfChunks = p_electronList.isEmpty() ? p_nThreads : Integer.min(p_nThreads, p_electronList.size());
+        ArrayList<Electron>[] electronChunks = new ArrayList[numberOfChunks];
+        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        {
+            electronChunks[i] = new ArrayList<>();
+        }
+        
+        for (int i = 0 ; i < p_electronList.size() ; i += 1)
+        {
+            electronChunks[i % numberOfChunks].add(p_electronList.get(i));
+        }
+        
+        m_movers = new ElectronMover[numberOfChunks];
+        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        {
+            m_movers[i] = new ElectronMover(p_sampleXSize, p_sampleYSize, p_timeStep, p_vth, electronChunks[i], p_index, new PcgRSFast(p_seed, GeneratorManager.MOVER_FIRST_STREAM + i), i);
+            m_movers[i].setSortPeriod(p_sortPeriod);
+            m_movers[i].setPrimitiveFlight(p_primitiveFlight);
+            m_movers[i].setBatchedCapture(p_batchedCapture);
+            m_movers[i].setFlightGrid(p_grid);
+        }
+    }
+    
+    @Override
+    public List<Electron> step(SimulationMetrics p_metrics) throws InterruptedException
+    {
+        Thread[] workerArray = new Thread[m_movers.length];
+        List<Electron> recombined = new ArrayList<>();
+        
+        //movers whose electrons all recombined have nothing left to move and get no thread
+        long stepStart = System.nanoTime();
+        for (int i = 0 ; i < m_movers.length ; i += 1)
+        {
+            if (!m_movers[i].allRecombined())
+            {
+                workerArray[i] = new Thread(m_movers[i]);
+                workerArray[i].start();
+            }
+        }
+        for (int i = 0 ; i < m_movers.length ; i += 1)
+        {
+            if (workerArray[i] != null)
+            {
+                //waiting for the worker to finish
+                workerArray[i].join();
+                recombined.addAll(m_movers[i].getNewlyRecombined());
+            }
+        }
+        long stepNanos = System.nanoTime() - stepStart;
+        
+        int free = 0;
+        int captured = 0;
+        long recombinedTotal = 0;
+        long captureAttempts = 0;
+        long captureSuccesses = 0;
+        long barrierWait = 0;
+        long[] workerStepNanos = new long[m_movers.length];
+        for (int i = 0 ; i < m_movers.length ; i += 1)
+        {
+            free += m_movers[i].getFreeCount();
+            captured += m_movers[i].getCapturedCount();
+            recombinedTotal += m_movers[i].getRecombinedCount();
+            captureAttempts += m_movers[i].getCaptureAttempts();
+            captureSuccesses += m_movers[i].getCaptureSuccesses();
+            workerStepNanos[i] = workerArray[i] != null ? m_movers[i].getLastRunNanos() : 0;
+            barrierWait += Long.max(0, stepNanos - workerStepNanos[i]);
+        }
+        p_metrics.recordStep(free, captured, recombinedTotal, captureAttempts, captureSuccesses, workerStepNanos, barrierWait);
+        
+        return recombined;
+    }
+    
+    /**
+     * The electrons are dealt round-robin, continuing where the last injection stopped
+     */
+    @Override
+    public void inject(List<Electron> p_electrons)
+    {
+        for (Electron electron: p_electrons)
+        {
+            m_movers[m_nextMover].inject(electron);
+            m_nextMover = (m_nextMover + 1) % m_movers.length;
+        }
+    }
+    
+    @Override
+    public int getActiveCount()
+    {
+        int active = 0;
+        
+        for (ElectronMover mover: m_movers)
+        {
+            active += mover.getFreeCount() + mover.getCapturedCount();
+        }
+        
+        return active;
+    }
+    
+    @Override
+    public int getThreadCount()
+    {
+        return m_movers.length;
+    }
+    
+    @Override
+    public void close()
+    {
+    }
+}
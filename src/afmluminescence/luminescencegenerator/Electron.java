@@ -20,10 +20,6 @@ import com.github.audreyazura.commonutils.PhysicsTools;
 import com.github.kilianB.pcg.fast.PcgRSFast;
 import com.sun.jdi.AbsentInformationException;
 import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
 import org.nevec.rjm.BigDecimalMath;
 
 /**
@@ -32,6 +28,9 @@ import org.nevec.rjm.BigDecimalMath;
  */
 public class Electron extends AbsorberObject
 {
+    //in meters, far above the rounding of the distances in double precision: the QDs farther than the reach of the electron plus this margin cannot be in range in BigDecimal
+    private static final double REACH_MARGIN = 1e-12;
+    
     private final int m_id;
     
     private BigDecimal m_speedX;
@@ -40,6 +39,10 @@ public class Electron extends AbsorberObject
     private ElectronState m_state = ElectronState.FREE;
     private QuantumDot m_trapingDot = null;
     
+    //steps still to skip without looking for QDs, and the length of the current skip (see FlightGrid)
+    private int m_stepsToSkip = 0;
+    private int m_skipLength = 0;
+    
     public Electron (int p_id, BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_speedX, BigDecimal p_speedY)
     {
         m_id = p_id;
@@ -49,6 +52,21 @@ public class Electron extends AbsorberObject
         m_speedY = p_speedY;
     }
     
+    /**
+     * Make a recombined electron a new free electron, so that its slot is used again by the next pulse of a pulsed simulation
+     */
+    void reset(BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_speedX, BigDecimal p_speedY)
+    {
+        m_positionX = p_positionX;
+        m_positionY = p_positionY;
+        m_speedX = p_speedX;
+        m_speedY = p_speedY;
+        m_state = ElectronState.FREE;
+        m_trapingDot = null;
+        m_stepsToSkip = 0;
+        m_skipLength = 0;
+    }
+    
     public BigDecimal getRecombinationEnergy() throws AbsentInformationException
     {
         if (m_trapingDot != null)
@@ -67,6 +85,45 @@ public class Electron extends AbsorberObject
         return getClass().equals(obj.getClass()) && hashCode() == obj.hashCode();
     }
     
+    BigDecimal getSpeedX()
+    {
+        return m_speedX;
+    }
+    
+    BigDecimal getSpeedY()
+    {
+        return m_speedY;
+    }
+    
+    void setPosition(BigDecimal p_positionX, BigDecimal p_positionY)
+    {
+        m_positionX = p_positionX;
+        m_positionY = p_positionY;
+    }
+    
+    /**
+     * Let the free electron fly the next p_steps steps without looking for QDs, its position being updated once, at the end of the last of them
+     * @param p_steps the number of steps during which the electron cannot be captured (see FlightGrid.safeSteps)
+     */
+    void skipSteps(int p_steps)
+    {
+        m_stepsToSkip = p_steps;
+        m_skipLength = p_steps;
+    }
+    
+    boolean isSkippingSteps()
+    {
+        return m_stepsToSkip > 0;
+    }
+    
+    /**
+     * @return the QD the electron is trapped in, null if it is free
+     */
+    QuantumDot getTrappingDot()
+    {
+        return m_trapingDot;
+    }
+    
     public boolean isFree()
     {
         return m_state == ElectronState.FREE;
@@ -83,15 +140,43 @@ public class Electron extends AbsorberObject
         return m_id;
     }
     
-    public void move(BigDecimal p_timeStep, BigDecimal p_maxX, BigDecimal p_maxY, BigDecimal p_vth, HashMap<BigInteger, Set<QuantumDot>> p_map, PcgRSFast p_RNG)
+    /**
+     * @return the number of capture attempts (QDs in range the electron tried to be captured by) during this move
+     */
+    public int move(BigDecimal p_timeStep, BigDecimal p_maxX, BigDecimal p_maxY, BigDecimal p_vth, QDIndex p_index, PcgRSFast p_RNG)
     {
+        return move(p_timeStep, p_maxX, p_maxY, p_vth, p_index, p_RNG, null, null);
+    }
+    
+    /**
+     * @param p_flights if not null, a free electron that has not been captured is added to it instead of flying: its position is updated by the next p_flights.fly()
+     * @param p_captures if not null, a free electron is added to it without looking for QDs nor flying: its capture and flight are done by the next p_captures.resolve()
+     * @return the number of capture attempts (QDs in range the electron tried to be captured by) during this move, 0 for an electron added to p_captures
+     */
+    int move(BigDecimal p_timeStep, BigDecimal p_maxX, BigDecimal p_maxY, BigDecimal p_vth, QDIndex p_index, PcgRSFast p_RNG, FlightBatch p_flights, CaptureBatch p_captures)
+    {
+        int captureAttempts = 0;
+        
         /**
          * moving the electron if it hasn't been captured or hasn't recombined
          * if it has been captured, it can either recombine or escape
         **/
         if (!(m_state == ElectronState.RECOMBINED))
         {
-            if (m_state == ElectronState.FREE)
+            if (m_state == ElectronState.FREE && m_stepsToSkip > 0)
+            {
+                m_stepsToSkip -= 1;
+                if (m_stepsToSkip == 0)
+                {
+                    //the whole skip in one flight, shorter than the sample so that one wrap is enough
+                    fly(p_timeStep.multiply(new BigDecimal(m_skipLength)), p_maxX, p_maxY);
+                }
+            }
+            else if (m_state == ElectronState.FREE && p_captures != null)
+            {
+                p_captures.add(this);
+            }
+            else if (m_state == ElectronState.FREE)
             {
                 BigDecimal deltaX = m_speedX.multiply(p_timeStep);
                 BigDecimal deltaY = m_speedY.multiply(p_timeStep);
@@ -101,57 +186,49 @@ public class Electron extends AbsorberObject
                 //finding QD in range in x
                 BigDecimal scanStart = (m_positionX.subtract(electronVision)).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
                 BigDecimal scanEnd = (m_positionX.add(electronVision)).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
-                Set<QuantumDot> atRangeDots = new HashSet<>();
-                for (BigDecimal iter = scanStart ; iter.compareTo(scanEnd) <= 0 ; iter = iter.add(BigDecimal.ONE))
+                //a QD spans several consecutive columns: it is only tried in the first of them that is scanned, so once and in the order of the columns
+                //the distance is checked before the QD is asked whether it can capture, so that the lazy QDs out of reach are never calculated
+                QDStore store = p_index.getStore();
+                double x = m_positionX.doubleValue();
+                double y = m_positionY.doubleValue();
+                double reach = electronVision.doubleValue() + REACH_MARGIN;
+                long firstScannedColumn = scanStart.longValue();
+                long previousColumn = firstScannedColumn - 1;
+                for (BigDecimal iter = scanStart ; iter.compareTo(scanEnd) <= 0 && m_state == ElectronState.FREE ; iter = iter.add(BigDecimal.ONE))
                 {
-                    Set<QuantumDot> currentSet = p_map.get(iter.toBigInteger());
-                    if (currentSet != null)
+                    long column = iter.longValue();
+                    //around 0, two abscissas fall in the same column, which is only scanned once
+                    if (column != previousColumn)
                     {
-                        for (QuantumDot QD: currentSet)
+                        for (int entry = p_index.columnStart(column) ; entry < p_index.columnEnd(column) && m_state == ElectronState.FREE ; entry += 1)
                         {
-                            if (QD.canCapture())
+                            int id = p_index.entry(entry);
+                            if ((column == firstScannedColumn || column == p_index.firstColumn(id)) && Math.hypot(x - store.getX(id), y - store.getY(id)) - store.getRadius(id) <= reach)
                             {
-                                atRangeDots.add(QD);
+                                QuantumDot QD = p_index.get(id);
+                                BigDecimal distance = getDistance(QD.getX(), QD.getY()).subtract(QD.getRadius());
+                                if (distance.compareTo(electronVision) <= 0 && QD.canCapture())
+                                {
+                                    captureAttempts += 1;
+                                    if (QD.capture(p_RNG, distance, electronVision))
+                                    {
+                                        m_state = ElectronState.CAPTURED;
+                                        m_trapingDot = QD;
+                                    }
+                                }
                             }
                         }
+                        previousColumn = column;
                     }
                 }
                 
-                for (QuantumDot QD: atRangeDots)
+                if (m_state == ElectronState.FREE && p_flights != null)
                 {
-                    BigDecimal distance = getDistance(QD.getX(), QD.getY()).subtract(QD.getRadius());
-                    if (distance.compareTo(electronVision) <= 0)
-                    {
-                        if (QD.capture(p_RNG, distance, electronVision))
-                        {
-                            m_state = ElectronState.CAPTURED;
-                            m_trapingDot = QD;
-                            break;
-                        }
-                    }
+                    p_flights.add(this);
                 }
-                
-                if (m_state == ElectronState.FREE)
+                else if (m_state == ElectronState.FREE)
                 {
-                    m_positionX = m_positionX.add(deltaX);
-                    if (m_positionX.compareTo(BigDecimal.ZERO) < 0)
-                    {
-                        m_positionX = p_maxX.add(m_positionX);
-                    }
-                    else if (m_positionX.compareTo(p_maxX) > 0)
-                    {
-                        m_positionX = m_positionX.subtract(p_maxX);
-                    }
-
-                    m_positionY = m_positionY.add(deltaY);
-                    if (m_positionY.compareTo(BigDecimal.ZERO) < 0)
-                    {
-                        m_positionY = p_maxX.add(m_positionY);
-                    }
-                    else if (m_positionY.compareTo(p_maxX) > 0)
-                    {
-                        m_positionY = m_positionY.subtract(p_maxX);
-                    }
+                    fly(p_timeStep, p_maxX, p_maxY);
                 }
             }
             else
@@ -174,6 +251,43 @@ public class Electron extends AbsorberObject
                 }
             }
         }
+        
+        return captureAttempts;
+    }
+    
+    /**
+     * Move the electron in straight line for a given time, wrapping it back into the sample if it leaves it
+     */
+    void fly(BigDecimal p_time, BigDecimal p_maxX, BigDecimal p_maxY)
+    {
+        m_positionX = m_positionX.add(m_speedX.multiply(p_time));
+        if (m_positionX.compareTo(BigDecimal.ZERO) < 0)
+        {
+            m_positionX = p_maxX.add(m_positionX);
+        }
+        else if (m_positionX.compareTo(p_maxX) > 0)
+        {
+            m_positionX = m_positionX.subtract(p_maxX);
+        }
+        
+        m_positionY = m_positionY.add(m_speedY.multiply(p_time));
+        if (m_positionY.compareTo(BigDecimal.ZERO) < 0)
+        {
+            m_positionY = p_maxY.add(m_positionY);
+        }
+        else if (m_positionY.compareTo(p_maxY) > 0)
+        {
+            m_positionY = m_positionY.subtract(p_maxY);
+        }
+    }
+    
+    /**
+     * Trap the free electron in p_QD, its capture having been decided outside of move (see CaptureBatch)
+     */
+    void trap(QuantumDot p_QD)
+    {
+        m_state = ElectronState.CAPTURED;
+        m_trapingDot = p_QD;
     }
     
     @Override
@@ -18,11 +18,8 @@ package afmluminescence.luminescencegenerator;
 
 import com.github.kilianB.pcg.fast.PcgRSFast;
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 
 /**
  *
@@ -34,31 +31,133 @@ public class ElectronMover implements Runnable
     private final BigDecimal m_sampleYSize;
     private final BigDecimal m_timeStep;
     private final BigDecimal m_vth;
-    private final HashMap<BigInteger, Set<QuantumDot>> m_QDMap;
+    private final QDIndex m_QDIndex;
     private final List<Electron> m_electronList;
+    //the electrons not recombined yet, in the order they are moved. Recombined electrons are removed for good at the end of the run they recombined in.
+    private final ArrayList<Electron> m_activeElectrons;
     private final PcgRSFast m_randomGenerator;
+    private final int m_chunkIndex;
+    private long m_runs = 0;
+    private int m_sortPeriod = 0;
+    private FlightBatch m_flights = null;
+    private CaptureBatch m_captures = null;
+    private FlightGrid m_grid = null;
     
-    public ElectronMover (BigDecimal p_sampleXMax, BigDecimal p_sampleYMax, BigDecimal p_timeStep, BigDecimal p_vth, List<Electron> p_electronToTreat, HashMap<BigInteger, Set<QuantumDot>> p_map)
+    //counters read by GeneratorManager between two steps: totals for the captures, values of the last run for the others
+    private long m_captureAttempts = 0;
+    private long m_captureSuccesses = 0;
+    private long m_lastRunNanos = 0;
+    private int m_freeCount = 0;
+    private int m_capturedCount = 0;
+    private long m_recombinedCount = 0;
+    private List<Electron> m_newlyRecombined = new ArrayList<>();
+    
+    public ElectronMover (BigDecimal p_sampleXMax, BigDecimal p_sampleYMax, BigDecimal p_timeStep, BigDecimal p_vth, List<Electron> p_electronToTreat, QDIndex p_index, PcgRSFast p_RNG, int p_chunkIndex)
     {
         m_sampleXSize = p_sampleXMax;
         m_sampleYSize = p_sampleYMax;
         m_timeStep = p_timeStep;
         m_vth = p_vth;
-        m_electronList = new ArrayList(p_electronToTreat);
-        m_QDMap = new HashMap(p_map);
-        m_randomGenerator = new PcgRSFast();
+        //the chunk and the index are shared, not copied: the mover never modifies them
+        m_electronList = p_electronToTreat;
+        m_QDIndex = p_index;
+        m_randomGenerator = p_RNG;
+        m_chunkIndex = p_chunkIndex;
+        m_activeElectrons = new ArrayList<>(m_electronList);
+        m_activeElectrons.removeIf(Electron::isRecombined);
+        m_freeCount = m_activeElectrons.size();
+        m_recombinedCount = m_electronList.size() - m_activeElectrons.size();
+    }
+    
+    /**
+     * @param p_primitive true to fly the free electrons together in double precision at the end of each run (see FlightBatch), false to fly them one by one in BigDecimal (default)
+     */
+    public void setPrimitiveFlight(boolean p_primitive)
+    {
+        m_flights = p_primitive ? new FlightBatch() : null;
+    }
+    
+    /**
+     * @param p_batched true to evaluate the captures of the free electrons together in double precision at the end of each run (see CaptureBatch), false to evaluate them one by one in BigDecimal (default)
+     */
+    public void setBatchedCapture(boolean p_batched)
+    {
+        m_captures = p_batched ? new CaptureBatch(m_QDIndex, m_timeStep, m_sampleXSize, m_sampleYSize) : null;
+    }
+    
+    /**
+     * @param p_grid the grid letting the free electrons skip the steps where they cannot be captured, null to look for QDs at each step (default)
+     */
+    public void setFlightGrid(FlightGrid p_grid)
+    {
+        m_grid = p_grid;
+    }
+    
+    /**
+     * Add a free electron to the ones moved, from the next run on. It is not added to the electron list given at construction.
+     */
+    void inject(Electron p_electron)
+    {
+        m_activeElectrons.add(p_electron);
+        m_freeCount += 1;
     }
     
     public boolean allRecombined()
     {
-        boolean finished = true;
-        
-        for (Electron currentElectron: m_electronList)
+        return m_activeElectrons.isEmpty();
+    }
+    
+    /**
+     * Reorder the active electrons along a Morton curve of their positions every p_runs runs, so that electrons moved one after the other look up the same part of the QD index
+     * Sorting changes the order in which the electrons draw their random numbers, hence the result of a given seed
+     * @param p_runs the number of runs between two sortings, 0 to never sort (default)
+     */
+    public void setSortPeriod(int p_runs)
+    {
+        if (p_runs < 0)
         {
-            finished &= currentElectron.isRecombined();
+            throw new IllegalArgumentException("The sorting period cannot be negative.");
         }
         
-        return finished;
+        m_sortPeriod = p_runs;
+    }
+    
+    public long getCaptureAttempts()
+    {
+        return m_captureAttempts;
+    }
+    
+    public long getCaptureSuccesses()
+    {
+        return m_captureSuccesses;
+    }
+    
+    public int getCapturedCount()
+    {
+        return m_capturedCount;
+    }
+    
+    public int getFreeCount()
+    {
+        return m_freeCount;
+    }
+    
+    public long getLastRunNanos()
+    {
+        return m_lastRunNanos;
+    }
+    
+    /**
+     * @return the electrons that recombined during the last run
+     */
+    public List<Electron> getNewlyRecombined()
+    {
+        return m_newlyRecombined;
+    }
+    
+    public long getRecombinedCount()
+    {
+        return m_recombinedCount;
     }
     
     public ArrayList<Electron> getElectronList()
@@ -66,12 +165,94 @@ public class ElectronMover implements Runnable
         return new ArrayList(m_electronList);
     }
     
+    /**
+     * Let the free electrons that have just been moved skip the steps where they cannot be captured
+     */
+    static void skipEmptySteps(FlightGrid p_grid, List<Electron> p_electrons, int p_from, int p_to, BigDecimal p_timeStep)
+    {
+        double timeStep = p_timeStep.doubleValue();
+        
+        for (int i = p_from ; i < p_to ; i += 1)
+        {
+            Electron electron = p_electrons.get(i);
+            if (electron.isFree() && !electron.isSkippingSteps())
+            {
+                electron.skipSteps(p_grid.safeSteps(electron, timeStep));
+            }
+        }
+    }
+    
     @Override
     public void run()
     {
-        for (Electron curentElectron: m_electronList)
+        SimulationEvents.MoverStep stepEvent = new SimulationEvents.MoverStep();
+        stepEvent.begin();
+        long captureAttemptsBefore = m_captureAttempts;
+        long start = System.nanoTime();
+        int free = 0;
+        int kept = 0;
+        m_newlyRecombined = new ArrayList<>();
+        
+        if (m_sortPeriod > 0 && m_runs % m_sortPeriod == 0)
+        {
+            MortonOrder.sort(m_activeElectrons, m_sampleXSize, m_sampleYSize);
+        }
+        
+        //moving the active electrons and compacting the ones still active at the start of the list, in the same order
+        for (int i = 0 ; i < m_activeElectrons.size() ; i += 1)
+        {
+            Electron curentElectron = m_activeElectrons.get(i);
+            boolean wasFree = curentElectron.isFree();
+            
+            m_captureAttempts += curentElectron.move(m_timeStep, m_sampleXSize, m_sampleYSize, m_vth, m_QDIndex, m_randomGenerator, m_flights, m_captures);
+            
+            if (curentElectron.isRecombined())
+            {
+                m_newlyRecombined.add(curentElectron);
+            }
+            else
+            {
+                if (curentElectron.isFree())
+                {
+                    free += 1;
+                }
+                else if (wasFree)
+                {
+                    m_captureSuccesses += 1;
+                }
+                
+                m_activeElectrons.set(kept, curentElectron);
+                kept += 1;
+            }
+        }
+        m_activeElectrons.subList(kept, m_activeElectrons.size()).clear();
+        if (m_captures != null)
+        {
+            //the electrons of the batch were counted free
+            m_captures.resolve(m_randomGenerator, m_flights);
+            m_captureAttempts += m_captures.getLastAttempts();
+            m_captureSuccesses += m_captures.getLastCaptures();
+            free -= m_captures.getLastCaptures();
+        }
+        if (m_flights != null)
         {
-            curentElectron.move(m_timeStep, m_sampleXSize, m_sampleYSize, m_vth, m_QDMap, m_randomGenerator);
+            m_flights.fly(m_timeStep, m_sampleXSize, m_sampleYSize);
         }
+        if (m_grid != null)
+        {
+            skipEmptySteps(m_grid, m_activeElectrons, 0, m_activeElectrons.size(), m_timeStep);
+        }
+        
+        m_freeCount = free;
+        m_capturedCount = kept - free;
+        m_recombinedCount += m_newlyRecombined.size();
+        m_lastRunNanos = System.nanoTime() - start;
+        
+        stepEvent.chunkIndex = m_chunkIndex;
+        stepEvent.step = m_runs;
+        stepEvent.electrons = kept;
+        stepEvent.captureAttempts = m_captureAttempts - captureAttemptsBefore;
+        stepEvent.commit();
+        m_runs += 1;
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Free flights of a block of electrons, done in double precision over primitive arrays instead of one electron at a time in BigDecimal
+ * The electrons are added by Electron.move once they are known to fly during the step (free, and not captured), then flown together by fly().
+ * The flight loop only does arithmetic and selects on plain arrays, which the JIT compiles to SIMD instructions of the width of the CPU (SSE, AVX, AVX-512), and to a scalar loop when it cannot vectorise it.
+ * The positions written back are the shortest decimals of the doubles, so the BigDecimal arithmetic of the capture checks also stays short.
+ * @author Alban Lafuente
+ */
+class FlightBatch
+{
+    private Electron[] m_electrons = new Electron[256];
+    private double[] m_x = new double[256];
+    private double[] m_y = new double[256];
+    private double[] m_vx = new double[256];
+    private double[] m_vy = new double[256];
+    private int m_size = 0;
+    
+    void add(Electron p_electron)
+    {
+        if (m_size == m_electrons.length)
+        {
+            int capacity = 2 * m_size;
+            
+            m_electrons = Arrays.copyOf(m_electrons, capacity);
+            m_x = Arrays.copyOf(m_x, capacity);
+            m_y = Arrays.copyOf(m_y, capacity);
+            m_vx = Arrays.copyOf(m_vx, capacity);
+            m_vy = Arrays.copyOf(m_vy, capacity);
+        }
+        
+        m_electrons[m_size] = p_electron;
+        m_x[m_size] = p_electron.getX().doubleValue();
+        m_y[m_size] = p_electron.getY().doubleValue();
+        m_vx[m_size] = p_electron.getSpeedX().doubleValue();
+        m_vy[m_size] = p_electron.getSpeedY().doubleValue();
+        m_size += 1;
+    }
+    
+    int size()
+    {
+        return m_size;
+    }
+    
+    /**
+     * Fly every electron added since the last call, and empty the batch
+     */
+    void fly(BigDecimal p_timeStep, BigDecimal p_maxX, BigDecimal p_maxY)
+    {
+        fly(m_x, m_y, m_vx, m_vy, m_size, p_timeStep.doubleValue(), p_maxX.doubleValue(), p_maxY.doubleValue());
+        
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            m_electrons[i].setPosition(BigDecimal.valueOf(m_x[i]), BigDecimal.valueOf(m_y[i]));
+            m_electrons[i] = null;
+        }
+        m_size = 0;
+    }
+    
+    /**
+     * The flight kernel: position += speed * time step, wrapped back into the sample as in Electron.move
+     * @param p_n the number of electrons to fly, from the start of the arrays
+     */
+    static void fly(double[] p_x, double[] p_y, double[] p_vx, double[] p_vy, int p_n, double p_timeStep, double p_maxX, double p_maxY)
+    {
+        for (int i = 0 ; i < p_n ; i += 1)
+        {
+            double x = p_x[i] + p_vx[i] * p_timeStep;
+            double y = p_y[i] + p_vy[i] * p_timeStep;
+            
+            x += x < 0 ? p_maxX : 0;
+            x -= x > p_maxX ? p_maxX : 0;
+            y += y < 0 ? p_maxY : 0;
+            y -= y > p_maxY ? p_maxY : 0;
+            
+            p_x[i] = x;
+            p_y[i] = y;
+        }
+    }
+}
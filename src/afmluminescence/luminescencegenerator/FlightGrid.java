@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+/**
+ * Grid of the sample telling where a free electron may be captured, used to let free electrons fly through empty regions without looking for QDs at each step
+ * A cell is occupied if it intersects a QD able to capture (or a lazy QD not calculated yet, which may capture), widened by a margin: an electron whose reach (speed times time step) is below the margin cannot be captured from an empty cell.
+ * safeSteps() casts the ray of the electron through the cells (Amanatides-Woo traversal, wrapping around the sample edges as Electron.fly does) up to the first occupied cell, and gives the number of steps the electron can fly before reaching it.
+ * @author Alban Lafuente
+ */
+class FlightGrid
+{
+    //number of cells along the longest side of the sample, at most
+    private static final int MAX_CELLS = 4096;
+    
+    private final boolean[] m_occupied;
+    private final int m_nCellsX;
+    private final int m_nCellsY;
+    private final double m_cellWidth;
+    private final double m_cellHeight;
+    private final double m_margin;
+    private final double m_maxDistance;
+    
+    /**
+     * @param p_QDs the QDs of the sample
+     * @param p_sampleX the size of the sample in x, in meters
+     * @param p_sampleY the size of the sample in y, in meters
+     * @param p_margin the largest reach of the electrons allowed to skip steps, in meters
+     */
+    FlightGrid (QDStore p_QDs, double p_sampleX, double p_sampleY, double p_margin)
+    {
+        double largestRadius = 0;
+        for (int id = 0 ; id < p_QDs.size() ; id += 1)
+        {
+            largestRadius = Math.max(largestRadius, p_QDs.getRadius(id));
+        }
+        
+        //cells about the size of a QD and its margin: smaller ones would not get more steps skipped, only longer traversals
+        double cellSize = Math.max(largestRadius + p_margin, Math.max(p_sampleX, p_sampleY) / MAX_CELLS);
+        m_nCellsX = Math.max(1, (int) Math.ceil(p_sampleX / cellSize));
+        m_nCellsY = Math.max(1, (int) Math.ceil(p_sampleY / cellSize));
+        m_cellWidth = p_sampleX / m_nCellsX;
+        m_cellHeight = p_sampleY / m_nCellsY;
+        m_margin = p_margin;
+        //a jump never goes around the sample more than once
+        m_maxDistance = Math.min(p_sampleX, p_sampleY);
+        
+        m_occupied = new boolean[m_nCellsX * m_nCellsY];
+        for (int id = 0 ; id < p_QDs.size() ; id += 1)
+        {
+            if (p_QDs.mayCapture(id))
+            {
+                occupy(p_QDs.getX(id), p_QDs.getY(id), p_QDs.getRadius(id) + p_margin);
+            }
+        }
+    }
+    
+    //marks the cells intersecting the disk, the disk being wrapped around the sample edges
+    private void occupy(double p_x, double p_y, double p_radius)
+    {
+        int firstX = (int) Math.floor((p_x - p_radius) / m_cellWidth);
+        int lastX = (int) Math.floor((p_x + p_radius) / m_cellWidth);
+        int firstY = (int) Math.floor((p_y - p_radius) / m_cellHeight);
+        int lastY = (int) Math.floor((p_y + p_radius) / m_cellHeight);
+        
+        for (int cellX = firstX ; cellX <= lastX ; cellX += 1)
+        {
+            for (int cellY = firstY ; cellY <= lastY ; cellY += 1)
+            {
+                //distance between the disk center and the closest point of the cell
+                double dx = Math.max(0, Math.max(cellX * m_cellWidth - p_x, p_x - (cellX + 1) * m_cellWidth));
+                double dy = Math.max(0, Math.max(cellY * m_cellHeight - p_y, p_y - (cellY + 1) * m_cellHeight));
+                
+                if (dx * dx + dy * dy <= p_radius * p_radius)
+                {
+                    m_occupied[index(cellX, cellY)] = true;
+                }
+            }
+        }
+    }
+    
+    private int index(int p_cellX, int p_cellY)
+    {
+        return Math.floorMod(p_cellY, m_nCellsY) * m_nCellsX + Math.floorMod(p_cellX, m_nCellsX);
+    }
+    
+    /**
+     * @param p_electron a free electron
+     * @param p_timeStep the time step, in seconds
+     * @return the number of steps during which the electron cannot be captured, flying in straight line from its current position: 0 if it may be captured at the next step
+     */
+    int safeSteps(Electron p_electron, double p_timeStep)
+    {
+        double x = p_electron.getX().doubleValue();
+        double y = p_electron.getY().doubleValue();
+        double vx = p_electron.getSpeedX().doubleValue();
+        double vy = p_electron.getSpeedY().doubleValue();
+        double speed = Math.hypot(vx, vy);
+        double reach = speed * p_timeStep;
+        int cellX = (int) Math.floor(x / m_cellWidth);
+        int cellY = (int) Math.floor(y / m_cellHeight);
+        
+        if (reach == 0 || reach > m_margin || m_occupied[index(cellX, cellY)])
+        {
+            return 0;
+        }
+        
+        //distance along the ray to the next vertical and horizontal cell edges, and between two of them
+        double dirX = vx / speed;
+        double dirY = vy / speed;
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepY = dirY > 0 ? 1 : -1;
+        double nextX = dirX != 0 ? ((cellX + (stepX > 0 ? 1 : 0)) * m_cellWidth - x) / dirX : Double.POSITIVE_INFINITY;
+        double nextY = dirY != 0 ? ((cellY + (stepY > 0 ? 1 : 0)) * m_cellHeight - y) / dirY : Double.POSITIVE_INFINITY;
+        double deltaX = dirX != 0 ? m_cellWidth / Math.abs(dirX) : Double.POSITIVE_INFINITY;
+        double deltaY = dirY != 0 ? m_cellHeight / Math.abs(dirY) : Double.POSITIVE_INFINITY;
+        
+        double freeDistance = m_maxDistance;
+        boolean blocked = false;
+        while (!blocked && Math.min(nextX, nextY) < m_maxDistance)
+        {
+            double crossing;
+            if (nextX < nextY)
+            {
+                crossing = nextX;
+                cellX += stepX;
+                nextX += deltaX;
+            }
+            else
+            {
+                crossing = nextY;
+                cellY += stepY;
+                nextY += deltaY;
+            }
+            
+            if (m_occupied[index(cellX, cellY)])
+            {
+                freeDistance = crossing;
+                blocked = true;
+            }
+        }
+        
+        //the positions of the skipped steps and the one the electron lands on have to stay short of the free distance, rounding errors included
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(freeDistance / reach) - 1);
+    }
+}
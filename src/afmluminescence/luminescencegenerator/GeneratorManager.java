@@ -20,19 +20,26 @@ import com.github.audreyazura.commonutils.PhysicsTools;
 import com.github.kilianB.pcg.fast.PcgRSFast;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.math.MathContext;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  *
@@ -40,21 +47,56 @@ import java.util.zip.DataFormatException;
  */
 public class GeneratorManager implements Runnable
 {
+    //random generator streams: ELECTRON_STREAM for the electron generation, then one per mover starting at MOVER_FIRST_STREAM
+    static final long ELECTRON_STREAM = 2;
+    static final long MOVER_FIRST_STREAM = 3;
+    
+    //period of the progress line written in the log during the simulation
+    private static final long METRICS_LOG_PERIOD_SECONDS = 10;
+    private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+    //minimum number of time steps over which the generation and recombination of a continuous excitation are compared, and its spectrum error checked
+    private static final int STEADY_STATE_WINDOW = 1000;
+    //minimum number of electrons generated in a window before the steady state, for their Poisson noise to be a small fraction of them (5% at 400)
+    private static final int STEADY_STATE_MIN_GENERATED = 400;
+    
     private final BigDecimal m_sampleXSize;
     private final BigDecimal m_sampleYSize;
     private final BigDecimal m_timeStep;
     private final BigDecimal m_vth;
     private final ImageBuffer m_output;
     private final int m_nElectrons;
+    private final int m_nThreads;
+    private final SimulationEngine m_engine;
+    private int m_sortPeriod = 0;
+    private boolean m_primitiveFlight = false;
+    private boolean m_batchedCapture = false;
+    private boolean m_rayCasting = false;
+    private long m_pulses = 0;
+    private int m_pulsePeriod = 0;
+    private double m_generationRate = 0;
+    private double m_targetError = 0;
+    private int m_energyBins = 0;
     private final List<QuantumDot> m_QDList;
     
-    //a map of the abscissa, separated in column, containing sets of QD present at that abscissa
-    private final HashMap<BigInteger, Set<QuantumDot>> m_map = new HashMap<>();
+    //the QDs by abscissa, separated in columns, built once and shared by all the threads
+    private final QDIndex m_QDIndex;
     
-    //this thread Random Generator
-    private final PcgRSFast m_randomGenerator = new PcgRSFast();
+    //this thread Random Generator, the movers using the following streams of the same seed
+    private final long m_seed;
+    private final PcgRSFast m_randomGenerator;
     
     private volatile Map<Electron, BigDecimal> m_finalElectronTime = new HashMap<>();
+    //the recombinations by time step since the generation of their electron and by energy
+    private final RecombinationHistogram m_histogram = new RecombinationHistogram();
+    
+    //the electrons of the run by id, the step at which each of them was last generated, and the recombined ones waiting to be generated again (pulsed and continuous excitations)
+    private final List<Electron> m_electronSlots = new ArrayList<>();
+    private long[] m_generationSteps = new long[0];
+    private final ArrayDeque<Electron> m_freeSlots = new ArrayDeque<>();
+    private long m_generated = 0;
+    //true if a continuous excitation has been stopped by its population cap before converging
+    private volatile boolean m_populationCapped = false;
+    private final SimulationMetrics m_metrics;
     
     public GeneratorManager ()
     {
@@ -64,169 +106,416 @@ public class GeneratorManager implements Runnable
         m_timeStep = BigDecimal.ZERO;;
         m_output = null;
         m_nElectrons = 0;
-        m_QDList = new ArrayList<QuantumDot>();
+        m_nThreads = 1;
+        m_engine = SimulationEngine.CHUNKS;
+        m_seed = 0;
+        m_randomGenerator = new PcgRSFast();
+        QDStore store = new QDStore();
+        m_QDList = store.asList();
+        m_QDIndex = new QDIndex(store);
+        m_metrics = new SimulationMetrics(0);
     }
     
-    public GeneratorManager (ImageBuffer p_buffer, int p_nElectron, List<QuantumDot> p_QDList, BigDecimal p_temperature, BigDecimal p_timeStep, BigDecimal p_sampleX, BigDecimal p_sampleY) throws DataFormatException, FileNotFoundException, IOException
+    public GeneratorManager (ImageBuffer p_buffer, int p_nElectron, List<QuantumDot> p_QDList, BigDecimal p_temperature, BigDecimal p_timeStep, BigDecimal p_sampleX, BigDecimal p_sampleY, int p_nThreads, SimulationEngine p_engine, long p_seed) throws DataFormatException, FileNotFoundException, IOException
     {
         m_output = p_buffer;
         m_nElectrons = p_nElectron;
+        m_nThreads = p_nThreads;
+        m_engine = p_engine;
+        m_seed = p_seed;
+        m_randomGenerator = new PcgRSFast(p_seed, ELECTRON_STREAM);
         m_vth = formatBigDecimal((PhysicsTools.KB.multiply(p_temperature).divide(PhysicsTools.ME, MathContext.DECIMAL128)).sqrt(MathContext.DECIMAL128));
         m_timeStep = p_timeStep;
         
         m_sampleXSize = p_sampleX;
         m_sampleYSize = p_sampleY;
+        m_metrics = new SimulationMetrics(p_nElectron);
 
-        m_QDList = p_QDList;
-        for (QuantumDot QD: m_QDList)
+        //the list is kept as the views of the store the simulation works on, for the recombined QDs to be found in it
+        QDStore store = QDStore.of(p_QDList);
+        m_QDList = store.asList();
+        m_QDIndex = new QDIndex(store);
+    }
+    
+    /**
+     * Reorder the electrons still active along a Morton curve of their positions every p_steps time steps, to improve the locality of the QD index lookups
+     * The order changes the random draws of each electron: a given seed gives the same result only with the same sorting period
+     * @param p_steps the number of time steps between two reorderings, 0 to keep the creation order (default)
+     */
+    public void setSortPeriod(int p_steps)
+    {
+        if (p_steps < 0)
         {
-            addToMap(QD);
+            throw new IllegalArgumentException("The sorting period cannot be negative.");
         }
+        
+        m_sortPeriod = p_steps;
+    }
+    
+    /**
+     * @param p_primitive true to fly the free electrons by blocks in double precision (see FlightBatch), false to fly them one by one in BigDecimal (default)
+     */
+    public void setPrimitiveFlight(boolean p_primitive)
+    {
+        m_primitiveFlight = p_primitive;
+    }
+    
+    /**
+     * @param p_batched true to evaluate the captures of the free electrons by blocks in double precision (see CaptureBatch), false to evaluate them one by one in BigDecimal (default)
+     */
+    public void setBatchedCapture(boolean p_batched)
+    {
+        m_batchedCapture = p_batched;
     }
     
     /**
-     * Add the passed quantum dot to m_map at the right abscissa
-     * @param p_QDToAdd 
+     * @param p_rayCasting true to let the free electrons fly through the regions without QD in reach in one go (see FlightGrid), false to look for QDs at each step (default)
+     * With ray casting, the position logged for an electron skipping steps is the one it had at the start of the skip.
      */
-    private void addToMap(QuantumDot p_QDToAdd)
+    public void setRayCasting(boolean p_rayCasting)
     {
-        BigDecimal startAbscissa = (p_QDToAdd.getX().subtract(p_QDToAdd.getRadius())).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
-        BigDecimal endAbscissa = (p_QDToAdd.getX().add(p_QDToAdd.getRadius())).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
+        m_rayCasting = p_rayCasting;
+    }
+    
+    /**
+     * Excite the sample with a train of pulses instead of once, as in time-correlated single photon counting: each pulse brings the number of electrons of the simulation, the ones of the previous pulses still moving
+     * The recombinations are only accumulated in the histogram (see getHistogram), by time since the pulse of their electron, and the slots of the recombined electrons are used again by the next pulses: the memory stays bounded by the electrons moving at the same time, whatever the number of pulses
+     * @param p_pulses the number of pulses, 0 for a single excitation keeping every recombined electron (default)
+     * @param p_period the number of time steps between two pulses
+     */
+    public void setPulseTrain(long p_pulses, int p_period)
+    {
+        if (p_pulses < 0 || (p_pulses > 0 && p_period <= 0))
+        {
+            throw new IllegalArgumentException("A pulse train needs a positive number of pulses and a strictly positive period.");
+        }
         
-        for (BigDecimal currentAbscissa = startAbscissa ; currentAbscissa.compareTo(endAbscissa) <= 0 ; currentAbscissa = currentAbscissa.add(BigDecimal.ONE))
+        m_pulses = p_pulses;
+        m_pulsePeriod = p_period;
+    }
+    
+    /**
+     * Excite the sample continuously instead of once: electrons are generated at a constant rate, in the slots of the recombined ones, until the generation and the recombination balance (steady state)
+     * The spectrum is then accumulated in the histogram (see getHistogram) until its statistical error falls below the target, the electrons still moving being dropped. The memory stays bounded by the steady state population.
+     * The population is capped at the number of electrons of the simulation: if the recombinations cannot balance the generation (no QD able to capture, or too long escape and recombination times), the simulation is stopped with an error once the cap is exceeded
+     * The generation and the recombination are compared over windows of at least STEADY_STATE_WINDOW steps, lengthened until STEADY_STATE_MIN_GENERATED electrons have been generated in them
+     * A window is balanced when it has recombinations, and they differ from the generations by no more than three times their Poisson noise. The steady state is reached after two consecutive balanced windows whose recombination rates agree within three times their Poisson noise.
+     * @param p_rate the number of electrons generated by time step, 0 for a single excitation (default)
+     * @param p_targetError the relative statistical error of the spectrum peak at which the simulation stops (see RecombinationHistogram.getPeakError)
+     * @param p_energyBins the number of intervals the spectrum is cut in to estimate its error
+     */
+    public void setContinuousWave(double p_rate, double p_targetError, int p_energyBins)
+    {
+        if (p_rate < 0 || (p_rate > 0 && (p_targetError <= 0 || p_energyBins <= 0)))
         {
-            BigInteger index = currentAbscissa.toBigInteger();
-            
-            Set<QuantumDot> currentSet = m_map.get(index);
-            if (currentSet == null)
-            {
-                currentSet = new HashSet<>();
-                currentSet.add(p_QDToAdd);
-                m_map.put(index, currentSet);
-            }
-            else
+            throw new IllegalArgumentException("A continuous excitation needs a positive generation rate, a strictly positive target error and energy bins.");
+        }
+        
+        m_generationRate = p_rate;
+        m_targetError = p_targetError;
+        m_energyBins = p_energyBins;
+    }
+    
+    /**
+     * Generate electrons at the given step, in the free slots first
+     */
+    private List<Electron> generateElectrons(int p_count, long p_step)
+    {
+        List<Electron> electrons = new ArrayList<>();
+        
+        for (int i = 0 ; i < p_count ; i += 1)
+        {
+            Electron slot = m_freeSlots.poll();
+            Electron electron = generateElectron(slot, m_electronSlots.size());
+            if (slot == null)
             {
-                currentSet.add(p_QDToAdd);
+                m_electronSlots.add(electron);
+                if (m_electronSlots.size() > m_generationSteps.length)
+                {
+                    m_generationSteps = Arrays.copyOf(m_generationSteps, 2 * m_electronSlots.size());
+                }
             }
+            m_generationSteps[electron.hashCode()] = p_step;
+            electrons.add(electron);
         }
+        m_generated += p_count;
+        
+        return electrons;
     }
     
-    @Override
-    public void run()
+    /**
+     * Draw the position and velocity of a new electron
+     * @param p_slot a recombined electron to use again, null to create a new one
+     * @param p_id the id of the electron if it is created
+     */
+    private Electron generateElectron(Electron p_slot, int p_id)
     {
-        BigDecimal x;
-        BigDecimal y;
-
-        //generating electrons
-        BigDecimal v_x;
-        BigDecimal v_y;
-        List<Electron> electronList = new ArrayList<>();
-        for (int i = 0 ; i < m_nElectrons ; i += 1)
-        {
-            x = formatBigDecimal((new BigDecimal(m_randomGenerator.nextDouble())).multiply(m_sampleXSize));
-            y = formatBigDecimal((new BigDecimal(m_randomGenerator.nextDouble())).multiply(m_sampleYSize));
-            
-            v_x = formatBigDecimal((new BigDecimal(m_randomGenerator.nextGaussian())).multiply(m_vth));
-            v_y = formatBigDecimal((new BigDecimal(m_randomGenerator.nextGaussian())).multiply(m_vth));
-            
-            electronList.add(new Electron(i, x, y, v_x, v_y));
-        }
-        m_output.logElectrons(electronList);
+        Electron electron = p_slot;
         
-        //cutting calculation into chunks to distribute it between cores
-        int numberOfChunks = Integer.min(Runtime.getRuntime().availableProcessors(), electronList.size());
-        Iterator<Electron> electronIterator = electronList.iterator();
-        ArrayList<Electron>[] electronChunks = new ArrayList[numberOfChunks];
-        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        BigDecimal x = formatBigDecimal((new BigDecimal(m_randomGenerator.nextDouble())).multiply(m_sampleXSize));
+        BigDecimal y = formatBigDecimal((new BigDecimal(m_randomGenerator.nextDouble())).multiply(m_sampleYSize));
+        
+        BigDecimal v_x = formatBigDecimal((new BigDecimal(m_randomGenerator.nextGaussian())).multiply(m_vth));
+        BigDecimal v_y = formatBigDecimal((new BigDecimal(m_randomGenerator.nextGaussian())).multiply(m_vth));
+        
+        if (electron == null)
         {
-            electronChunks[i] = new ArrayList<>();
+            electron = new Electron(p_id, x, y, v_x, v_y);
+        }
+        else
+        {
+            electron.reset(x, y, v_x, v_y);
         }
         
-        int nElectronTreated = 0;
-        while (electronIterator.hasNext())
+        return electron;
+    }
+    
+    @Override
+    public void run()
+    {
+        boolean pulsed = m_pulses > 0;
+        boolean continuous = m_generationRate > 0;
+        if (pulsed && continuous)
         {
-            electronChunks[nElectronTreated%numberOfChunks].add(electronIterator.next());
-            nElectronTreated += 1;
+            throw new IllegalStateException("A simulation cannot be both pulsed and continuous.");
         }
         
-        Thread[] workerArray = new Thread[numberOfChunks];
-        ElectronMover[] moverArray = new ElectronMover[numberOfChunks];
-        for (int i = 0 ; i < numberOfChunks ; i += 1)
+        //generating electrons, the continuous excitation starting from an empty sample
+        List<Electron> electronList = generateElectrons(continuous ? 0 : m_nElectrons, 0);
+        m_output.logElectrons(m_electronSlots);
+        
+        long pulsesSent = 1;
+        //continuous excitation: the fraction of electron left to generate, the counts of the current and previous windows, and whether the steady state is reached
+        double pendingGeneration = 0;
+        long windowSteps = 0;
+        long windowGenerated = 0;
+        long windowRecombined = 0;
+        long previousWindowSteps = 0;
+        long previousWindowRecombined = 0;
+        boolean previousBalanced = false;
+        boolean steadyState = !continuous;
+        boolean converged = false;
+        
+        //the grid is only worth its construction for the electrons no faster than ten thermal velocities, which are practically all of them
+        FlightGrid grid = m_rayCasting ? new FlightGrid(m_QDIndex.getStore(), m_sampleXSize.doubleValue(), m_sampleYSize.doubleValue(), 10 * m_vth.doubleValue() * m_timeStep.doubleValue()) : null;
+        StepEngine engine;
+        switch (m_engine)
         {
-            moverArray[i] = new ElectronMover(m_sampleXSize, m_sampleYSize, m_timeStep, m_vth, electronChunks[i], m_map);
+            case WORK_STEALING:
+                engine = new WorkStealingEngine(electronList, m_nThreads, m_sampleXSize, m_sampleYSize, m_timeStep, m_vth, m_QDIndex, m_seed, m_sortPeriod, m_primitiveFlight, m_batchedCapture, grid);
+                break;
+            case TILES:
+                engine = new TileEngine(electronList, m_nThreads, m_sampleXSize, m_sampleYSize, m_timeStep, m_vth, m_QDIndex, m_seed, m_sortPeriod, m_primitiveFlight, m_batchedCapture, grid);
+                break;
+            default:
+                engine = new ChunkEngine(electronList, m_nThreads, m_sampleXSize, m_sampleYSize, m_timeStep, m_vth, m_QDIndex, m_seed, m_sortPeriod, m_primitiveFlight, m_batchedCapture, grid);
         }
         
+        //the metrics are readable through JMX and logged periodically while the simulation runs
+        ObjectName metricsName = registerMetrics();
+        ScheduledExecutorService metricsLogger = Executors.newSingleThreadScheduledExecutor((Runnable p_logger) ->
+        {
+            Thread loggerThread = new Thread(p_logger, "simulation-metrics");
+            loggerThread.setDaemon(true);
+            return loggerThread;
+        });
+        metricsLogger.scheduleAtFixedRate(() -> Logger.getLogger(GeneratorManager.class.getName()).log(Level.INFO, m_metrics.toString()), METRICS_LOG_PERIOD_SECONDS, METRICS_LOG_PERIOD_SECONDS, TimeUnit.SECONDS);
+        
+        SimulationEvents.Run runEvent = new SimulationEvents.Run();
+        runEvent.begin();
+        SimulationEvents.TimeStepBatch batchEvent = null;
+        long step = 0;
+        
         //calculation start!
         BigDecimal timePassed = BigDecimal.ZERO;
         m_output.logTime(timePassed);
-        List<Electron> currentELectronList;
+        m_output.logQDs(m_QDList);
         boolean allFinished = false;
         try
         {
             while(!allFinished)
             {
-                currentELectronList = new ArrayList<>();
-                allFinished = true;
-                
                 //advancing time logger (can be done before the calculation, the time logger is not taken into them)
                 timePassed = timePassed.add(m_timeStep);
                 
-                //calculating the electrons movement
-                for (int i = 0 ; i < numberOfChunks ; i += 1)
+                if (step % SimulationEvents.STEP_BATCH == 0)
                 {
-                    workerArray[i] = new Thread(moverArray[i]);
-                    workerArray[i].start();
+                    batchEvent = new SimulationEvents.TimeStepBatch();
+                    batchEvent.firstStep = step;
+                    batchEvent.begin();
                 }
-                for (int i = 0 ; i < numberOfChunks ; i += 1)
+                
+                //calculating the electrons movement and logging the recombined electrons
+                //a QD only recombines along with an electron trapped in it: the QDs of the recombined electrons are the only ones to reset
+                step += 1;
+                Set<QuantumDot> recombinedQDs = new HashSet<>();
+                for (Electron electron: engine.step(m_metrics))
                 {
-                    //waiting for the worker to finish
-                    workerArray[i].join();
-                    
-                    //adding the electrons to the list to be drawn
-                    List<Electron> finishedList = moverArray[i].getElectronList();
-                    currentELectronList.addAll(finishedList);
+                    if (steadyState)
+                    {
+                        m_histogram.add(step - m_generationSteps[electron.hashCode()], electron.getTrappingDot().getEnergy(), 1);
+                    }
+                    windowRecombined += 1;
+                    if (pulsed || continuous)
+                    {
+                        m_freeSlots.add(electron);
+                    }
+                    else
+                    {
+                        m_finalElectronTime.put(electron, timePassed);
+                    }
+                    recombinedQDs.add(electron.getTrappingDot());
+                }
+                
+                //drawing the electrons of the next pulse or of the continuous generation, injected once the recombined QDs of this step are logged and reset
+                List<Electron> newElectrons = new ArrayList<>();
+                if (pulsed && pulsesSent < m_pulses && step % m_pulsePeriod == 0)
+                {
+                    newElectrons = generateElectrons(m_nElectrons, step);
+                    pulsesSent += 1;
+                }
+                else if (continuous)
+                {
+                    pendingGeneration += m_generationRate;
+                    int nGenerated = (int) pendingGeneration;
+                    pendingGeneration -= nGenerated;
+                    newElectrons = generateElectrons(nGenerated, step);
+                    windowGenerated += nGenerated;
+                    windowSteps += 1;
                     
-                    //logging the recombined electrons
-                    boolean allRecombined = true;
-                    for (Electron electron: finishedList)
+                    if (windowSteps >= STEADY_STATE_WINDOW && (steadyState || windowGenerated >= STEADY_STATE_MIN_GENERATED))
                     {
-                        if (electron.isRecombined())
+                        if (!steadyState)
                         {
-                            if (!m_finalElectronTime.containsKey(electron))
+                            boolean balanced = windowRecombined > 0 && Math.abs(windowRecombined - windowGenerated) <= 3 * Math.sqrt(windowGenerated);
+                            steadyState = balanced && previousBalanced && ratesAgree(previousWindowRecombined, previousWindowSteps, windowRecombined, windowSteps);
+                            previousBalanced = balanced;
+                            previousWindowRecombined = windowRecombined;
+                            previousWindowSteps = windowSteps;
+                            if (steadyState)
                             {
-                                m_finalElectronTime.put(electron, timePassed);
+                                Logger.getLogger(GeneratorManager.class.getName()).log(Level.INFO, "Steady state reached after {0} steps, with {1} electrons in the sample.", new Object[]{step, engine.getActiveCount() + newElectrons.size()});
                             }
                         }
                         else
                         {
-                            allRecombined = false;
+                            converged = m_histogram.getPeakError(m_energyBins) <= m_targetError;
                         }
+                        windowSteps = 0;
+                        windowGenerated = 0;
+                        windowRecombined = 0;
                     }
                     
-                    //updating the stopping condition
-                    allFinished &= allRecombined;
+                    //the slots are never freed: their number is the largest population the sample had
+                    if (m_electronSlots.size() > m_nElectrons)
+                    {
+                        m_populationCapped = true;
+                        Logger.getLogger(GeneratorManager.class.getName()).log(Level.SEVERE, "Continuous excitation stopped after {0} steps: its population exceeded the {1} electrons of the simulation before converging, the recombinations do not balance the generation.", new Object[]{step, m_nElectrons});
+                    }
+                }
+                
+                //updating the stopping condition
+                if (continuous)
+                {
+                    allFinished = converged || m_populationCapped;
+                }
+                else
+                {
+                    allFinished = engine.getActiveCount() == 0 && newElectrons.isEmpty() && (!pulsed || pulsesSent >= m_pulses);
+                }
+                
+                if (step % SimulationEvents.STEP_BATCH == 0 || allFinished)
+                {
+                    batchEvent.steps = (int) (step - batchEvent.firstStep);
+                    batchEvent.recombinedElectrons = m_metrics.getRecombinedElectrons();
+                    batchEvent.commit();
                 }
                 
                 //sending the new data to the visualisation interface 
-                m_output.logElectrons(currentELectronList);
+                m_output.logElectrons(m_electronSlots);
                 m_output.logTime(timePassed);
-                m_output.logQDs(m_QDList);
+                m_output.logRecombinedQDs(recombinedQDs);
                 
                 //cleaning the recombined QD
-                for (QuantumDot QD: m_QDList)
+                for (QuantumDot QD: recombinedQDs)
                 {
                     QD.resetRecombine();
                 }
+                
+                if (!newElectrons.isEmpty())
+                {
+                    engine.inject(newElectrons);
+                }
             }
         }
         catch (InterruptedException ex)
         {
             Logger.getLogger(GeneratorManager.class.getName()).log(Level.SEVERE, null, ex);
         }
+        finally
+        {
+            runEvent.electrons = (int) Long.min(Integer.MAX_VALUE, m_generated);
+            runEvent.QDs = m_QDList.size();
+            runEvent.threads = engine.getThreadCount();
+            runEvent.steps = step;
+            runEvent.seed = m_seed;
+            runEvent.commit();
+            
+            engine.close();
+            metricsLogger.shutdownNow();
+            unregisterMetrics(metricsName);
+            Logger.getLogger(GeneratorManager.class.getName()).log(Level.INFO, "Simulation finished, " + m_metrics);
+        }
+    }
+    
+    /**
+     * Register the metrics as an MBean, named after the order of the simulation in this JVM since several can run at the same time
+     * @return the name of the MBean, or null if it could not be registered
+     */
+    private ObjectName registerMetrics()
+    {
+        ObjectName metricsName = null;
+        
+        try
+        {
+            metricsName = new ObjectName("afmluminescence:type=SimulationMetrics,run=" + RUN_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m_metrics, metricsName);
+        }
+        catch (JMException ex)
+        {
+            Logger.getLogger(GeneratorManager.class.getName()).log(Level.WARNING, "Simulation metrics not available through JMX.", ex);
+            metricsName = null;
+        }
+        
+        return metricsName;
+    }
+    
+    private void unregisterMetrics(ObjectName p_metricsName)
+    {
+        if (p_metricsName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(p_metricsName);
+            }
+            catch (JMException ex)
+            {
+                Logger.getLogger(GeneratorManager.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+    
+    public SimulationMetrics getMetrics()
+    {
+        return m_metrics;
     }
     
     public HashMap<Electron, BigDecimal> getFinalElectronList()
     {
+        if (m_pulses > 0 || m_generationRate > 0)
+        {
+            throw new IllegalStateException("A pulsed or continuous simulation only keeps the histogram of its recombinations.");
+        }
         if (m_finalElectronTime.keySet().size() != m_nElectrons)
         {
             throw new IllegalStateException("Calculation not yet finished.");
@@ -235,6 +524,37 @@ public class GeneratorManager implements Runnable
         return new HashMap(m_finalElectronTime);
     }
     
+    /**
+     * @return true if the recombination rates of two windows, in electrons per step, differ by no more than three times the Poisson noise of their difference
+     */
+    private static boolean ratesAgree(long p_firstRecombined, long p_firstSteps, long p_secondRecombined, long p_secondSteps)
+    {
+        double firstRate = (double) p_firstRecombined / p_firstSteps;
+        double secondRate = (double) p_secondRecombined / p_secondSteps;
+        double noise = Math.sqrt(p_firstRecombined / ((double) p_firstSteps * p_firstSteps) + p_secondRecombined / ((double) p_secondSteps * p_secondSteps));
+        
+        return Math.abs(firstRate - secondRate) <= 3 * noise;
+    }
+    
+    /**
+     * @return the recombinations of the finished simulation (since the steady state for a continuous excitation), by time step since the generation of their electron and by energy
+     */
+    public RecombinationHistogram getHistogram()
+    {
+        if (m_populationCapped)
+        {
+            throw new IllegalStateException("The continuous excitation exceeded its population of " + m_nElectrons + " electrons before converging.");
+        }
+        
+        return m_histogram;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return m_metrics.toString();
+    }
+    
     public static BigDecimal formatBigDecimal(BigDecimal p_toFormat)
     {
         return p_toFormat.stripTrailingZeros();
@@ -17,6 +17,7 @@
 package afmluminescence.luminescencegenerator;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -29,5 +30,11 @@ public interface ImageBuffer
     
     public void logQDs(List<QuantumDot> p_listToDraw);
     
+    /**
+     * Called after each time step with the QDs that recombined during it, instead of the whole QD list: the QDs given at the previous step are back to their normal state
+     * @param p_recombined the QDs that recombined during the step
+     */
+    public void logRecombinedQDs(Collection<QuantumDot> p_recombined);
+    
     public void logTime(BigDecimal p_time);
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordering of electrons along a Morton (Z-order) curve of their positions
+ * The sample is cut into 2^16 x 2^16 cells, the key of a cell interleaving the bits of its x and y indices, so that electrons close in the order are close in the sample and look up the same columns of the QD index.
+ * @author Alban Lafuente
+ */
+final class MortonOrder
+{
+    private static final int BITS_PER_AXIS = 16;
+    private static final double CELLS_PER_AXIS = 1 << BITS_PER_AXIS;
+    
+    private MortonOrder ()
+    {
+    }
+    
+    /**
+     * @param p_x the abscissa, between 0 and p_sampleX
+     * @param p_y the ordinate, between 0 and p_sampleY
+     * @return the position of the cell containing (p_x, p_y) along the curve, on 32 bits
+     */
+    static long key(double p_x, double p_y, double p_sampleX, double p_sampleY)
+    {
+        return spread(cell(p_x, p_sampleX)) | (spread(cell(p_y, p_sampleY)) << 1);
+    }
+    
+    private static int cell(double p_position, double p_sampleSize)
+    {
+        int cell = (int) (p_position / p_sampleSize * CELLS_PER_AXIS);
+        
+        return Integer.max(0, Integer.min((int) CELLS_PER_AXIS - 1, cell));
+    }
+    
+    //spreading the 16 bits of p_index on the even bits of the result
+    private static long spread(int p_index)
+    {
+        long spread = p_index;
+        
+        spread = (spread | (spread << 8)) & 0x00FF00FFL;
+        spread = (spread | (spread << 4)) & 0x0F0F0F0FL;
+        spread = (spread | (spread << 2)) & 0x33333333L;
+        spread = (spread | (spread << 1)) & 0x55555555L;
+        
+        return spread;
+    }
+    
+    /**
+     * Sort the electrons between p_from (included) and p_to (excluded) along the curve, electrons in the same cell keeping their order
+     * The key of each electron is calculated once, and packed with its index in a long, so that the sort is a sort of primitives
+     * The sign bit of the packed longs is flipped, so that their signed order is the unsigned order of the 32 bits keys
+     */
+    static void sort(Electron[] p_electrons, int p_from, int p_to, BigDecimal p_sampleX, BigDecimal p_sampleY)
+    {
+        double sampleX = p_sampleX.doubleValue();
+        double sampleY = p_sampleY.doubleValue();
+        long[] keys = new long[p_to - p_from];
+        
+        for (int i = 0 ; i < keys.length ; i += 1)
+        {
+            Electron electron = p_electrons[p_from + i];
+            keys[i] = ((key(electron.getX().doubleValue(), electron.getY().doubleValue(), sampleX, sampleY) << 32) | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(keys);
+        
+        Electron[] sorted = new Electron[keys.length];
+        for (int i = 0 ; i < keys.length ; i += 1)
+        {
+            sorted[i] = p_electrons[p_from + (int) (keys[i] & 0xFFFFFFFFL)];
+        }
+        System.arraycopy(sorted, 0, p_electrons, p_from, sorted.length);
+    }
+    
+    static void sort(List<Electron> p_electrons, BigDecimal p_sampleX, BigDecimal p_sampleY)
+    {
+        Electron[] electrons = p_electrons.toArray(new Electron[0]);
+        
+        sort(electrons, 0, electrons.length, p_sampleX, p_sampleY);
+        for (int i = 0 ; i < electrons.length ; i += 1)
+        {
+            p_electrons.set(i, electrons[i]);
+        }
+    }
+}
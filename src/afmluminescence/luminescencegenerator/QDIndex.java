@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.PhysicsTools;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only index of the QDs by abscissa, in columns of 1 nm, built once per simulation and shared by all the threads
+ * A QD is in every column its diameter along x overlaps. The QDs are designated by their id in the QDStore the index is built on.
+ * The columns are stored in compressed rows: the ids of the QDs of column c are m_columnQDs[m_columnStart[c - m_firstColumn]] to m_columnQDs[m_columnStart[c - m_firstColumn + 1] - 1], in increasing order
+ * The columns of a QD are consecutive, and the first of them is kept by id, so that a scan over consecutive columns can keep each QD once, in the first scanned column it is in
+ * The data of the QDs is read from the store by the same ids, in double precision
+ * Nothing is written after the construction, so that the index needs no synchronisation and its size does not depend on the number of threads
+ * @author Alban Lafuente
+ */
+public final class QDIndex
+{
+    private final QDStore m_store;
+    private final long m_firstColumn;
+    private final int[] m_columnStart;
+    private final int[] m_columnQDs;
+    private final long[] m_QDFirstColumn;
+    
+    /**
+     * @param p_QDList the QDs to index, in the store of the list if it is the view of a store, copied in a new store otherwise
+     */
+    public QDIndex (List<QuantumDot> p_QDList)
+    {
+        this(QDStore.of(p_QDList));
+    }
+    
+    public QDIndex (QDStore p_store)
+    {
+        m_store = p_store;
+        int nQDs = m_store.size();
+        
+        //the columns of each QD, then the QDs of each column
+        long[][] QDColumns = new long[nQDs][];
+        m_QDFirstColumn = new long[nQDs];
+        long firstColumn = Long.MAX_VALUE;
+        long lastColumn = Long.MIN_VALUE;
+        for (int id = 0 ; id < nQDs ; id += 1)
+        {
+            QDColumns[id] = columnsOf(QDStore.toBigDecimal(m_store.getX(id)), QDStore.toBigDecimal(m_store.getRadius(id)));
+            if (QDColumns[id].length > 0)
+            {
+                firstColumn = Long.min(firstColumn, QDColumns[id][0]);
+                lastColumn = Long.max(lastColumn, QDColumns[id][QDColumns[id].length - 1]);
+                m_QDFirstColumn[id] = QDColumns[id][0];
+            }
+        }
+        
+        if (firstColumn > lastColumn)
+        {
+            firstColumn = 0;
+            lastColumn = -1;
+        }
+        m_firstColumn = firstColumn;
+        m_columnStart = new int[(int) (lastColumn - firstColumn) + 2];
+        
+        for (long[] columns: QDColumns)
+        {
+            for (long column: columns)
+            {
+                m_columnStart[(int) (column - m_firstColumn) + 1] += 1;
+            }
+        }
+        for (int i = 1 ; i < m_columnStart.length ; i += 1)
+        {
+            m_columnStart[i] += m_columnStart[i - 1];
+        }
+        
+        m_columnQDs = new int[m_columnStart[m_columnStart.length - 1]];
+        int[] filled = Arrays.copyOf(m_columnStart, m_columnStart.length - 1);
+        for (int id = 0 ; id < nQDs ; id += 1)
+        {
+            for (long column: QDColumns[id])
+            {
+                int columnIndex = (int) (column - m_firstColumn);
+                m_columnQDs[filled[columnIndex]] = id;
+                filled[columnIndex] += 1;
+            }
+        }
+    }
+    
+    /**
+     * The columns of a QD, from the column of x - radius, in steps of 1 nm up to x + radius, as the QD map has always been filled
+     * @return the columns, in increasing order and without duplicates
+     */
+    static long[] columnsOf(BigDecimal p_x, BigDecimal p_radius)
+    {
+        BigDecimal startAbscissa = (p_x.subtract(p_radius)).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
+        BigDecimal endAbscissa = (p_x.add(p_radius)).scaleByPowerOfTen(PhysicsTools.UnitsPrefix.NANO.getScale());
+        
+        long[] columns = new long[Integer.max(0, endAbscissa.subtract(startAbscissa).intValue() + 1)];
+        int nColumns = 0;
+        for (BigDecimal currentAbscissa = startAbscissa ; currentAbscissa.compareTo(endAbscissa) <= 0 ; currentAbscissa = currentAbscissa.add(BigDecimal.ONE))
+        {
+            //the abscissas are truncated towards 0: around 0, two abscissas can fall in the same column
+            long column = currentAbscissa.longValue();
+            if (nColumns == 0 || columns[nColumns - 1] != column)
+            {
+                columns[nColumns] = column;
+                nColumns += 1;
+            }
+        }
+        
+        return Arrays.copyOf(columns, nColumns);
+    }
+    
+    /**
+     * @return the number of QDs in the index
+     */
+    public int size()
+    {
+        return m_store.size();
+    }
+    
+    /**
+     * @return the view of the QD
+     */
+    public QuantumDot get(int p_id)
+    {
+        return m_store.get(p_id);
+    }
+    
+    /**
+     * @return the store of the QDs, by the same ids as the index
+     */
+    public QDStore getStore()
+    {
+        return m_store;
+    }
+    
+    /**
+     * @param p_id the id of a QD
+     * @return the first column the QD is in, in nm
+     */
+    public long firstColumn(int p_id)
+    {
+        return m_QDFirstColumn[p_id];
+    }
+    
+    /**
+     * @param p_column the column, in nm
+     * @return the position in the column entries of the first QD of the column
+     */
+    public int columnStart(long p_column)
+    {
+        long columnIndex = p_column - m_firstColumn;
+        
+        return columnIndex >= 0 && columnIndex < m_columnStart.length - 1 ? m_columnStart[(int) columnIndex] : 0;
+    }
+    
+    /**
+     * @param p_column the column, in nm
+     * @return the position in the column entries after the last QD of the column, equal to columnStart(p_column) for an empty column
+     */
+    public int columnEnd(long p_column)
+    {
+        long columnIndex = p_column - m_firstColumn;
+        
+        return columnIndex >= 0 && columnIndex < m_columnStart.length - 1 ? m_columnStart[(int) columnIndex + 1] : 0;
+    }
+    
+    /**
+     * @param p_entry a position in the column entries, between the columnStart and the columnEnd of a column
+     * @return the id of the QD at this position
+     */
+    public int entry(int p_entry)
+    {
+        return m_columnQDs[p_entry];
+    }
+}
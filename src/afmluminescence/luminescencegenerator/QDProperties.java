@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import com.github.audreyazura.commonutils.PhysicsTools;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.UnaryOperator;
+import org.nevec.rjm.BigDecimalMath;
+
+/**
+ * The energy and transition probabilities of a QD, which only depend on its geometry and on the time step
+ * Immutable, so that QDs of the same geometry class can share the same instance (see QDPropertyTable)
+ * @author Alban Lafuente
+ */
+public final class QDProperties
+{
+    private final BigDecimal m_energy;
+    private final double m_captureProbability;
+    private final double m_escapeProbability;
+    private final double m_recombinationProbability;
+    
+    public QDProperties (BigDecimal p_energy, double p_captureProbability, double p_escapeProbability, double p_recombinationProbability)
+    {
+        m_energy = p_energy;
+        m_captureProbability = p_captureProbability;
+        m_escapeProbability = p_escapeProbability;
+        m_recombinationProbability = p_recombinationProbability;
+    }
+    
+    public static QDProperties calculate (BigDecimal p_radius, BigDecimal p_height, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes)
+    {
+        return calculate(p_radius, p_height, p_timeStep, p_captureTimes::getValueAtPosition, p_escapeTimes::getValueAtPosition);
+    }
+    
+    //ΔEg(InAs/GaAs) ~ 1.1 eV
+    static QDProperties calculate (BigDecimal p_radius, BigDecimal p_height, BigDecimal p_timeStep, UnaryOperator<BigDecimal> p_captureTimes, UnaryOperator<BigDecimal> p_escapeTimes)
+    {
+        BigDecimal two = new BigDecimal("2");
+        BigDecimal eight = new BigDecimal("8");
+        PhysicsTools.Materials QDMaterial = PhysicsTools.Materials.INAS;
+        PhysicsTools.Materials hostMaterial = PhysicsTools.Materials.GAAS;
+
+//        BigDecimal height = p_height.multiply(new BigDecimal("2")); //multiplied to have enough QDs that can capture (some problem with file?)
+        BigDecimal equivalentSquareSide = p_radius.multiply(BigDecimalMath.sqrt(BigDecimalMath.pi(MathContext.DECIMAL128), MathContext.DECIMAL128));
+        
+        BigDecimal CBOffset = (new BigDecimal("0.7")).multiply(PhysicsTools.EV); //from https://aip.scitation.org/doi/abs/10.1063/1.125965, make it into PhysicalTools as a new enum, Metamaterials
+        BigDecimal energyPlaneElectron = (energyParameter(equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMassSI()).divide(equivalentSquareSide, MathContext.DECIMAL128)).pow(2);
+        BigDecimal energyHeightElectron = (energyParameter(p_height, CBOffset, QDMaterial.getElectronEffectiveMassSI()).divide(p_height, MathContext.DECIMAL128)).pow(2);
+        BigDecimal electronConfinementEnergy = (two.multiply(PhysicsTools.hbar.pow(2)).divide(QDMaterial.getElectronEffectiveMassSI(), MathContext.DECIMAL128)).multiply((energyPlaneElectron.multiply(two)).add(energyHeightElectron));
+//        BigDecimal electronOscillatorPlane = BigDecimalMath.sqrt(eight.multiply(CBOffset).divide(QDMaterial.getElectronEffectiveMassSI().multiply(p_radius.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
+//        BigDecimal electronOscillatorHeight = BigDecimalMath.sqrt(eight.multiply(CBOffset).divide(QDMaterial.getElectronEffectiveMassSI().multiply(height.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
+//        BigDecimal electronConfinementEnergy = PhysicsTools.hbar.multiply(electronOscillatorPlane.add(electronOscillatorHeight)).divide(two);
+        
+        BigDecimal VBOffset = hostMaterial.getBaseBandgapSI().subtract(QDMaterial.getBaseBandgapSI()).subtract(CBOffset);
+        BigDecimal energyPlaneHole = (energyParameter(equivalentSquareSide, VBOffset, QDMaterial.getHoleEffectiveMassSI()).divide(equivalentSquareSide, MathContext.DECIMAL128)).pow(2);
+        BigDecimal energyHeightHole = (energyParameter(p_height, VBOffset, QDMaterial.getHoleEffectiveMassSI()).divide(p_height, MathContext.DECIMAL128)).pow(2);
+        BigDecimal holeConfinementEnergy = (two.multiply(PhysicsTools.hbar.pow(2)).divide(QDMaterial.getHoleEffectiveMassSI(), MathContext.DECIMAL128)).multiply((energyPlaneHole.multiply(two)).add(energyHeightHole));
+//        BigDecimal holeOscillatorPlane = BigDecimalMath.sqrt(eight.multiply(VBOffset).divide(QDMaterial.getHoleEffectiveMassSI().multiply(p_radius.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
+//        BigDecimal holeOscillatorHeight = BigDecimalMath.sqrt(eight.multiply(VBOffset).divide(QDMaterial.getHoleEffectiveMassSI().multiply(p_height.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
+//        BigDecimal holeConfinementEnergy = PhysicsTools.hbar.multiply(holeOscillatorPlane.add(holeOscillatorHeight)).divide(two);
+        
+        BigDecimal energy = QDMaterial.getBaseBandgapSI().add(electronConfinementEnergy).add(holeConfinementEnergy);
+        
+        BigDecimal minPhononEnergy = CBOffset.subtract(electronConfinementEnergy);
+        double captureProbability;
+        if (minPhononEnergy.compareTo(BigDecimal.ZERO) <= 0)
+        {
+            //if the first QD energy level is higher than barrier conduction band, the QD cannot confine the carrier, and thus the capture probability is null
+            minPhononEnergy = BigDecimal.ZERO;
+            captureProbability = 0;
+        }
+        else
+        {
+            //else, the capture probability is calculated using P_capture = 1 - exp(-Δt/tau_capture), with tau_capture given in https://aip.scitation.org/doi/10.1063/1.1512694
+            captureProbability = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide(p_captureTimes.apply(p_radius), MathContext.DECIMAL128)))).doubleValue();
+        }
+        
+        //the escape probability is calculated using P_capture = 1 - exp(-Δt/tau_escape) with tau_escape from https://aip.scitation.org/doi/10.1063/1.4824469
+        double escapeProbability = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide(p_escapeTimes.apply(p_radius), MathContext.DECIMAL128)))).doubleValue();
+        
+        BigDecimal minPhotonEnergy = hostMaterial.getBaseBandgapSI().add(minPhononEnergy);
+        
+        double recombinationProbability = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide((new BigDecimal("3.6")).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()), MathContext.DECIMAL128)))).doubleValue();
+        
+        return new QDProperties(energy, captureProbability, escapeProbability, recombinationProbability);
+    }
+    
+    /**
+     * See https://en.wikipedia.org/wiki/Finite_potential_well
+     * Find v_0 using Newton's Method with the equation sqrt(u0^2 - v0^2) = v0*tan(v0)
+     * Solved the equation squared in order to avoid the sqrt, since we want 0 < v0 < pi/2 anyway
+     * @param size
+     * @return
+     */
+    private static BigDecimal energyParameter (BigDecimal size, BigDecimal bandOffset, BigDecimal effectiveMass)
+    {
+        double u02 = (effectiveMass.multiply(size.pow(2)).multiply(bandOffset).divide((new BigDecimal(2)).multiply(PhysicsTools.hbar.pow(2)), MathContext.DECIMAL128)).doubleValue();
+        
+        //vtan has two constrains: it has to be between 0 and PI/2, and u02 - vtan^2 > 0
+        double vtan = Math.random()*Double.min(Math.PI/2, Math.sqrt(u02));
+        double error = 1E-50;
+        
+        double vprevtan = 0;
+        int counter = 0;
+        do
+        {
+            vprevtan = vtan;
+            double tangent = Math.tan(vtan);
+            
+            double fvi = functionToOptimize(vtan) - u02;
+            double fderivvi = 2 * vtan * (1 + (vtan * tangent / (Math.pow(Math.cos(vtan), 2))) + Math.pow(tangent, 2));
+            
+            vtan = Math.abs(vprevtan - (fvi / fderivvi));
+            while (vtan >= Math.PI/2)
+            {
+                //vi has to be between 0 and pi/2
+                vtan = vtan - Math.PI/2;
+            }
+            
+            counter += 1;
+        }while(counter <= 100 && Math.abs(functionToOptimize(vtan) - u02) >= error);
+        
+        return new BigDecimal(vtan);
+    }
+    
+    private static double functionToOptimize(double v)
+    {
+        return Math.pow(v, 2) * (1 + Math.pow(Math.tan(v), 2));
+    }
+    
+    public BigDecimal getEnergy()
+    {
+        return m_energy;
+    }
+    
+    public double getCaptureProbability()
+    {
+        return m_captureProbability;
+    }
+    
+    public double getEscapeProbability()
+    {
+        return m_escapeProbability;
+    }
+    
+    public double getRecombinationProbability()
+    {
+        return m_recombinationProbability;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Gives the energy and probabilities of the QDs from their geometry, for a given time step and capture and escape time tables
+ * With a resolution, the radius and the height are rounded to the closest multiple of it: the QDs of the same geometry class share one QDProperties, calculated once for the rounded geometry
+ * Without resolution (0), the properties are calculated for the exact geometry of each QD, as QuantumDot has always done
+ * The capture and escape times can be read in tables resampled on a uniform grid (see ResampledFunction) rather than in the loaded functions
+ * The classes are filled on demand and the table can be used by several threads at once
+ * A lazy table lets the QDs built from it calculate their properties at their first use (the first capture attempt, or the first call to getEnergy), so that the QDs no electron ever approaches are never calculated. It counts the QDs built lazily and the ones calculated since.
+ * @author Alban Lafuente
+ */
+public final class QDPropertyTable
+{
+    private final BigDecimal m_timeStep;
+    private final UnaryOperator<BigDecimal> m_captureTimes;
+    private final UnaryOperator<BigDecimal> m_escapeTimes;
+    private final int m_tablePoints;
+    private final BigDecimal m_resolution;
+    private final boolean m_lazy;
+    private final AtomicInteger m_lazyQDs = new AtomicInteger(0);
+    private final AtomicInteger m_materialisedQDs = new AtomicInteger(0);
+    
+    //the classes by key: radius class in the high 32 bits, height class in the low ones
+    private final ConcurrentHashMap<Long, QDProperties> m_classes = new ConcurrentHashMap<>();
+    
+    /**
+     * @param p_resolution the size of the geometry classes, in meters, 0 to calculate the properties of each QD
+     */
+    public QDPropertyTable (BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes, BigDecimal p_resolution)
+    {
+        this(p_timeStep, p_captureTimes, p_escapeTimes, p_resolution, false);
+    }
+    
+    /**
+     * @param p_resolution the size of the geometry classes, in meters, 0 to calculate the properties of each QD
+     * @param p_lazy true for the QDs built from the table to calculate their properties at their first use
+     */
+    public QDPropertyTable (BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes, BigDecimal p_resolution, boolean p_lazy)
+    {
+        this(p_timeStep, p_captureTimes::getValueAtPosition, p_escapeTimes::getValueAtPosition, 0, p_resolution, p_lazy);
+    }
+    
+    /**
+     * @param p_captureTimes the capture times, resampled with the same number of points as the escape times
+     * @param p_resolution the size of the geometry classes, in meters, 0 to calculate the properties of each QD
+     * @param p_lazy true for the QDs built from the table to calculate their properties at their first use
+     */
+    public QDPropertyTable (BigDecimal p_timeStep, ResampledFunction p_captureTimes, ResampledFunction p_escapeTimes, BigDecimal p_resolution, boolean p_lazy)
+    {
+        this(p_timeStep, p_captureTimes::getValueAtPosition, p_escapeTimes::getValueAtPosition, p_captureTimes.getPoints(), p_resolution, p_lazy);
+    }
+    
+    private QDPropertyTable (BigDecimal p_timeStep, UnaryOperator<BigDecimal> p_captureTimes, UnaryOperator<BigDecimal> p_escapeTimes, int p_tablePoints, BigDecimal p_resolution, boolean p_lazy)
+    {
+        if (p_resolution.signum() < 0)
+        {
+            throw new IllegalArgumentException("The resolution of the QD geometry classes cannot be negative.");
+        }
+        
+        m_timeStep = p_timeStep;
+        m_captureTimes = p_captureTimes;
+        m_escapeTimes = p_escapeTimes;
+        m_tablePoints = p_tablePoints;
+        m_resolution = p_resolution;
+        m_lazy = p_lazy;
+    }
+    
+    /**
+     * @param p_radius the radius of the QD, in meters
+     * @param p_height the height of the QD, in meters
+     * @return the properties of the geometry class of the QD, or of its exact geometry without resolution
+     */
+    public QDProperties get(BigDecimal p_radius, BigDecimal p_height)
+    {
+        QDProperties properties;
+        
+        if (m_resolution.signum() == 0)
+        {
+            properties = QDProperties.calculate(p_radius, p_height, m_timeStep, m_captureTimes, m_escapeTimes);
+        }
+        else
+        {
+            //a QD smaller than half the resolution goes in the first class rather than in a class of null size
+            long radiusClass = Long.max(1, p_radius.divide(m_resolution, 0, RoundingMode.HALF_UP).longValue());
+            long heightClass = Long.max(1, p_height.divide(m_resolution, 0, RoundingMode.HALF_UP).longValue());
+            
+            properties = m_classes.computeIfAbsent((radiusClass << 32) | heightClass, key -> QDProperties.calculate(m_resolution.multiply(BigDecimal.valueOf(radiusClass)), m_resolution.multiply(BigDecimal.valueOf(heightClass)), m_timeStep, m_captureTimes, m_escapeTimes));
+        }
+        
+        return properties;
+    }
+    
+    public BigDecimal getResolution()
+    {
+        return m_resolution;
+    }
+    
+    /**
+     * @return the number of points of the resampled time tables, 0 if the loaded functions are used
+     */
+    public int getTablePoints()
+    {
+        return m_tablePoints;
+    }
+    
+    public boolean isLazy()
+    {
+        return m_lazy;
+    }
+    
+    void countLazy()
+    {
+        m_lazyQDs.incrementAndGet();
+    }
+    
+    void countMaterialised()
+    {
+        m_materialisedQDs.incrementAndGet();
+    }
+    
+    /**
+     * @return the number of QDs built from the table without their properties
+     */
+    public int getLazyCount()
+    {
+        return m_lazyQDs.get();
+    }
+    
+    /**
+     * @return the number of lazy QDs whose properties have been calculated since
+     */
+    public int getMaterialisedCount()
+    {
+        return m_materialisedQDs.get();
+    }
+    
+    /**
+     * @return the number of geometry classes calculated so far, 0 without resolution
+     */
+    public int getClassCount()
+    {
+        return m_classes.size();
+    }
+}
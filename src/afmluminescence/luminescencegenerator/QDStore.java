@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Owner of the QD data, in primitive columns addressed by the QD id: position, radius and height in m, the shared properties of the QD and its recombination flag
+ * The ids are the order in which the QDs are added, starting from 0. A QuantumDot is only a view of one id of a store, created when an object is needed.
+ * The properties of a lazy QD are null until they are first needed, the table to calculate them from being kept next to them until then
+ * The QDs are added by a single thread before the store is shared. Afterwards, only the properties of the lazy QDs and the recombination flags are written, under a lock taken among a few by id.
+ * @author Alban Lafuente
+ */
+public final class QDStore
+{
+    //enough locks for the threads not to wait for each other, few enough for a small store not to be weighed down by them
+    private static final int MAX_LOCKS = 64;
+    
+    private double[] m_x;
+    private double[] m_y;
+    private double[] m_radius;
+    private double[] m_height;
+    private QDProperties[] m_properties;
+    private QDPropertyTable[] m_pendingTables;
+    private boolean[] m_recombined;
+    private Object[] m_locks;
+    private int m_size = 0;
+    private final List<QuantumDot> m_view = new StoreList();
+    
+    public QDStore ()
+    {
+        this(16);
+    }
+    
+    /**
+     * @param p_capacity the number of QDs expected, to size the columns once
+     */
+    public QDStore (int p_capacity)
+    {
+        int capacity = Integer.max(1, p_capacity);
+        
+        m_x = new double[capacity];
+        m_y = new double[capacity];
+        m_radius = new double[capacity];
+        m_height = new double[capacity];
+        m_properties = new QDProperties[capacity];
+        m_pendingTables = new QDPropertyTable[capacity];
+        m_recombined = new boolean[capacity];
+        m_locks = newLocks(capacity);
+    }
+    
+    /**
+     * @return the store of the QDs: the store of the list itself if it is the view of a store, a copy of the QDs in a new store otherwise
+     */
+    public static QDStore of(List<QuantumDot> p_QDList)
+    {
+        QDStore store;
+        
+        if (p_QDList instanceof StoreList)
+        {
+            store = ((StoreList) p_QDList).store();
+        }
+        else
+        {
+            store = new QDStore(p_QDList.size());
+            for (QuantumDot QD: p_QDList)
+            {
+                QD.copyTo(store);
+            }
+        }
+        
+        return store;
+    }
+    
+    /**
+     * @return the value a stored position or size is read as where a BigDecimal is needed
+     */
+    public static BigDecimal toBigDecimal(double p_value)
+    {
+        return BigDecimal.valueOf(p_value);
+    }
+    
+    /**
+     * @param p_properties the energy and probabilities of the QD, which can be shared with other QDs
+     * @return the id of the QD
+     */
+    public int add(double p_x, double p_y, double p_radius, double p_height, QDProperties p_properties)
+    {
+        int id = nextId();
+        
+        m_x[id] = p_x;
+        m_y[id] = p_y;
+        m_radius[id] = p_radius;
+        m_height[id] = p_height;
+        m_properties[id] = p_properties;
+        
+        return id;
+    }
+    
+    /**
+     * @param p_table the table giving the energy and probabilities of the QD geometry, shared with the QDs of the same geometry class. If the table is lazy, they are only taken from it the first time they are needed.
+     * @return the id of the QD
+     */
+    public int add(double p_x, double p_y, double p_radius, double p_height, QDPropertyTable p_table)
+    {
+        int id;
+        
+        if (p_table.isLazy())
+        {
+            id = add(p_x, p_y, p_radius, p_height, (QDProperties) null);
+            m_pendingTables[id] = p_table;
+            p_table.countLazy();
+        }
+        else
+        {
+            id = add(p_x, p_y, p_radius, p_height, p_table.get(toBigDecimal(p_radius), toBigDecimal(p_height)));
+        }
+        
+        return id;
+    }
+    
+    /**
+     * Copy a QD of another store, keeping a lazy QD lazy
+     * @return the id of the copy
+     */
+    int addCopy(QDStore p_source, int p_id)
+    {
+        QDPropertyTable pendingTable;
+        QDProperties properties;
+        synchronized (p_source.lockOf(p_id))
+        {
+            pendingTable = p_source.m_pendingTables[p_id];
+            properties = p_source.m_properties[p_id];
+        }
+        
+        int id = add(p_source.m_x[p_id], p_source.m_y[p_id], p_source.m_radius[p_id], p_source.m_height[p_id], properties);
+        if (pendingTable != null)
+        {
+            m_pendingTables[id] = pendingTable;
+            pendingTable.countLazy();
+        }
+        m_recombined[id] = p_source.hasRecombined(p_id);
+        
+        return id;
+    }
+    
+    private int nextId()
+    {
+        if (m_size == m_x.length)
+        {
+            int capacity = m_x.length * 2;
+            
+            m_x = Arrays.copyOf(m_x, capacity);
+            m_y = Arrays.copyOf(m_y, capacity);
+            m_radius = Arrays.copyOf(m_radius, capacity);
+            m_height = Arrays.copyOf(m_height, capacity);
+            m_properties = Arrays.copyOf(m_properties, capacity);
+            m_pendingTables = Arrays.copyOf(m_pendingTables, capacity);
+            m_recombined = Arrays.copyOf(m_recombined, capacity);
+            if (m_locks.length < MAX_LOCKS)
+            {
+                m_locks = newLocks(capacity);
+            }
+        }
+        
+        int id = m_size;
+        m_size += 1;
+        
+        return id;
+    }
+    
+    private static Object[] newLocks(int p_capacity)
+    {
+        Object[] locks = new Object[Integer.min(MAX_LOCKS, p_capacity)];
+        for (int i = 0 ; i < locks.length ; i += 1)
+        {
+            locks[i] = new Object();
+        }
+        
+        return locks;
+    }
+    
+    private Object lockOf(int p_id)
+    {
+        return m_locks[p_id % m_locks.length];
+    }
+    
+    public int size()
+    {
+        return m_size;
+    }
+    
+    /**
+     * @return the view of a QD
+     */
+    public QuantumDot get(int p_id)
+    {
+        if (p_id < 0 || p_id >= m_size)
+        {
+            throw new IndexOutOfBoundsException("No QD " + p_id + " in a store of " + m_size + " QDs");
+        }
+        
+        return new QuantumDot(this, p_id);
+    }
+    
+    /**
+     * @return the QDs of the store as a read-only list of views, in the order of their ids
+     */
+    public List<QuantumDot> asList()
+    {
+        return m_view;
+    }
+    
+    /**
+     * @return the heap used by the columns of the store, in bytes, counting 4 bytes for a reference and not counting the shared properties and tables
+     */
+    public long columnBytes()
+    {
+        return (long) m_x.length * (4 * Double.BYTES + 2 * 4 + 1);
+    }
+    
+    public double getX(int p_id)
+    {
+        return m_x[p_id];
+    }
+    
+    public double getY(int p_id)
+    {
+        return m_y[p_id];
+    }
+    
+    public double getRadius(int p_id)
+    {
+        return m_radius[p_id];
+    }
+    
+    public double getHeight(int p_id)
+    {
+        return m_height[p_id];
+    }
+    
+    /**
+     * @return the properties of the QD, calculated at the first call for a lazy QD. Safe to call from several threads: a QD is only calculated once.
+     */
+    QDProperties properties(int p_id)
+    {
+        //the fields of QDProperties are final, so that a reference read without the lock sees the whole properties
+        QDProperties properties = m_properties[p_id];
+        
+        if (properties == null)
+        {
+            synchronized (lockOf(p_id))
+            {
+                properties = m_properties[p_id];
+                if (properties == null)
+                {
+                    QDPropertyTable table = m_pendingTables[p_id];
+                    properties = table.get(toBigDecimal(m_radius[p_id]), toBigDecimal(m_height[p_id]));
+                    table.countMaterialised();
+                    m_properties[p_id] = properties;
+                    m_pendingTables[p_id] = null;
+                }
+            }
+        }
+        
+        return properties;
+    }
+    
+    /**
+     * @return false for a lazy QD whose energy and probabilities have not been needed yet
+     */
+    public boolean isMaterialised(int p_id)
+    {
+        return m_properties[p_id] != null;
+    }
+    
+    /**
+     * @return the capture probability of the QD, calculating a lazy QD
+     */
+    public double getCaptureProbability(int p_id)
+    {
+        return properties(p_id).getCaptureProbability();
+    }
+    
+    /**
+     * @return true if the QD can capture, or may capture for a lazy QD not calculated yet, which is left lazy
+     */
+    public boolean mayCapture(int p_id)
+    {
+        QDProperties properties = m_properties[p_id];
+        
+        return properties == null || properties.getCaptureProbability() != 0;
+    }
+    
+    public boolean hasRecombined(int p_id)
+    {
+        return m_recombined[p_id];
+    }
+    
+    //will calculate the probablity based on the electron and hole wave function
+    //with the tiles engine, it is only called by the thread owning the QD and the lock is never contended
+    public boolean recombine(int p_id, PcgRSFast p_RNG)
+    {
+        QDProperties properties = properties(p_id);
+        
+        boolean recombined;
+        synchronized (lockOf(p_id))
+        {
+            if (!m_recombined[p_id])
+            {
+                m_recombined[p_id] = p_RNG.nextDouble() < properties.getRecombinationProbability();
+            }
+            recombined = m_recombined[p_id];
+        }
+        
+        return recombined;
+    }
+    
+    public void resetRecombine(int p_id)
+    {
+        synchronized (lockOf(p_id))
+        {
+            m_recombined[p_id] = false;
+        }
+    }
+    
+    /**
+     * The QDs of the store as views, so that a store can be given where a list of QDs is expected and found back from it
+     */
+    private final class StoreList extends AbstractList<QuantumDot> implements RandomAccess
+    {
+        @Override
+        public QuantumDot get(int p_index)
+        {
+            return QDStore.this.get(p_index);
+        }
+        
+        @Override
+        public int size()
+        {
+            return m_size;
+        }
+        
+        QDStore store()
+        {
+            return QDStore.this;
+        }
+    }
+}
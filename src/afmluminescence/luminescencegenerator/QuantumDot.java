@@ -17,7 +17,6 @@
 package afmluminescence.luminescencegenerator;
 
 import com.github.audreyazura.commonutils.ContinuousFunction;
-import com.github.audreyazura.commonutils.PhysicsTools;
 import com.github.kilianB.pcg.fast.PcgRSFast;
 import java.math.BigDecimal;
 import java.math.MathContext;
@@ -26,77 +25,81 @@ import java.util.logging.Logger;
 import org.nevec.rjm.BigDecimalMath;
 
 /**
- *
+ * A QD, as a view of its id in the QDStore owning its data
+ * The views of the same id of the same store are equal. A QD built by one of the public constructors gets a store of its own, for the fit and the lists built outside of a simulation.
  * @author Alban Lafuente
  */
 public class QuantumDot extends AbsorberObject
 {
-    private final BigDecimal m_energy;
-    private final BigDecimal m_radius;
-    private final BigDecimal m_height;
-    private final double m_captureProba;
-    private final double m_escapeProbability;
-    private final double m_recombinationProbability;
-    private boolean m_recombined = false;
+    private final QDStore m_store;
+    private final int m_id;
     
     //ΔEg(InAs/GaAs) ~ 1.1 eV
     public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes)
     {
-        BigDecimal two = new BigDecimal("2");
-        BigDecimal eight = new BigDecimal("8");
-        PhysicsTools.Materials QDMaterial = PhysicsTools.Materials.INAS;
-        PhysicsTools.Materials hostMaterial = PhysicsTools.Materials.GAAS;
-        
-        m_positionX = p_positionX;
-        m_positionY = p_positionY;
-        
-        m_radius = p_radius.multiply(new BigDecimal("1"));
-        m_height = p_height;
-//        BigDecimal height = p_height.multiply(new BigDecimal("2")); //multiplied to have enough QDs that can capture (some problem with file?)
-        BigDecimal equivalentSquareSide = m_radius.multiply(BigDecimalMath.sqrt(BigDecimalMath.pi(MathContext.DECIMAL128), MathContext.DECIMAL128));
-        
-        BigDecimal CBOffset = (new BigDecimal("0.7")).multiply(PhysicsTools.EV); //from https://aip.scitation.org/doi/abs/10.1063/1.125965, make it into PhysicalTools as a new enum, Metamaterials
-        BigDecimal energyPlaneElectron = (energyParameter(equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMassSI()).divide(equivalentSquareSide, MathContext.DECIMAL128)).pow(2);
-        BigDecimal energyHeightElectron = (energyParameter(p_height, CBOffset, QDMaterial.getElectronEffectiveMassSI()).divide(p_height, MathContext.DECIMAL128)).pow(2);
-        BigDecimal electronConfinementEnergy = (two.multiply(PhysicsTools.hbar.pow(2)).divide(QDMaterial.getElectronEffectiveMassSI(), MathContext.DECIMAL128)).multiply((energyPlaneElectron.multiply(two)).add(energyHeightElectron));
-//        BigDecimal electronOscillatorPlane = BigDecimalMath.sqrt(eight.multiply(CBOffset).divide(QDMaterial.getElectronEffectiveMassSI().multiply(m_radius.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
-//        BigDecimal electronOscillatorHeight = BigDecimalMath.sqrt(eight.multiply(CBOffset).divide(QDMaterial.getElectronEffectiveMassSI().multiply(height.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
-//        BigDecimal electronConfinementEnergy = PhysicsTools.hbar.multiply(electronOscillatorPlane.add(electronOscillatorHeight)).divide(two);
-
-        BigDecimal VBOffset = hostMaterial.getBaseBandgapSI().subtract(QDMaterial.getBaseBandgapSI()).subtract(CBOffset);
-        BigDecimal energyPlaneHole = (energyParameter(equivalentSquareSide, VBOffset, QDMaterial.getHoleEffectiveMassSI()).divide(equivalentSquareSide, MathContext.DECIMAL128)).pow(2);
-        BigDecimal energyHeightHole = (energyParameter(p_height, VBOffset, QDMaterial.getHoleEffectiveMassSI()).divide(p_height, MathContext.DECIMAL128)).pow(2);
-        BigDecimal holeConfinementEnergy = (two.multiply(PhysicsTools.hbar.pow(2)).divide(QDMaterial.getHoleEffectiveMassSI(), MathContext.DECIMAL128)).multiply((energyPlaneHole.multiply(two)).add(energyHeightHole));
-//        BigDecimal holeOscillatorPlane = BigDecimalMath.sqrt(eight.multiply(VBOffset).divide(QDMaterial.getHoleEffectiveMassSI().multiply(m_radius.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
-//        BigDecimal holeOscillatorHeight = BigDecimalMath.sqrt(eight.multiply(VBOffset).divide(QDMaterial.getHoleEffectiveMassSI().multiply(p_height.pow(2)), MathContext.DECIMAL128), MathContext.DECIMAL128);
-//        BigDecimal holeConfinementEnergy = PhysicsTools.hbar.multiply(holeOscillatorPlane.add(holeOscillatorHeight)).divide(two);
-
-        m_energy = QDMaterial.getBaseBandgapSI().add(electronConfinementEnergy).add(holeConfinementEnergy);
-        
-        BigDecimal minPhononEnergy = CBOffset.subtract(electronConfinementEnergy);
-        if (minPhononEnergy.compareTo(BigDecimal.ZERO) <= 0)
-        {
-            //if the first QD energy level is higher than barrier conduction band, the QD cannot confine the carrier, and thus the capture probability is null
-            minPhononEnergy = BigDecimal.ZERO;
-            m_captureProba = 0;
-        }
-        else
-        {
-            //else, the capture probability is calculated using P_capture = 1 - exp(-Δt/tau_capture), with tau_capture given in https://aip.scitation.org/doi/10.1063/1.1512694
-            m_captureProba = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide(p_captureTimes.getValueAtPosition(m_radius), MathContext.DECIMAL128)))).doubleValue();
-        }
-        
-        //the escape probability is calculated using P_capture = 1 - exp(-Δt/tau_escape) with tau_escape from https://aip.scitation.org/doi/10.1063/1.4824469
-        m_escapeProbability = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide(p_escapeTimes.getValueAtPosition(m_radius), MathContext.DECIMAL128)))).doubleValue();
-        
-        BigDecimal minPhotonEnergy = hostMaterial.getBaseBandgapSI().add(minPhononEnergy);
-        
-        m_recombinationProbability = (BigDecimal.ONE.subtract(BigDecimalMath.exp(p_timeStep.negate().divide((new BigDecimal("3.6")).multiply(PhysicsTools.UnitsPrefix.NANO.getMultiplier()), MathContext.DECIMAL128)))).doubleValue();
+        this(p_positionX, p_positionY, p_radius, p_height, QDProperties.calculate(p_radius, p_height, p_timeStep, p_captureTimes, p_escapeTimes));
+    }
+    
+    /**
+     * @param p_table the table giving the energy and probabilities of the QD geometry, shared with the QDs of the same geometry class. If the table is lazy, they are only taken from it the first time they are needed.
+     */
+    public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, QDPropertyTable p_table)
+    {
+        m_store = new QDStore(1);
+        m_id = m_store.add(p_positionX.doubleValue(), p_positionY.doubleValue(), p_radius.doubleValue(), p_height.doubleValue(), p_table);
+    }
+    
+    /**
+     * Rebuild a quantum dot from already calculated values, skipping the confinement energy and probabilities calculation
+     * Used when reading a QD list back from a cache
+     */
+    public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, BigDecimal p_energy, double p_captureProbability, double p_escapeProbability, double p_recombinationProbability)
+    {
+        this(p_positionX, p_positionY, p_radius, p_height, new QDProperties(p_energy, p_captureProbability, p_escapeProbability, p_recombinationProbability));
+    }
+    
+    /**
+     * @param p_properties the energy and probabilities of the QD, which can be shared with other QDs
+     */
+    public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, QDProperties p_properties)
+    {
+        m_store = new QDStore(1);
+        m_id = m_store.add(p_positionX.doubleValue(), p_positionY.doubleValue(), p_radius.doubleValue(), p_height.doubleValue(), p_properties);
+    }
+    
+    /**
+     * The view of a QD of a store
+     */
+    QuantumDot (QDStore p_store, int p_id)
+    {
+        m_store = p_store;
+        m_id = p_id;
+    }
+    
+    /**
+     * Add the QD to another store, keeping a lazy QD lazy
+     */
+    void copyTo(QDStore p_store)
+    {
+        p_store.addCopy(m_store, m_id);
+    }
+    
+    private QDProperties properties()
+    {
+        return m_store.properties(m_id);
+    }
+    
+    /**
+     * @return false for a lazy QD whose energy and probabilities have not been needed yet
+     */
+    public boolean isMaterialised()
+    {
+        return m_store.isMaterialised(m_id);
     }
     
-    synchronized public boolean canCapture()
+    public boolean canCapture()
     {
-        return m_captureProba != 0;
+        return properties().getCaptureProbability() != 0;
     }
     
     /**
@@ -114,40 +117,41 @@ public class QuantumDot extends AbsorberObject
      * @param electronSpan the circle containing the position the electron can reach
      * @return whether the electron has been captured or not
      */
-    synchronized public boolean capture(PcgRSFast p_RNG, BigDecimal electronDistance, BigDecimal electronSpan)
+    public boolean capture(PcgRSFast p_RNG, BigDecimal electronDistance, BigDecimal electronSpan)
     {
+        BigDecimal radius = getRadius();
         double reachingProbability = 0;
         
         /** calculating the probability of the electron to reach the QD
         *   This is done by calculating how many of the position the electron can reach are occupied by the QD
         *   case if the electron is entirely inside the QD
         */
-        if (electronDistance.add(electronSpan).compareTo(m_radius) <= 0)
+        if (electronDistance.add(electronSpan).compareTo(radius) <= 0)
         {
             reachingProbability = 1;
         }
         else
         {
             //if the QD is entirely in the electron span
-            if (electronDistance.add(m_radius).compareTo(electronSpan) <= 0)
+            if (electronDistance.add(radius).compareTo(electronSpan) <= 0)
             {
-                reachingProbability = (m_radius.pow(2).divide(electronSpan.pow(2), MathContext.DECIMAL128)).doubleValue();
+                reachingProbability = (radius.pow(2).divide(electronSpan.pow(2), MathContext.DECIMAL128)).doubleValue();
             }
             else
             {
                 BigDecimal overlapArea = BigDecimal.ZERO;
 
                 //we compare the distance to sqrt(abs(radius^2 - electronSpan^2))
-                BigDecimal radiusDiff = BigDecimalMath.sqrt(((m_radius.pow(2)).subtract(electronSpan.pow(2))).abs(), MathContext.DECIMAL128);
+                BigDecimal radiusDiff = BigDecimalMath.sqrt(((radius.pow(2)).subtract(electronSpan.pow(2))).abs(), MathContext.DECIMAL128);
                 
                 //if the QD center is farther away than the intersection points
                 if (electronDistance.compareTo(radiusDiff) >= 0)
                 {
                     //the base of the triangle for the calculation here is (electronSpan^2 + electronDistance^2 - QDradius^2) / (2 * electronDistance)
-                    BigDecimal triangleBase = (electronSpan.pow(2).add(electronDistance.pow(2)).subtract(m_radius.pow(2))).divide(electronDistance.multiply(new BigDecimal("2")), MathContext.DECIMAL128);
+                    BigDecimal triangleBase = (electronSpan.pow(2).add(electronDistance.pow(2)).subtract(radius.pow(2))).divide(electronDistance.multiply(new BigDecimal("2")), MathContext.DECIMAL128);
                     
                     BigDecimal electronSlice = electronSpan.pow(2).multiply(BigDecimalMath.acos(triangleBase.divide(electronSpan, MathContext.DECIMAL128)));
-                    BigDecimal QDSlice = m_radius.pow(2).multiply(BigDecimalMath.acos((electronDistance.subtract(triangleBase)).divide(m_radius, MathContext.DECIMAL128)));
+                    BigDecimal QDSlice = radius.pow(2).multiply(BigDecimalMath.acos((electronDistance.subtract(triangleBase)).divide(radius, MathContext.DECIMAL128)));
                     BigDecimal triangleCorrection = electronDistance.multiply(BigDecimalMath.sqrt(electronSpan.pow(2).subtract(triangleBase.pow(2)), MathContext.DECIMAL128));
                     
                     overlapArea = electronSlice.add(QDSlice).subtract(triangleCorrection);
@@ -155,11 +159,11 @@ public class QuantumDot extends AbsorberObject
                 else
                 {
                     //the base of the triangle for the calculation here is (electronSpan^2 - electronDistance^2 - QDradius^2) / (2 * electronDistance)
-                    BigDecimal triangleBase = (electronSpan.pow(2).subtract(electronDistance.pow(2)).subtract(m_radius.pow(2))).divide(electronDistance.multiply(new BigDecimal("2")), MathContext.DECIMAL128);
+                    BigDecimal triangleBase = (electronSpan.pow(2).subtract(electronDistance.pow(2)).subtract(radius.pow(2))).divide(electronDistance.multiply(new BigDecimal("2")), MathContext.DECIMAL128);
                     
                     BigDecimal electronSlice = electronSpan.pow(2).multiply(BigDecimalMath.acos((triangleBase.add(electronDistance)).divide(electronSpan, MathContext.DECIMAL128)));
-                    BigDecimal QDSlice = m_radius.pow(2).multiply(BigDecimalMath.pi(MathContext.DECIMAL128).subtract(BigDecimalMath.acos(triangleBase.divide(m_radius, MathContext.DECIMAL128))));
-                    BigDecimal triangleCorrection = electronDistance.multiply(BigDecimalMath.sqrt(m_radius.pow(2).subtract(triangleBase.pow(2)), MathContext.DECIMAL128));
+                    BigDecimal QDSlice = radius.pow(2).multiply(BigDecimalMath.pi(MathContext.DECIMAL128).subtract(BigDecimalMath.acos(triangleBase.divide(radius, MathContext.DECIMAL128))));
+                    BigDecimal triangleCorrection = electronDistance.multiply(BigDecimalMath.sqrt(radius.pow(2).subtract(triangleBase.pow(2)), MathContext.DECIMAL128));
                     
                     overlapArea = electronSlice.add(QDSlice).subtract(triangleCorrection);
                 }
@@ -175,15 +179,23 @@ public class QuantumDot extends AbsorberObject
         }
         
         //the complete capture probability is the probability to reach the QD multiplied by the probability to be captured
-        return p_RNG.nextDouble() < reachingProbability * m_captureProba;
+        return p_RNG.nextDouble() < reachingProbability * properties().getCaptureProbability();
     }
     
     public QuantumDot copyWithSizeChange(BigDecimal p_sizeMultiplier, BigDecimal p_timeStep, ContinuousFunction p_captureTimes, ContinuousFunction p_escapeTimes)
     {
-        BigDecimal newRadius = m_radius;
-        BigDecimal newHeight = m_height;
+        return copyWithSizeChange(p_sizeMultiplier, new QDPropertyTable(p_timeStep, p_captureTimes, p_escapeTimes, BigDecimal.ZERO));
+    }
+    
+    /**
+     * @param p_table the table giving the properties of the new geometry: with geometry classes, the copy points to the class of its new size
+     */
+    public QuantumDot copyWithSizeChange(BigDecimal p_sizeMultiplier, QDPropertyTable p_table)
+    {
+        BigDecimal newRadius = getRadius();
+        BigDecimal newHeight = getHeight();
         
-        if (m_radius.compareTo(m_height) > 0)
+        if (newRadius.compareTo(newHeight) > 0)
         {
             newHeight = newHeight.multiply(p_sizeMultiplier);
         }
@@ -192,92 +204,96 @@ public class QuantumDot extends AbsorberObject
             newRadius = newRadius.multiply(p_sizeMultiplier);
         }
         
-        return new QuantumDot(m_positionX, m_positionY, newRadius, newHeight, p_timeStep, p_captureTimes, p_escapeTimes);
+        return new QuantumDot(getX(), getY(), newRadius, newHeight, p_table);
     }
     
-    /**
-     * See https://en.wikipedia.org/wiki/Finite_potential_well
-     * Find v_0 using Newton's Method with the equation sqrt(u0^2 - v0^2) = v0*tan(v0)
-     * Solved the equation squared in order to avoid the sqrt, since we want 0 < v0 < pi/2 anyway
-     * @param size
-     * @return 
-     */
-    private BigDecimal energyParameter (BigDecimal size, BigDecimal bandOffset, BigDecimal effectiveMass)
+    //will calculate probability based on phonon density
+    public boolean escape(PcgRSFast p_RNG)
     {
-        double u02 = (effectiveMass.multiply(size.pow(2)).multiply(bandOffset).divide((new BigDecimal(2)).multiply(PhysicsTools.hbar.pow(2)), MathContext.DECIMAL128)).doubleValue();
-        
-        //vtan has two constrains: it has to be between 0 and PI/2, and u02 - vtan^2 > 0
-        double vtan = Math.random()*Double.min(Math.PI/2, Math.sqrt(u02));
-        double error = 1E-50;
-        
-        double vprevtan = 0;
-        int counter = 0;
-        do
-        {
-            vprevtan = vtan;
-            double tangent = Math.tan(vtan);
-            
-            double fvi = functionToOptimize(vtan) - u02;
-            double fderivvi = 2 * vtan * (1 + (vtan * tangent / (Math.pow(Math.cos(vtan), 2))) + Math.pow(tangent, 2));
-            
-            vtan = Math.abs(vprevtan - (fvi / fderivvi));
-            while (vtan >= Math.PI/2)
-            {
-                //vi has to be between 0 and pi/2
-                vtan = vtan - Math.PI/2;
-            }
-            
-            counter += 1;
-        }while(counter <= 100 && Math.abs(functionToOptimize(vtan) - u02) >= error);
-        
-        return new BigDecimal(vtan);
+        return p_RNG.nextDouble() < properties().getEscapeProbability();
     }
     
-    private double functionToOptimize(double v)
+    public BigDecimal getEnergy()
     {
-        return Math.pow(v, 2) * (1 + Math.pow(Math.tan(v), 2));
+        return properties().getEnergy();
     }
-
-    //will calculate probability based on phonon density
-    synchronized public boolean escape(PcgRSFast p_RNG)
+    
+    @Override
+    public BigDecimal getX()
     {
-        return p_RNG.nextDouble() < m_escapeProbability;
+        return QDStore.toBigDecimal(m_store.getX(m_id));
     }
     
-    public BigDecimal getEnergy()
+    @Override
+    public BigDecimal getY()
     {
-        return m_energy;
+        return QDStore.toBigDecimal(m_store.getY(m_id));
     }
     
     public BigDecimal getRadius()
     {
-        return m_radius;
+        return QDStore.toBigDecimal(m_store.getRadius(m_id));
+    }
+    
+    public BigDecimal getHeight()
+    {
+        return QDStore.toBigDecimal(m_store.getHeight(m_id));
+    }
+    
+    public double getCaptureProbability()
+    {
+        return properties().getCaptureProbability();
+    }
+    
+    public double getEscapeProbability()
+    {
+        return properties().getEscapeProbability();
+    }
+    
+    public double getRecombinationProbability()
+    {
+        return properties().getRecombinationProbability();
     }
     
     public boolean hasRecombined()
     {
-        return m_recombined;
+        return m_store.hasRecombined(m_id);
     }
     
     //will calculate the probablity based on the electron and hole wave function
-    synchronized public boolean recombine(PcgRSFast p_RNG)
+    public boolean recombine(PcgRSFast p_RNG)
     {
-        if (!m_recombined)
+        return m_store.recombine(m_id, p_RNG);
+    }
+    
+    public void resetRecombine()
+    {
+        m_store.resetRecombine(m_id);
+    }
+    
+    @Override
+    public boolean equals(Object p_object)
+    {
+        boolean equal = false;
+        
+        if (p_object instanceof QuantumDot)
         {
-            m_recombined = p_RNG.nextDouble() < m_recombinationProbability;
+            QuantumDot QD = (QuantumDot) p_object;
+            equal = QD.m_store == m_store && QD.m_id == m_id;
         }
         
-        return m_recombined;
+        return equal;
     }
     
-    public void resetRecombine()
+    @Override
+    public int hashCode()
     {
-        m_recombined = false;
+        return 31 * System.identityHashCode(m_store) + m_id;
     }
     
     @Override
     public String toString()
     {
-        return m_positionX + "\t" + m_positionY + "\t" + m_radius + "\t" + m_height + "\t" + m_energy;
+        return getX() + "\t" + getY() + "\t" + getRadius() + "\t" + getHeight() + "\t" + properties().getEnergy();
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.sun.jdi.AbsentInformationException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Number of recombinations by time step and by recombination energy
+ * The times are kept as a number of time steps and the energies as the exact energies of the QDs, so that histograms of different simulations of the same QDs can be merged without loss.
+ * @author Alban Lafuente
+ */
+public class RecombinationHistogram
+{
+    private final TreeMap<Long, Long> m_timeCounts = new TreeMap<>();
+    private final TreeMap<BigDecimal, Long> m_energyCounts = new TreeMap<>();
+    private long m_total = 0;
+    
+    public RecombinationHistogram()
+    {
+    }
+    
+    /**
+     * Build the histogram of the results of a GeneratorManager
+     * @param p_results the recombination time of each electron
+     * @param p_timeStep the time step of the simulation
+     * @throws AbsentInformationException if one of the electrons has not recombined
+     */
+    public RecombinationHistogram(Map<Electron, BigDecimal> p_results, BigDecimal p_timeStep) throws AbsentInformationException
+    {
+        for (Map.Entry<Electron, BigDecimal> result: p_results.entrySet())
+        {
+            add(result.getValue().divideToIntegralValue(p_timeStep).longValueExact(), result.getKey().getRecombinationEnergy(), 1);
+        }
+    }
+    
+    /**
+     * @param p_step the time step during which the recombinations happened
+     * @param p_energy the recombination energy
+     * @param p_count the number of recombinations
+     */
+    public void add(long p_step, BigDecimal p_energy, long p_count)
+    {
+        m_timeCounts.merge(p_step, p_count, Long::sum);
+        m_energyCounts.merge(p_energy, p_count, Long::sum);
+        m_total += p_count;
+    }
+    
+    public void merge(RecombinationHistogram p_other)
+    {
+        for (Map.Entry<Long, Long> timeCount: p_other.m_timeCounts.entrySet())
+        {
+            m_timeCounts.merge(timeCount.getKey(), timeCount.getValue(), Long::sum);
+        }
+        for (Map.Entry<BigDecimal, Long> energyCount: p_other.m_energyCounts.entrySet())
+        {
+            m_energyCounts.merge(energyCount.getKey(), energyCount.getValue(), Long::sum);
+        }
+        m_total += p_other.m_total;
+    }
+    
+    /**
+     * @param p_bins the number of intervals the range of the recombination energies is cut in
+     * @return the number of recombinations in each interval, of equal widths between the lowest and the highest recombination energy, all of them in the first one if there is a single energy
+     */
+    public long[] getEnergyBinCounts(int p_bins)
+    {
+        long[] binCounts = new long[p_bins];
+        
+        if (!m_energyCounts.isEmpty())
+        {
+            double start = m_energyCounts.firstKey().doubleValue();
+            double width = (m_energyCounts.lastKey().doubleValue() - start) / p_bins;
+            
+            for (Map.Entry<BigDecimal, Long> energyCount: m_energyCounts.entrySet())
+            {
+                int bin = width == 0 ? 0 : Integer.min(p_bins - 1, (int) ((energyCount.getKey().doubleValue() - start) / width));
+                binCounts[bin] += energyCount.getValue();
+            }
+        }
+        
+        return binCounts;
+    }
+    
+    /**
+     * The relative statistical error of the peak of the spectrum, its recombinations being counted as a Poisson process
+     * @param p_bins the number of intervals the spectrum is cut in (see getEnergyBinCounts)
+     * @return 1/sqrt(N), N being the number of recombinations in the most populated interval, infinite for an empty histogram
+     */
+    public double getPeakError(int p_bins)
+    {
+        long peakCount = 0;
+        
+        for (long binCount: getEnergyBinCounts(p_bins))
+        {
+            peakCount = Long.max(peakCount, binCount);
+        }
+        
+        return 1 / Math.sqrt(peakCount);
+    }
+    
+    public SortedMap<BigDecimal, Long> getEnergyCounts()
+    {
+        return Collections.unmodifiableSortedMap(m_energyCounts);
+    }
+    
+    /**
+     * @return the number of recombinations by time step index
+     */
+    public SortedMap<Long, Long> getTimeCounts()
+    {
+        return Collections.unmodifiableSortedMap(m_timeCounts);
+    }
+    
+    /**
+     * @param p_timeStep the time step of the simulation
+     * @return the number of recombinations by time (the end of their time step), in seconds
+     */
+    public SortedMap<BigDecimal, Long> getTimeCounts(BigDecimal p_timeStep)
+    {
+        TreeMap<BigDecimal, Long> timeCounts = new TreeMap<>();
+        
+        for (Map.Entry<Long, Long> timeCount: m_timeCounts.entrySet())
+        {
+            timeCounts.put(p_timeStep.multiply(new BigDecimal(timeCount.getKey())), timeCount.getValue());
+        }
+        
+        return timeCounts;
+    }
+    
+    public long getTotal()
+    {
+        return m_total;
+    }
+    
+    public boolean isEmpty()
+    {
+        return m_total == 0;
+    }
+    
+    public static RecombinationHistogram read(DataInputStream p_input) throws IOException
+    {
+        RecombinationHistogram histogram = new RecombinationHistogram();
+        
+        int nTimes = p_input.readInt();
+        for (int i = 0 ; i < nTimes ; i += 1)
+        {
+            histogram.m_timeCounts.put(p_input.readLong(), p_input.readLong());
+        }
+        
+        int nEnergies = p_input.readInt();
+        for (int i = 0 ; i < nEnergies ; i += 1)
+        {
+            int scale = p_input.readInt();
+            byte[] unscaledValue = new byte[p_input.readShort()];
+            p_input.readFully(unscaledValue);
+            
+            histogram.m_energyCounts.put(new BigDecimal(new BigInteger(unscaledValue), scale), p_input.readLong());
+        }
+        
+        histogram.m_total = p_input.readLong();
+        
+        return histogram;
+    }
+    
+    public void write(DataOutputStream p_output) throws IOException
+    {
+        p_output.writeInt(m_timeCounts.size());
+        for (Map.Entry<Long, Long> timeCount: m_timeCounts.entrySet())
+        {
+            p_output.writeLong(timeCount.getKey());
+            p_output.writeLong(timeCount.getValue());
+        }
+        
+        p_output.writeInt(m_energyCounts.size());
+        for (Map.Entry<BigDecimal, Long> energyCount: m_energyCounts.entrySet())
+        {
+            byte[] unscaledValue = energyCount.getKey().unscaledValue().toByteArray();
+            
+            p_output.writeInt(energyCount.getKey().scale());
+            p_output.writeShort(unscaledValue.length);
+            p_output.write(unscaledValue);
+            p_output.writeLong(energyCount.getValue());
+        }
+        
+        p_output.writeLong(m_total);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.audreyazura.commonutils.ContinuousFunction;
+import java.math.BigDecimal;
+
+/**
+ * A ContinuousFunction resampled once on a uniform grid of doubles, between its start and its end
+ * A value is then interpolated linearly between the two grid points around the position, found by a division instead of a search among the points of the function, and without BigDecimal arithmetic
+ * The resampling loses the points of the function falling between two grid points: the maximum deviation from the function, measured at these points when it is built, tells whether the grid is fine enough
+ * Outside of the function range, the values are asked to the function itself
+ * @author Alban Lafuente
+ */
+public final class ResampledFunction
+{
+    private final ContinuousFunction m_function;
+    private final double m_start;
+    private final double m_end;
+    private final double m_step;
+    private final double[] m_values;
+    private final double m_maxDeviation;
+    
+    /**
+     * @param p_function the function to resample
+     * @param p_points the number of grid points, at least 2
+     */
+    public ResampledFunction (ContinuousFunction p_function, int p_points)
+    {
+        m_function = p_function;
+        m_start = p_function.start().doubleValue();
+        m_end = p_function.end().doubleValue();
+        
+        if (p_points < 2 || m_end <= m_start)
+        {
+            throw new IllegalArgumentException("A resampled function needs at least two points and a function defined over a range.");
+        }
+        
+        m_step = (m_end - m_start) / (p_points - 1);
+        
+        m_values = new double[p_points];
+        for (int i = 0 ; i < p_points ; i += 1)
+        {
+            m_values[i] = p_function.getValueAtPosition(BigDecimal.valueOf(gridPosition(i))).doubleValue();
+        }
+        
+        //the function being linear between its own points, the deviation of the resampling is the largest at them
+        double maxDeviation = 0;
+        for (BigDecimal abscissa: p_function.getAbscissa())
+        {
+            double exact = p_function.getValueAtPosition(abscissa).doubleValue();
+            double deviation = Math.abs(valueAt(abscissa.doubleValue()) - exact);
+            
+            if (exact != 0)
+            {
+                deviation /= Math.abs(exact);
+            }
+            maxDeviation = Double.max(maxDeviation, deviation);
+        }
+        m_maxDeviation = maxDeviation;
+    }
+    
+    /**
+     * the last point is placed on the end of the function rather than on the rounded sum of the steps, so that it is never out of its range
+     */
+    private double gridPosition(int p_index)
+    {
+        return p_index == m_values.length - 1 ? m_end : m_start + p_index * m_step;
+    }
+    
+    /**
+     * @param p_position a position between the start and the end of the function
+     * @return the value interpolated between the grid points around the position
+     */
+    public double valueAt(double p_position)
+    {
+        double fractionalIndex = (p_position - m_start) / m_step;
+        int index = Integer.min(Integer.max(0, (int) fractionalIndex), m_values.length - 2);
+        double weight = fractionalIndex - index;
+        
+        return m_values[index] + weight * (m_values[index + 1] - m_values[index]);
+    }
+    
+    /**
+     * Replacement of ContinuousFunction.getValueAtPosition
+     * @param p_position the position
+     * @return the interpolated value inside the function range, the value of the function outside
+     */
+    public BigDecimal getValueAtPosition(BigDecimal p_position)
+    {
+        BigDecimal value;
+        double position = p_position.doubleValue();
+        
+        if (position < m_start || position > m_end)
+        {
+            value = m_function.getValueAtPosition(p_position);
+        }
+        else
+        {
+            value = BigDecimal.valueOf(valueAt(position));
+        }
+        
+        return value;
+    }
+    
+    /**
+     * @return the largest deviation from the function at its points, relative to the value of the function (absolute where it is null)
+     */
+    public double getMaxDeviation()
+    {
+        return m_maxDeviation;
+    }
+    
+    public int getPoints()
+    {
+        return m_values.length;
+    }
+}
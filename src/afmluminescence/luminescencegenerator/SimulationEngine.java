@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+/**
+ * The ways GeneratorManager can distribute the electron movement between threads
+ * @author Alban Lafuente
+ */
+public enum SimulationEngine
+{
+    /**
+     * the electrons are dealt once into one ElectronMover per thread, all movers being run at each time step
+     */
+    CHUNKS,
+    
+    /**
+     * the electrons not yet recombined are compacted after each step and moved by blocks in a fork/join pool, idle threads stealing blocks from the busy ones
+     */
+    WORK_STEALING,
+    
+    /**
+     * the sample is cut into one strip per thread, each owning its QDs and the electrons inside it, electrons crossing to another strip being handed over through its inbox
+     */
+    TILES;
+}
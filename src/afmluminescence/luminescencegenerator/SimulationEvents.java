@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the simulation, shown under AFMLuminescence in JDK Mission Control
+ * Record with: java -XX:StartFlightRecording=filename=run.jfr ...
+ * @author Alban Lafuente
+ */
+public class SimulationEvents
+{
+    //number of time steps covered by one TimeStepBatch event
+    static final int STEP_BATCH = 100;
+    
+    private SimulationEvents()
+    {
+    }
+    
+    @Name("afmluminescence.SimulationRun")
+    @Label("Simulation Run")
+    @Category({"AFMLuminescence", "Simulation"})
+    @Description("A complete run of GeneratorManager, until every electron has recombined")
+    static class Run extends Event
+    {
+        @Label("Electrons")
+        int electrons;
+        
+        @Label("QDs")
+        int QDs;
+        
+        @Label("Threads")
+        int threads;
+        
+        @Label("Steps")
+        long steps;
+        
+        @Label("Seed")
+        long seed;
+    }
+    
+    @Name("afmluminescence.TimeStepBatch")
+    @Label("Time Step Batch")
+    @Category({"AFMLuminescence", "Simulation"})
+    @Description("A batch of consecutive time steps of a simulation run")
+    static class TimeStepBatch extends Event
+    {
+        @Label("First Step")
+        long firstStep;
+        
+        @Label("Steps")
+        int steps;
+        
+        @Label("Recombined Electrons")
+        @Description("Number of electrons recombined since the start of the simulation, at the end of the batch")
+        long recombinedElectrons;
+    }
+    
+    @Name("afmluminescence.MoverStep")
+    @Label("Mover Step")
+    @Category({"AFMLuminescence", "Simulation"})
+    @Description("The moves of the electrons of one chunk during one time step")
+    static class MoverStep extends Event
+    {
+        @Label("Chunk Index")
+        int chunkIndex;
+        
+        @Label("Step")
+        long step;
+        
+        @Label("Electrons")
+        int electrons;
+        
+        @Label("Capture Attempts")
+        long captureAttempts;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+/**
+ * Counters of a running simulation
+ * They are updated by the step engine once per time step, after all the workers are done, so that the workers only increment their own plain counters.
+ * @author Alban Lafuente
+ */
+public class SimulationMetrics implements SimulationMetricsMBean
+{
+    private final long m_startNanos = System.nanoTime();
+    private volatile long m_steps = 0;
+    private volatile int m_free;
+    private volatile int m_captured = 0;
+    private volatile long m_recombined = 0;
+    private volatile long m_captureAttempts = 0;
+    private volatile long m_captureSuccesses = 0;
+    private volatile long m_barrierWaitNanos = 0;
+    private volatile long[] m_workerStepNanos = new long[0];
+    
+    public SimulationMetrics (int p_nElectrons)
+    {
+        m_free = p_nElectrons;
+    }
+    
+    /**
+     * Record a finished time step
+     * @param p_free the number of free electrons at the end of the step
+     * @param p_captured the number of captured electrons at the end of the step
+     * @param p_recombined the number of electrons recombined since the start of the simulation, which can exceed the size of the population under continuous excitation
+     * @param p_captureAttempts the number of capture attempts since the start of the simulation
+     * @param p_captureSuccesses the number of captures since the start of the simulation
+     * @param p_workerStepNanos the time each worker spent moving electrons during the step, in nanoseconds
+     * @param p_barrierWaitNanos the time the workers spent waiting for the end of the step, summed over the workers, in nanoseconds
+     */
+    void recordStep(int p_free, int p_captured, long p_recombined, long p_captureAttempts, long p_captureSuccesses, long[] p_workerStepNanos, long p_barrierWaitNanos)
+    {
+        m_free = p_free;
+        m_captured = p_captured;
+        m_recombined = p_recombined;
+        m_captureAttempts = p_captureAttempts;
+        m_captureSuccesses = p_captureSuccesses;
+        m_workerStepNanos = p_workerStepNanos;
+        m_barrierWaitNanos += p_barrierWaitNanos;
+        m_steps += 1;
+    }
+    
+    @Override
+    public long getSteps()
+    {
+        return m_steps;
+    }
+    
+    @Override
+    public double getElapsedSeconds()
+    {
+        return (System.nanoTime() - m_startNanos) * 1e-9;
+    }
+    
+    @Override
+    public double getStepsPerSecond()
+    {
+        return m_steps / getElapsedSeconds();
+    }
+    
+    @Override
+    public int getFreeElectrons()
+    {
+        return m_free;
+    }
+    
+    @Override
+    public int getCapturedElectrons()
+    {
+        return m_captured;
+    }
+    
+    @Override
+    public long getRecombinedElectrons()
+    {
+        return m_recombined;
+    }
+    
+    @Override
+    public long getCaptureAttempts()
+    {
+        return m_captureAttempts;
+    }
+    
+    @Override
+    public long getCaptureSuccesses()
+    {
+        return m_captureSuccesses;
+    }
+    
+    @Override
+    public double getCaptureSuccessRate()
+    {
+        long attempts = m_captureAttempts;
+        
+        return attempts == 0 ? 0 : (double) m_captureSuccesses / attempts;
+    }
+    
+    @Override
+    public long[] getWorkerStepNanos()
+    {
+        return m_workerStepNanos.clone();
+    }
+    
+    @Override
+    public double getLoadImbalance()
+    {
+        long[] workerStepNanos = m_workerStepNanos;
+        long max = 0;
+        long sum = 0;
+        
+        for (long workerNanos: workerStepNanos)
+        {
+            max = Long.max(max, workerNanos);
+            sum += workerNanos;
+        }
+        
+        return sum == 0 ? 1 : (double) max * workerStepNanos.length / sum;
+    }
+    
+    @Override
+    public long getBarrierWaitNanos()
+    {
+        return m_barrierWaitNanos;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("step %d (%.1f steps/s): %d free, %d captured, %d recombined electrons; captures %d/%d (%.2f%%); load imbalance %.2f; barrier wait %.1f ms",
+                m_steps, getStepsPerSecond(), m_free, m_captured, m_recombined, m_captureSuccesses, m_captureAttempts, 100 * getCaptureSuccessRate(), getLoadImbalance(), m_barrierWaitNanos * 1e-6);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+/**
+ * Management interface of SimulationMetrics, read through JMX (jconsole, VisualVM...)
+ * The populations and worker times are the ones of the last finished time step, the other counts are totals since the start of the simulation.
+ * @author Alban Lafuente
+ */
+public interface SimulationMetricsMBean
+{
+    long getSteps();
+    
+    double getElapsedSeconds();
+    
+    double getStepsPerSecond();
+    
+    int getFreeElectrons();
+    
+    int getCapturedElectrons();
+    
+    long getRecombinedElectrons();
+    
+    long getCaptureAttempts();
+    
+    long getCaptureSuccesses();
+    
+    double getCaptureSuccessRate();
+    
+    /**
+     * @return the time each worker took to move its electrons during the last step, in nanoseconds
+     */
+    long[] getWorkerStepNanos();
+    
+    /**
+     * @return the time of the slowest worker divided by the mean time of the workers, during the last step
+     */
+    double getLoadImbalance();
+    
+    /**
+     * @return the time the workers spent waiting for the slowest of them at the end of the steps, summed over all the workers, in nanoseconds
+     */
+    long getBarrierWaitNanos();
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import java.util.List;
+
+/**
+ * The way GeneratorManager moves the electrons at each time step, see SimulationEngine
+ * @author Alban Lafuente
+ */
+interface StepEngine
+{
+    /**
+     * Move every electron not yet recombined by one time step, and record the step in the metrics
+     * @param p_metrics the metrics of the simulation
+     * @return the electrons that recombined during this step
+     * @throws InterruptedException if the simulation thread is interrupted while waiting for the workers
+     */
+    List<Electron> step(SimulationMetrics p_metrics) throws InterruptedException;
+    
+    /**
+     * Add free electrons to the ones moved, from the next step on, as done by each pulse of a pulsed simulation
+     * @param p_electrons new electrons, or recombined ones that have been reset
+     */
+    void inject(List<Electron> p_electrons);
+    
+    /**
+     * @return the number of electrons that have not recombined yet
+     */
+    int getActiveCount();
+    
+    int getThreadCount();
+    
+    /**
+     * Release the threads of the engine, once the simulation is over
+     */
+    void close();
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The sample is cut along x into one strip (tile) per thread. Each tile is moved by a single thread and owns:
+ *  - the QDs whose center is inside it: only the tile owning a QD moves the electrons trapped in it, so a QD is never used by two threads at once
+ *  - the free electrons inside it, and the electrons trapped in its QDs
+ * After its move, an electron that belongs to another tile (because it flew across an edge, possibly through the periodic wrap of Electron.move, or was captured by a QD of the neighbouring tile) is put in the inbox of that tile.
+ * The inboxes are lock-free queues, emptied by their tile at the start of the next step, the incoming electrons being appended in the order of their ids so that a run only depends on its seed and on the number of tiles.
+ * @author Alban Lafuente
+ */
+class TileEngine implements StepEngine
+{
+    //farthest flight of an electron in one step, in thermal velocities times the time step: an electron faster than that in x is practically impossible
+    private static final double MARGIN_THERMAL_FLIGHTS = 10;
+    
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final BigDecimal m_timeStep;
+    private final BigDecimal m_vth;
+    private final ExecutorService m_pool;
+    private final Tile[] m_tiles;
+    private final double m_tileWidth;
+    //all the electrons given to the engine, injected ones included
+    private long m_nElectrons;
+    private final int m_sortPeriod;
+    private final boolean m_primitiveFlight;
+    private final boolean m_batchedCapture;
+    private final FlightGrid m_grid;
+    private int m_nActive;
+    private long m_steps = 0;
+    
+    TileEngine (List<Electron> p_electronList, int p_nThreads, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, BigDecimal p_timeStep, BigDecimal p_vth, QDIndex p_index, long p_seed, int p_sortPeriod, boolean p_primitiveFlight, boolean p_batchedCapture, FlightGrid p_grid)
+    {
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+        m_timeStep = p_timeStep;
+        m_vth = p_vth;
+        m_sortPeriod = p_sortPeriod;
+        m_primitiveFlight = p_primitiveFlight;
+        m_batchedCapture = p_batchedCapture;
+        m_grid = p_grid;
+        m_nElectrons = p_electronList.size();
+        m_nActive = p_electronList.size();
+        
+        //the tiles are kept at least twice as wide as their margin, so that an electron never skips a whole tile
+        double margin = MARGIN_THERMAL_FLIGHTS * p_vth.doubleValue() * p_timeStep.doubleValue();
+        int nTiles = (int) Math.max(1, Math.min(p_nThreads, Math.floor(p_sampleXSize.doubleValue() / (2 * margin))));
+        m_tileWidth = p_sampleXSize.doubleValue() / nTiles;
+        m_pool = Executors.newFixedThreadPool(nTiles);
+        
+        //the QD index is read-only and shared by all the tiles: a tile only looks up the columns around its electrons
+        m_tiles = new Tile[nTiles];
+        for (int i = 0 ; i < nTiles ; i += 1)
+        {
+            m_tiles[i] = new Tile(i, p_index, new PcgRSFast(p_seed, GeneratorManager.MOVER_FIRST_STREAM + i));
+        }
+        
+        for (Electron electron: p_electronList)
+        {
+            m_tiles[tileOf(electron)].m_electrons.add(electron);
+        }
+    }
+    
+    /**
+     * @return the tile an electron belongs to: the one of the QD trapping it, or the one of its position if it is free
+     */
+    private int tileOf(Electron p_electron)
+    {
+        QuantumDot trap = p_electron.getTrappingDot();
+        double x = trap != null ? trap.getX().doubleValue() : p_electron.getX().doubleValue();
+        
+        return Integer.max(0, Integer.min(m_tiles.length - 1, (int) (x / m_tileWidth)));
+    }
+    
+    @Override
+    public List<Electron> step(SimulationMetrics p_metrics) throws InterruptedException
+    {
+        boolean sort = m_sortPeriod > 0 && m_steps % m_sortPeriod == 0;
+        for (Tile tile: m_tiles)
+        {
+            tile.m_sort = sort;
+        }
+        m_steps += 1;
+        
+        long stepStart = System.nanoTime();
+        List<Future<Void>> moves = m_pool.invokeAll(List.of(m_tiles));
+        for (Future<Void> move: moves)
+        {
+            try
+            {
+                move.get();
+            }
+            catch (ExecutionException ex)
+            {
+                throw new IllegalStateException("A tile failed to move its electrons", ex.getCause());
+            }
+        }
+        long stepNanos = System.nanoTime() - stepStart;
+        
+        List<Electron> recombined = new ArrayList<>();
+        int free = 0;
+        int captured = 0;
+        long captureAttempts = 0;
+        long captureSuccesses = 0;
+        long barrierWait = 0;
+        long[] tileNanos = new long[m_tiles.length];
+        for (int i = 0 ; i < m_tiles.length ; i += 1)
+        {
+            recombined.addAll(m_tiles[i].m_newlyRecombined);
+            free += m_tiles[i].m_freeCount;
+            captured += m_tiles[i].m_capturedCount;
+            captureAttempts += m_tiles[i].m_captureAttempts;
+            captureSuccesses += m_tiles[i].m_captureSuccesses;
+            tileNanos[i] = m_tiles[i].m_lastRunNanos;
+            barrierWait += Long.max(0, stepNanos - tileNanos[i]);
+        }
+        m_nActive -= recombined.size();
+        p_metrics.recordStep(free, captured, m_nElectrons - m_nActive, captureAttempts, captureSuccesses, tileNanos, barrierWait);
+        
+        return recombined;
+    }
+    
+    /**
+     * Each electron goes directly to the tile of its position, the tiles being idle between two steps
+     */
+    @Override
+    public void inject(List<Electron> p_electrons)
+    {
+        for (Electron electron: p_electrons)
+        {
+            m_tiles[tileOf(electron)].m_electrons.add(electron);
+        }
+        m_nElectrons += p_electrons.size();
+        m_nActive += p_electrons.size();
+    }
+    
+    @Override
+    public int getActiveCount()
+    {
+        return m_nActive;
+    }
+    
+    @Override
+    public int getThreadCount()
+    {
+        return m_tiles.length;
+    }
+    
+    @Override
+    public void close()
+    {
+        m_pool.shutdown();
+    }
+    
+    /**
+     * A strip of the sample, moved by one thread at a time. Only its inbox is written by the other threads.
+     */
+    private class Tile implements Callable<Void>
+    {
+        private final int m_index;
+        private final QDIndex m_QDIndex;
+        private final PcgRSFast m_randomGenerator;
+        private final ArrayList<Electron> m_electrons = new ArrayList<>();
+        private final ConcurrentLinkedQueue<Electron> m_inbox = new ConcurrentLinkedQueue<>();
+        private final FlightBatch m_flights = m_primitiveFlight ? new FlightBatch() : null;
+        private final CaptureBatch m_captures;
+        private long m_runs = 0;
+        private boolean m_sort = false;
+        
+        //counters read by the engine after each step: totals for the captures, values of the last run for the others
+        private long m_captureAttempts = 0;
+        private long m_captureSuccesses = 0;
+        private long m_lastRunNanos = 0;
+        private int m_freeCount = 0;
+        private int m_capturedCount = 0;
+        private List<Electron> m_newlyRecombined = new ArrayList<>();
+        
+        Tile (int p_index, QDIndex p_QDIndex, PcgRSFast p_RNG)
+        {
+            m_index = p_index;
+            m_QDIndex = p_QDIndex;
+            m_randomGenerator = p_RNG;
+            m_captures = m_batchedCapture ? new CaptureBatch(p_QDIndex, m_timeStep, m_sampleXSize, m_sampleYSize) : null;
+        }
+        
+        @Override
+        public Void call()
+        {
+            SimulationEvents.MoverStep stepEvent = new SimulationEvents.MoverStep();
+            stepEvent.begin();
+            long captureAttemptsBefore = m_captureAttempts;
+            long start = System.nanoTime();
+            int free = 0;
+            int kept = 0;
+            m_newlyRecombined = new ArrayList<>();
+            
+            //the electrons received during the last step
+            if (!m_inbox.isEmpty())
+            {
+                List<Electron> incoming = new ArrayList<>(m_inbox);
+                m_inbox.clear();
+                incoming.sort(Comparator.comparingInt(Electron::hashCode));
+                m_electrons.addAll(incoming);
+            }
+            
+            if (m_sort)
+            {
+                MortonOrder.sort(m_electrons, m_sampleXSize, m_sampleYSize);
+            }
+            
+            for (int i = 0 ; i < m_electrons.size() ; i += 1)
+            {
+                Electron curentElectron = m_electrons.get(i);
+                boolean wasFree = curentElectron.isFree();
+                
+                m_captureAttempts += curentElectron.move(m_timeStep, m_sampleXSize, m_sampleYSize, m_vth, m_QDIndex, m_randomGenerator, m_flights, m_captures);
+                
+                if (curentElectron.isRecombined())
+                {
+                    m_newlyRecombined.add(curentElectron);
+                }
+                else if (curentElectron.isFree())
+                {
+                    free += 1;
+                }
+                else if (wasFree)
+                {
+                    m_captureSuccesses += 1;
+                }
+            }
+            if (m_captures != null)
+            {
+                //the electrons of the batch were counted free
+                m_captures.resolve(m_randomGenerator, m_flights);
+                m_captureAttempts += m_captures.getLastAttempts();
+                m_captureSuccesses += m_captures.getLastCaptures();
+                free -= m_captures.getLastCaptures();
+            }
+            if (m_flights != null)
+            {
+                m_flights.fly(m_timeStep, m_sampleXSize, m_sampleYSize);
+            }
+            if (m_grid != null)
+            {
+                ElectronMover.skipEmptySteps(m_grid, m_electrons, 0, m_electrons.size(), m_timeStep);
+            }
+            
+            //the electrons are handed to their tile once every position is up to date
+            for (int i = 0 ; i < m_electrons.size() ; i += 1)
+            {
+                Electron curentElectron = m_electrons.get(i);
+                
+                if (!curentElectron.isRecombined())
+                {
+                    int destination = tileOf(curentElectron);
+                    if (destination == m_index)
+                    {
+                        m_electrons.set(kept, curentElectron);
+                        kept += 1;
+                    }
+                    else
+                    {
+                        m_tiles[destination].m_inbox.add(curentElectron);
+                    }
+                }
+            }
+            int moved = m_electrons.size() - m_newlyRecombined.size();
+            m_electrons.subList(kept, m_electrons.size()).clear();
+            
+            m_freeCount = free;
+            m_capturedCount = moved - free;
+            m_lastRunNanos = System.nanoTime() - start;
+            
+            stepEvent.chunkIndex = m_index;
+            stepEvent.step = m_runs;
+            stepEvent.electrons = moved;
+            stepEvent.captureAttempts = m_captureAttempts - captureAttemptsBefore;
+            stepEvent.commit();
+            m_runs += 1;
+            
+            return null;
+        }
+    }
+}
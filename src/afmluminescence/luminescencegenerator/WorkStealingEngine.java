@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package afmluminescence.luminescencegenerator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The electrons not yet recombined are kept in a compact array, cut at each step into blocks of BLOCK_SIZE electrons moved by the tasks of a fork/join pool.
+ * Idle threads steal blocks from the busy ones, and the array is compacted after each step, so the step time follows the number of electrons still active instead of the slowest chunk.
+ * Each block index has its own random stream and the compaction keeps the electrons in order, so the random draws do not depend on the number of threads. Like with the other engines, the blocks moved at the same time still race on the state of the QDs they share, so two runs with the same seed can differ.
+ * @author Alban Lafuente
+ */
+class WorkStealingEngine implements StepEngine
+{
+    //small enough to balance the work between the threads, large enough for the task overhead to be negligible next to the moves
+    static final int BLOCK_SIZE = 256;
+    
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final BigDecimal m_timeStep;
+    private final BigDecimal m_vth;
+    private final ForkJoinPool m_pool;
+    private final QDIndex m_QDIndex;
+    //all the electrons given to the engine, injected ones included
+    private long m_nElectrons;
+    private final int m_sortPeriod;
+    //one flight batch per thread, null when the electrons fly one by one
+    private final ThreadLocal<FlightBatch> m_flights;
+    private final ThreadLocal<CaptureBatch> m_captures;
+    private final FlightGrid m_grid;
+    private long m_steps = 0;
+    private final long m_seed;
+    private final List<PcgRSFast> m_blockRNGs = new ArrayList<>();
+    
+    //the electrons not yet recombined are the first m_nActive of m_active
+    private Electron[] m_active;
+    private int m_nActive;
+    
+    //counters of the current step, each block or thread writing in its own cell
+    private long[] m_blockCaptureAttempts = new long[0];
+    private long[] m_blockCaptureSuccesses = new long[0];
+    private AtomicLongArray m_threadNanos;
+    private long m_captureAttempts = 0;
+    private long m_captureSuccesses = 0;
+    
+    WorkStealingEngine (List<Electron> p_electronList, int p_nThreads, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, BigDecimal p_timeStep, BigDecimal p_vth, QDIndex p_index, long p_seed, int p_sortPeriod, boolean p_primitiveFlight, boolean p_batchedCapture, FlightGrid p_grid)
+    {
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+        m_timeStep = p_timeStep;
+        m_vth = p_vth;
+        m_QDIndex = p_index;
+        m_seed = p_seed;
+        m_sortPeriod = p_sortPeriod;
+        m_grid = p_grid;
+        m_flights = p_primitiveFlight ? ThreadLocal.withInitial(FlightBatch::new) : null;
+        m_captures = p_batchedCapture ? ThreadLocal.withInitial(() -> new CaptureBatch(p_index, p_timeStep, p_sampleXSize, p_sampleYSize)) : null;
+        m_pool = new ForkJoinPool(p_nThreads);
+        
+        m_active = p_electronList.toArray(new Electron[0]);
+        m_nActive = m_active.length;
+        m_nElectrons = m_active.length;
+    }
+    
+    @Override
+    public List<Electron> step(SimulationMetrics p_metrics)
+    {
+        if (m_sortPeriod > 0 && m_steps % m_sortPeriod == 0)
+        {
+            MortonOrder.sort(m_active, 0, m_nActive, m_sampleXSize, m_sampleYSize);
+        }
+        m_steps += 1;
+        
+        int nBlocks = (m_nActive + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        while (m_blockRNGs.size() < nBlocks)
+        {
+            m_blockRNGs.add(new PcgRSFast(m_seed, GeneratorManager.MOVER_FIRST_STREAM + m_blockRNGs.size()));
+        }
+        m_blockCaptureAttempts = new long[nBlocks];
+        m_blockCaptureSuccesses = new long[nBlocks];
+        //one cell per pool thread, and a last one for the calling thread, which can run tasks while waiting
+        m_threadNanos = new AtomicLongArray(m_pool.getParallelism() + 1);
+        
+        long stepStart = System.nanoTime();
+        if (nBlocks > 0)
+        {
+            m_pool.invoke(new MoveTask(0, nBlocks));
+        }
+        long stepNanos = System.nanoTime() - stepStart;
+        
+        //compaction: the recombined electrons are removed for good, the others keep their order
+        List<Electron> recombined = new ArrayList<>();
+        int nKept = 0;
+        int free = 0;
+        for (int i = 0 ; i < m_nActive ; i += 1)
+        {
+            Electron electron = m_active[i];
+            
+            if (electron.isRecombined())
+            {
+                recombined.add(electron);
+            }
+            else
+            {
+                if (electron.isFree())
+                {
+                    free += 1;
+                }
+                m_active[nKept] = electron;
+                nKept += 1;
+            }
+        }
+        for (int i = nKept ; i < m_nActive ; i += 1)
+        {
+            m_active[i] = null;
+        }
+        m_nActive = nKept;
+        
+        for (int i = 0 ; i < nBlocks ; i += 1)
+        {
+            m_captureAttempts += m_blockCaptureAttempts[i];
+            m_captureSuccesses += m_blockCaptureSuccesses[i];
+        }
+        long[] threadNanos = new long[m_threadNanos.length()];
+        long busyNanos = 0;
+        for (int i = 0 ; i < threadNanos.length ; i += 1)
+        {
+            threadNanos[i] = m_threadNanos.get(i);
+            busyNanos += threadNanos[i];
+        }
+        p_metrics.recordStep(free, m_nActive - free, m_nElectrons - m_nActive, m_captureAttempts, m_captureSuccesses, threadNanos, Long.max(0, m_pool.getParallelism() * stepNanos - busyNanos));
+        
+        return recombined;
+    }
+    
+    private void moveBlock(int p_block)
+    {
+        long start = System.nanoTime();
+        PcgRSFast RNG = m_blockRNGs.get(p_block);
+        int blockEnd = Integer.min(m_nActive, (p_block + 1) * BLOCK_SIZE);
+        long captureAttempts = 0;
+        long captureSuccesses = 0;
+        FlightBatch flights = m_flights != null ? m_flights.get() : null;
+        CaptureBatch captures = m_captures != null ? m_captures.get() : null;
+        
+        for (int i = p_block * BLOCK_SIZE ; i < blockEnd ; i += 1)
+        {
+            Electron electron = m_active[i];
+            boolean wasFree = electron.isFree();
+            
+            captureAttempts += electron.move(m_timeStep, m_sampleXSize, m_sampleYSize, m_vth, m_QDIndex, RNG, flights, captures);
+            if (wasFree && !electron.isFree())
+            {
+                captureSuccesses += 1;
+            }
+        }
+        if (captures != null)
+        {
+            captures.resolve(RNG, flights);
+            captureAttempts += captures.getLastAttempts();
+            captureSuccesses += captures.getLastCaptures();
+        }
+        if (flights != null)
+        {
+            flights.fly(m_timeStep, m_sampleXSize, m_sampleYSize);
+        }
+        if (m_grid != null)
+        {
+            ElectronMover.skipEmptySteps(m_grid, Arrays.asList(m_active), p_block * BLOCK_SIZE, blockEnd, m_timeStep);
+        }
+        
+        m_blockCaptureAttempts[p_block] = captureAttempts;
+        m_blockCaptureSuccesses[p_block] = captureSuccesses;
+        
+        Thread currentThread = Thread.currentThread();
+        int threadCell = m_threadNanos.length() - 1;
+        if (currentThread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) currentThread).getPool() == m_pool)
+        {
+            threadCell = ((ForkJoinWorkerThread) currentThread).getPoolIndex() % (m_threadNanos.length() - 1);
+        }
+        m_threadNanos.addAndGet(threadCell, System.nanoTime() - start);
+    }
+    
+    /**
+     * The electrons are appended after the active ones, in their order
+     */
+    @Override
+    public void inject(List<Electron> p_electrons)
+    {
+        if (m_nActive + p_electrons.size() > m_active.length)
+        {
+            m_active = Arrays.copyOf(m_active, Integer.max(2 * m_active.length, m_nActive + p_electrons.size()));
+        }
+        
+        for (Electron electron: p_electrons)
+        {
+            m_active[m_nActive] = electron;
+            m_nActive += 1;
+        }
+        m_nElectrons += p_electrons.size();
+    }
+    
+    @Override
+    public int getActiveCount()
+    {
+        return m_nActive;
+    }
+    
+    @Override
+    public int getThreadCount()
+    {
+        return m_pool.getParallelism();
+    }
+    
+    @Override
+    public void close()
+    {
+        m_pool.shutdown();
+    }
+    
+    /**
+     * Move the blocks [start, end[, split in halves until a single block is left so that idle threads can steal the other halves
+     */
+    private class MoveTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final int m_firstBlock;
+        private final int m_endBlock;
+        
+        MoveTask (int p_firstBlock, int p_endBlock)
+        {
+            m_firstBlock = p_firstBlock;
+            m_endBlock = p_endBlock;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (m_endBlock - m_firstBlock == 1)
+            {
+                moveBlock(m_firstBlock);
+            }
+            else
+            {
+                int middle = (m_firstBlock + m_endBlock) >>> 1;
+                invokeAll(new MoveTask(m_firstBlock, middle), new MoveTask(middle, m_endBlock));
+            }
+        }
+    }
+}